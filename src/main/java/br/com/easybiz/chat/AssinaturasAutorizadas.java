@@ -0,0 +1,118 @@
+package br.com.easybiz.chat;
+
+import java.security.Principal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import br.com.easybiz.exception.ForbiddenException;
+import br.com.easybiz.exception.ResourceNotFoundException;
+import br.com.easybiz.service.AuthContextService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Autoriza os SUBSCRIBE do STOMP: {@code /topic/mensagens/{pedidoId}} e os subtopicos dele
+ * ({@code /digitando}, {@code /lida}, {@code /ultimo-visto}) so para o cliente e o prestador do pedido.
+ *
+ * A decisao fica numa ACL por sessao (pedidoId -> permitido, ate {@code app.websocket.assinaturas.max-por-sessao}
+ * pedidos), entao reassinar depois de trocar de tela nao consulta nada. Como os participantes de um pedido
+ * nao mudam, a ACL vale ate a sessao fechar. Outros destinos {@code /topic} e {@code /queue} diretos
+ * (sem passar por {@code /user}) sao recusados. Metricas em {@code easybiz.websocket.assinaturas}.
+ */
+@Component
+public class AssinaturasAutorizadas {
+
+    private static final Logger log = LoggerFactory.getLogger(AssinaturasAutorizadas.class);
+
+    private static final Pattern TOPICO_PEDIDO = Pattern.compile("^/topic/mensagens/(\\d{1,18})(/[a-z-]+)?$");
+
+    private final ParticipantesPedidoCache participantesPedido;
+    private final AuthContextService authContextService;
+    private final int maxPorSessao;
+
+    // sessaoId -> (pedidoId -> permitido)
+    private final Map<String, Map<Long, Boolean>> acls = new ConcurrentHashMap<>();
+
+    private final Counter daAcl;
+    private final Counter consultadas;
+    private final Counter negadas;
+
+    public AssinaturasAutorizadas(
+            ParticipantesPedidoCache participantesPedido,
+            AuthContextService authContextService,
+            MeterRegistry meterRegistry,
+            @Value("${app.websocket.assinaturas.max-por-sessao:256}") int maxPorSessao
+    ) {
+        if (maxPorSessao <= 0) {
+            throw new IllegalStateException("app.websocket.assinaturas.max-por-sessao deve ser positivo");
+        }
+        this.participantesPedido = participantesPedido;
+        this.authContextService = authContextService;
+        this.maxPorSessao = maxPorSessao;
+        this.daAcl = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "acl");
+        this.consultadas = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "consulta");
+        this.negadas = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "negada");
+        meterRegistry.gauge("easybiz.websocket.assinaturas.sessoes", acls, Map::size);
+    }
+
+    /**
+     * @throws ForbiddenException se a sessao nao puder assinar o destino
+     */
+    public void verificar(String sessaoId, Principal principal, String destino) {
+        if (destino == null || destino.startsWith("/user/")) {
+            return;
+        }
+        Matcher topico = TOPICO_PEDIDO.matcher(destino);
+        if (sessaoId == null || principal == null || !topico.matches()) {
+            negar(sessaoId, destino);
+        }
+
+        Long pedidoId = Long.valueOf(topico.group(1));
+        Map<Long, Boolean> acl = acls.computeIfAbsent(sessaoId, s -> new ConcurrentHashMap<>());
+        Boolean permitido = acl.get(pedidoId);
+        if (permitido != null) {
+            daAcl.increment();
+        } else {
+            consultadas.increment();
+            permitido = participa(pedidoId, principal);
+            if (acl.size() < maxPorSessao) {
+                acl.put(pedidoId, permitido);
+            }
+        }
+        if (!permitido) {
+            negar(sessaoId, destino);
+        }
+    }
+
+    public int sessoes() {
+        return acls.size();
+    }
+
+    @EventListener
+    public void onDesconexao(SessionDisconnectEvent event) {
+        acls.remove(event.getSessionId());
+    }
+
+    private boolean participa(Long pedidoId, Principal principal) {
+        try {
+            return participantesPedido.buscar(pedidoId).inclui(authContextService.getUsuarioId(principal));
+        } catch (ResourceNotFoundException e) {
+            return false;
+        }
+    }
+
+    private void negar(String sessaoId, String destino) {
+        negadas.increment();
+        log.warn("[WS] Assinatura negada para a sessao {}: {}", sessaoId, destino);
+        throw new ForbiddenException("Acesso negado: assinatura nao permitida para " + destino);
+    }
+}
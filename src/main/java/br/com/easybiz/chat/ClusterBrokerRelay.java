@@ -0,0 +1,149 @@
+package br.com.easybiz.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Leva para as outras instancias o que e enviado ao broker local, e traz o que elas enviam.
+ *
+ * Interceptor do {@code brokerChannel}: toda mensagem enviada pelo {@code SimpMessagingTemplate}
+ * segue para os assinantes desta instancia e e publicada no {@link ClusterMessageBus} com um id novo.
+ * Ao receber do barramento, a instancia ignora o que ela mesma publicou e ids ja vistos, e reinjeta a
+ * mensagem no {@code brokerChannel} marcada com {@link #HEADER_ID}, entao cada instancia entrega so
+ * aos seus assinantes e nada e republicado. Destinos {@code /user/...} viajam antes de serem
+ * resolvidos: cada instancia resolve para as sessoes que ela conhece. Envios para uma sessao
+ * especifica (ex.: {@code @SendToUser(broadcast = false)}) ficam na instancia que tem a sessao.
+ *
+ * Mensagens enviadas com os headers de {@link #estado(String)} ("digitando", leituras, contadores) valem
+ * so pelo ultimo valor: vao por {@link ClusterMessageBus#publicarEstado} e podem ser consolidadas.
+ */
+@Component
+public class ClusterBrokerRelay implements ChannelInterceptor {
+
+    public static final String HEADER_ID = "easybizClusterId";
+    public static final String HEADER_ESTADO = "easybizClusterEstado";
+
+    private final ClusterMessageBus bus;
+    private final MessageChannel brokerChannel;
+    private final String instanciaId = UUID.randomUUID().toString();
+
+    // Ids recebidos mais recentes, para descartar entregas repetidas do barramento
+    private final Set<String> vistos;
+
+    private final Counter publicadas;
+    private final Counter recebidas;
+    private final Counter duplicadas;
+
+    public ClusterBrokerRelay(
+            ClusterMessageBus bus,
+            @Lazy @Qualifier("brokerChannel") MessageChannel brokerChannel,
+            MeterRegistry meterRegistry,
+            @Value("${app.cluster.dedup.max-ids:10000}") int maxIds
+    ) {
+        this.bus = bus;
+        this.brokerChannel = brokerChannel;
+        this.vistos = Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> maisAntigo) {
+                return size() > maxIds;
+            }
+        });
+        this.publicadas = meterRegistry.counter("easybiz.cluster.mensagens", "direcao", "publicada");
+        this.recebidas = meterRegistry.counter("easybiz.cluster.mensagens", "direcao", "recebida");
+        this.duplicadas = meterRegistry.counter("easybiz.cluster.mensagens", "direcao", "duplicada");
+    }
+
+    @PostConstruct
+    void iniciar() {
+        bus.assinar(this::receber);
+    }
+
+    public String getInstanciaId() {
+        return instanciaId;
+    }
+
+    /**
+     * Headers para {@code convertAndSend} de um estado em que so o ultimo valor por {@code chave} importa.
+     * O header nao e nativo, entao nao chega ao cliente STOMP. Um objeto por envio (o template o congela).
+     */
+    public static MessageHeaders estado(String chave) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setHeader(HEADER_ESTADO, chave);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(message);
+        if (accessor.getMessageType() != SimpMessageType.MESSAGE
+                || accessor.getHeader(HEADER_ID) != null
+                || accessor.getHeader(SimpMessageHeaderAccessor.ORIGINAL_DESTINATION) != null
+                || accessor.getSessionId() != null
+                || accessor.getDestination() == null
+                || !(message.getPayload() instanceof byte[] payload)) {
+            return message;
+        }
+
+        MimeType tipo = accessor.getContentType();
+        EnvelopeCluster envelope = new EnvelopeCluster(
+                UUID.randomUUID().toString(),
+                instanciaId,
+                accessor.getDestination(),
+                tipo != null ? tipo.toString() : null,
+                new String(payload, StandardCharsets.UTF_8)
+        );
+        Object chaveEstado = accessor.getHeader(HEADER_ESTADO);
+        if (chaveEstado != null) {
+            bus.publicarEstado(chaveEstado.toString(), envelope);
+        } else {
+            bus.publicar(envelope);
+        }
+        publicadas.increment();
+        return message;
+    }
+
+    private void receber(EnvelopeCluster envelope) {
+        // Destinos fora do STOMP (ex.: invalidacoes de cache) sao de outros ouvintes do barramento
+        if (instanciaId.equals(envelope.origem()) || !envelope.destino().startsWith("/")) {
+            return;
+        }
+        synchronized (vistos) {
+            if (!vistos.add(envelope.id())) {
+                duplicadas.increment();
+                return;
+            }
+        }
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(envelope.destino());
+        if (envelope.tipoConteudo() != null) {
+            accessor.setContentType(MimeType.valueOf(envelope.tipoConteudo()));
+        }
+        accessor.setHeader(HEADER_ID, envelope.id());
+        brokerChannel.send(MessageBuilder.createMessage(
+                envelope.payload().getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders()));
+        recebidas.increment();
+    }
+}
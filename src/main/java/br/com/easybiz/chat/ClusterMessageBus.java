@@ -0,0 +1,25 @@
+package br.com.easybiz.chat;
+
+import java.util.function.Consumer;
+
+/**
+ * Barramento de broadcast entre as instancias da API.
+ *
+ * Cada envelope publicado chega a todos os ouvintes de todas as instancias, inclusive a que publicou;
+ * quem recebe descarta o que ele mesmo publicou (pela {@link EnvelopeCluster#origem()}).
+ * A entrega e "no maximo uma vez, talvez repetida": ouvintes devem deduplicar pelo {@link EnvelopeCluster#id()}.
+ */
+public interface ClusterMessageBus {
+
+    void publicar(EnvelopeCluster envelope);
+
+    /**
+     * Publica um estado em que so o ultimo valor por {@code chave} importa ("digitando", leitura, invalidacao
+     * de cache): um envelope com a mesma chave que ainda nao saiu e substituido. Sem fila, e um {@link #publicar}.
+     */
+    default void publicarEstado(String chave, EnvelopeCluster envelope) {
+        publicar(envelope);
+    }
+
+    void assinar(Consumer<EnvelopeCluster> ouvinte);
+}
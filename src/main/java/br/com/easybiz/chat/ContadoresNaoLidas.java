@@ -0,0 +1,98 @@
+package br.com.easybiz.chat;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.easybiz.dto.NaoLidasDTO;
+import br.com.easybiz.event.NaoLidasAlteradasEvent;
+import br.com.easybiz.model.ContadorNaoLidas;
+import br.com.easybiz.repository.ContadorNaoLidasRepository;
+import br.com.easybiz.repository.ContadorNaoLidasRepository.MarcaLeitura;
+
+/**
+ * Mantem {@code contador_nao_lidas} na mesma transacao que grava ou marca as mensagens,
+ * sempre com um UPDATE atomico (soma ou desconto, nunca ler-e-regravar).
+ *
+ * Depois do commit, o dono do contador recebe o valor atual em {@code /user/queue/nao-lidas}.
+ */
+@Component
+public class ContadoresNaoLidas {
+
+    public static final String FILA_USUARIO = "/queue/nao-lidas";
+
+    private final ContadorNaoLidasRepository repository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    public ContadoresNaoLidas(
+            ContadorNaoLidasRepository repository,
+            ApplicationEventPublisher eventPublisher,
+            SimpMessagingTemplate messagingTemplate
+    ) {
+        this.repository = repository;
+        this.eventPublisher = eventPublisher;
+        this.messagingTemplate = messagingTemplate;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void criar(Long pedidoId, Long clienteId, Long prestadorId) {
+        repository.criarContadores(pedidoId, clienteId, prestadorId);
+    }
+
+    /**
+     * {@code quantidade} mensagens novas para o destinatario; {@code ultimaMensagemId} passa a ser a previa
+     * se for mais nova (por {@code enviadaEm} e id) que a atual.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void registrarEnvio(Long pedidoId, Long destinatarioId, int quantidade,
+                               Long ultimaMensagemId, LocalDateTime enviadaEm) {
+        repository.registrarEnvio(pedidoId, destinatarioId, quantidade, ultimaMensagemId, enviadaEm);
+        eventPublisher.publishEvent(new NaoLidasAlteradasEvent(pedidoId, destinatarioId));
+    }
+
+    /**
+     * Avanca a marca d'agua de leitura antes de marcar as mensagens. O UPDATE trava a linha do leitor:
+     * um lote do write-behind do mesmo pedido ja commitou (e o UPDATE das mensagens o ve) ou espera e
+     * grava como lidas as mensagens ate a marca ({@link #travarMarcasLeitura}).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void registrarMarcaLeitura(Long pedidoId, Long leitorId, Long ateMensagemId) {
+        repository.registrarMarcaLeitura(pedidoId, leitorId, ateMensagemId);
+    }
+
+    /**
+     * Marcas d'agua de leitura dos participantes dos pedidos, travadas ate o fim da transacao.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public Map<ContadorNaoLidas.Chave, Long> travarMarcasLeitura(Collection<Long> pedidos) {
+        Map<ContadorNaoLidas.Chave, Long> marcas = new HashMap<>();
+        for (MarcaLeitura marca : repository.travarMarcasLeitura(pedidos)) {
+            marcas.put(new ContadorNaoLidas.Chave(marca.getPedidoId(), marca.getUsuarioId()), marca.getLidaAteMensagemId());
+        }
+        return marcas;
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void registrarLeitura(Long pedidoId, Long leitorId, int quantidade) {
+        repository.registrarLeitura(pedidoId, leitorId, quantidade);
+        eventPublisher.publishEvent(new NaoLidasAlteradasEvent(pedidoId, leitorId));
+    }
+
+    @TransactionalEventListener
+    public void onNaoLidasAlteradas(NaoLidasAlteradasEvent event) {
+        // Le o valor ja commitado: envios concorrentes no mesmo pedido nunca deixam a tela com um numero velho
+        repository.buscarContador(event.pedidoId(), event.usuarioId()).ifPresent(contador ->
+                messagingTemplate.convertAndSendToUser(contador.getEmail(), FILA_USUARIO,
+                        new NaoLidasDTO(event.pedidoId(), contador.getQuantidade()),
+                        ClusterBrokerRelay.estado(FILA_USUARIO + ":" + contador.getEmail() + ":" + event.pedidoId())));
+    }
+}
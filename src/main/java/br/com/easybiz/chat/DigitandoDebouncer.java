@@ -0,0 +1,163 @@
+package br.com.easybiz.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import br.com.easybiz.dto.DigitandoDTO;
+import br.com.easybiz.exception.ForbiddenException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Filtra o "digitando" do WebSocket por (sessao, pedido) antes de publicar em {@code /digitando}.
+ *
+ * So mudancas de estado sao publicadas, no maximo uma a cada {@code app.chat.digitando.intervalo-ms};
+ * uma mudanca que chega antes disso fica pendente e sai na verificacao seguinte. "Digitando" sem
+ * novo frame por {@code app.chat.digitando.expiracao-ms} vira "parou", assim como ao desconectar.
+ * Nada aqui acessa o banco: o usuario vem do principal e a autorizacao do {@link ParticipantesPedidoCache}.
+ */
+@Component
+public class DigitandoDebouncer {
+
+    private final ParticipantesPedidoCache participantesPedido;
+    private final SimpMessagingTemplate messagingTemplate;
+    private final long intervaloMs;
+    private final long expiracaoMs;
+
+    private final Map<Chave, Estado> estados = new ConcurrentHashMap<>();
+
+    private final Counter encaminhados;
+    private final Counter descartados;
+
+    public DigitandoDebouncer(
+            ParticipantesPedidoCache participantesPedido,
+            SimpMessagingTemplate messagingTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.digitando.intervalo-ms:1000}") long intervaloMs,
+            @Value("${app.chat.digitando.expiracao-ms:5000}") long expiracaoMs
+    ) {
+        this.participantesPedido = participantesPedido;
+        this.messagingTemplate = messagingTemplate;
+        this.intervaloMs = intervaloMs;
+        this.expiracaoMs = expiracaoMs;
+        this.encaminhados = meterRegistry.counter("easybiz.chat.digitando", "resultado", "encaminhado");
+        this.descartados = meterRegistry.counter("easybiz.chat.digitando", "resultado", "descartado");
+    }
+
+    /**
+     * Recebe um frame de digitacao. Devolve {@code true} se ele foi publicado agora.
+     */
+    public boolean receber(String sessaoId, Long pedidoId, Long usuarioId, String nome, boolean digitando) {
+        if (!participantesPedido.buscar(pedidoId).inclui(usuarioId)) {
+            throw new ForbiddenException("Acesso negado: usuario nao participa deste pedido.");
+        }
+
+        long agora = System.currentTimeMillis();
+        Envio[] envio = new Envio[1];
+        estados.compute(new Chave(sessaoId, pedidoId), (chave, estado) -> {
+            if (estado == null) {
+                estado = new Estado(usuarioId);
+            }
+            estado.nome = nome;
+            if (digitando) {
+                estado.expiraEm = agora + expiracaoMs;
+            }
+            if (digitando == estado.publicado) {
+                estado.pendente = null;
+            } else if (agora - estado.publicadoEm >= intervaloMs) {
+                envio[0] = estado.publicar(pedidoId, digitando, agora);
+            } else {
+                estado.pendente = digitando;
+            }
+            return estado;
+        });
+
+        if (envio[0] == null) {
+            descartados.increment();
+            return false;
+        }
+        publicar(envio[0]);
+        return true;
+    }
+
+    /**
+     * Publica as mudancas pendentes cujo intervalo ja passou, expira quem parou de mandar frames
+     * e descarta o estado de quem esta parado.
+     */
+    @Scheduled(fixedDelayString = "${app.chat.digitando.verificacao-ms:250}")
+    public void verificar() {
+        long agora = System.currentTimeMillis();
+        List<Envio> envios = new ArrayList<>();
+
+        for (Chave chave : estados.keySet()) {
+            estados.computeIfPresent(chave, (c, estado) -> {
+                if (estado.pendente != null && agora - estado.publicadoEm >= intervaloMs) {
+                    envios.add(estado.publicar(c.pedidoId(), estado.pendente, agora));
+                } else if (estado.pendente == null && estado.publicado && estado.expiraEm <= agora) {
+                    envios.add(estado.publicar(c.pedidoId(), false, agora));
+                }
+                boolean ocioso = estado.pendente == null && !estado.publicado
+                        && agora - estado.publicadoEm >= expiracaoMs;
+                return ocioso ? null : estado;
+            });
+        }
+        envios.forEach(this::publicar);
+    }
+
+    @EventListener
+    public void onDesconexao(SessionDisconnectEvent event) {
+        long agora = System.currentTimeMillis();
+        for (Chave chave : estados.keySet()) {
+            if (!chave.sessaoId().equals(event.getSessionId())) {
+                continue;
+            }
+            Estado estado = estados.remove(chave);
+            if (estado != null && estado.publicado) {
+                publicar(estado.publicar(chave.pedidoId(), false, agora));
+            }
+        }
+    }
+
+    private void publicar(Envio envio) {
+        encaminhados.increment();
+        String destino = "/topic/mensagens/" + envio.pedidoId() + "/digitando";
+        messagingTemplate.convertAndSend(destino,
+                new DigitandoDTO(envio.usuarioId(), envio.nome(), envio.digitando()),
+                ClusterBrokerRelay.estado(destino + ":" + envio.usuarioId()));
+    }
+
+    private record Chave(String sessaoId, Long pedidoId) {}
+
+    private record Envio(Long pedidoId, Long usuarioId, String nome, boolean digitando) {}
+
+    // Alterado so dentro de compute/computeIfPresent (ou depois de removido do mapa)
+    private static final class Estado {
+
+        final Long usuarioId;
+        String nome;
+        boolean publicado;
+        long publicadoEm;
+        long expiraEm;
+        Boolean pendente;
+
+        Estado(Long usuarioId) {
+            this.usuarioId = usuarioId;
+        }
+
+        Envio publicar(Long pedidoId, boolean digitando, long agora) {
+            publicado = digitando;
+            publicadoEm = agora;
+            pendente = null;
+            return new Envio(pedidoId, usuarioId, nome, digitando);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package br.com.easybiz.chat;
+
+/**
+ * Mensagem STOMP ja serializada, como trafega entre as instancias.
+ *
+ * @param id          id unico da mensagem (deduplicacao)
+ * @param origem      id da instancia que publicou
+ * @param destino     destino STOMP ({@code /topic/...} ou {@code /user/...})
+ * @param tipoConteudo content-type do payload, ou null
+ * @param payload     corpo ja convertido (JSON)
+ */
+public record EnvelopeCluster(String id, String origem, String destino, String tipoConteudo, String payload) {}
@@ -0,0 +1,71 @@
+package br.com.easybiz.chat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fila limitada do que falta publicar no barramento, drenada em lotes por uma unica thread.
+ *
+ * Mensagens entram todas, em ordem. Estados ({@link ClusterMessageBus#publicarEstado}) ficam um por chave:
+ * um novo valor substitui o que ainda nao saiu, entao rajadas de "digitando", leituras e invalidacoes
+ * de cache viram um envio so. No lote, as mensagens vem antes dos estados.
+ */
+public class FilaPublicacaoCluster {
+
+    private final int capacidade;
+    private final ArrayDeque<String> mensagens = new ArrayDeque<>();
+    private final LinkedHashMap<String, String> estados = new LinkedHashMap<>();
+
+    public FilaPublicacaoCluster(int capacidade) {
+        if (capacidade <= 0) {
+            throw new IllegalArgumentException("capacidade deve ser positiva");
+        }
+        this.capacidade = capacidade;
+    }
+
+    /**
+     * @return false se a fila esta cheia (o envelope nao entra)
+     */
+    public synchronized boolean adicionar(String envelope) {
+        if (tamanho() >= capacidade) {
+            return false;
+        }
+        mensagens.add(envelope);
+        return true;
+    }
+
+    /**
+     * @return false se a fila esta cheia e a chave ainda nao tinha valor pendente
+     */
+    public synchronized boolean adicionarEstado(String chave, String envelope) {
+        if (!estados.containsKey(chave) && tamanho() >= capacidade) {
+            return false;
+        }
+        estados.put(chave, envelope);
+        return true;
+    }
+
+    /**
+     * Retira ate {@code maximo} envelopes: primeiro as mensagens, na ordem de chegada, depois os estados.
+     */
+    public synchronized List<String> drenar(int maximo) {
+        List<String> lote = new ArrayList<>(Math.min(maximo, tamanho()));
+        while (lote.size() < maximo && !mensagens.isEmpty()) {
+            lote.add(mensagens.poll());
+        }
+        Iterator<Map.Entry<String, String>> it = estados.entrySet().iterator();
+        while (lote.size() < maximo && it.hasNext()) {
+            lote.add(it.next().getValue());
+            it.remove();
+        }
+        return lote;
+    }
+
+    public synchronized int tamanho() {
+        return mensagens.size() + estados.size();
+    }
+}
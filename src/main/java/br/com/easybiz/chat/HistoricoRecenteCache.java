@@ -0,0 +1,360 @@
+package br.com.easybiz.chat;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.easybiz.dto.HistoricoMensagensDTO;
+import br.com.easybiz.dto.MensagemResponseDTO;
+import br.com.easybiz.event.MensagemEnviadaEvent;
+import br.com.easybiz.event.MensagensLidasEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Ultimas mensagens das conversas ativas, para servir o historico recente sem ir ao banco.
+ *
+ * Cada pedido tem um buffer circular com as {@code app.chat.historico.mensagens-por-pedido} mensagens
+ * mais novas, em ordem (enviadoEm, id), preenchido na primeira leitura e depois a cada envio e leitura.
+ * As conversas ficam num LRU limitado pelo tamanho estimado de todas as mensagens
+ * ({@code app.chat.historico.max-bytes}); 0 desliga o cache.
+ *
+ * Envios e leituras entram depois do commit. Cada conversa guarda ate onde cada participante leu, entao uma
+ * mensagem que chega depois da leitura que a cobre (lote do write-behind) ja entra lida. Um carregamento concorrente com uma alteracao do mesmo pedido
+ * e descartado (versao por faixa de pedidos), entao o buffer nunca fica com buraco. As outras instancias
+ * recebem so uma invalidacao pelo {@link ClusterMessageBus} e recarregam na proxima leitura.
+ */
+@Component
+public class HistoricoRecenteCache {
+
+    public static final String DESTINO_INVALIDACAO = "historico-recente:";
+
+    private static final Comparator<MensagemResponseDTO> CRONOLOGICA = Comparator
+            .comparing(MensagemResponseDTO::enviadoEm)
+            .thenComparing(MensagemResponseDTO::id);
+
+    // Objeto, referencias e campos fixos do DTO; o texto conta 2 bytes por caractere
+    private static final long BYTES_FIXOS_MENSAGEM = 160;
+    private static final int FAIXAS_VERSAO = 1024;
+
+    private final ClusterMessageBus bus;
+    private final ClusterBrokerRelay relay;
+    private final int capacidade;
+    private final long maxBytes;
+
+    // Ordem de acesso: a primeira conversa e a menos usada
+    private final LinkedHashMap<Long, Conversa> conversas = new LinkedHashMap<>(256, 0.75f, true);
+    private final long[] versoes = new long[FAIXAS_VERSAO];
+    private long versao;
+    private long bytesTotal;
+
+    private final Counter acertos;
+    private final Counter falhas;
+
+    public HistoricoRecenteCache(
+            ClusterMessageBus bus,
+            ClusterBrokerRelay relay,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.historico.mensagens-por-pedido:50}") int capacidade,
+            @Value("${app.chat.historico.max-bytes:33554432}") long maxBytes
+    ) {
+        if (capacidade <= 0) {
+            throw new IllegalStateException("app.chat.historico.mensagens-por-pedido deve ser positivo");
+        }
+        this.bus = bus;
+        this.relay = relay;
+        this.capacidade = capacidade;
+        this.maxBytes = maxBytes;
+        this.acertos = meterRegistry.counter("easybiz.chat.historico.cache", "resultado", "acerto");
+        this.falhas = meterRegistry.counter("easybiz.chat.historico.cache", "resultado", "falha");
+        meterRegistry.gauge("easybiz.chat.historico.cache.bytes", this, HistoricoRecenteCache::getBytesTotal);
+        meterRegistry.gauge("easybiz.chat.historico.cache.conversas", this, HistoricoRecenteCache::getQuantidadeConversas);
+    }
+
+    @PostConstruct
+    void iniciar() {
+        bus.assinar(envelope -> {
+            if (envelope.destino().startsWith(DESTINO_INVALIDACAO) && !relay.getInstanciaId().equals(envelope.origem())) {
+                invalidar(Long.valueOf(envelope.destino().substring(DESTINO_INVALIDACAO.length())));
+            }
+        });
+    }
+
+    public int getCapacidade() {
+        return capacidade;
+    }
+
+    public synchronized long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    public synchronized int getQuantidadeConversas() {
+        return conversas.size();
+    }
+
+    /**
+     * Pagina do historico com a mesma semantica de {@code MensagemService.listarMensagens},
+     * se o buffer do pedido consegue responder sozinho.
+     */
+    public synchronized Optional<HistoricoMensagensDTO> buscar(Long pedidoId, Long beforeId, Long afterId, int limite) {
+        Conversa conversa = conversas.get(pedidoId);
+        HistoricoMensagensDTO pagina = conversa == null ? null
+                : afterId != null ? conversa.posteriores(afterId, limite)
+                : beforeId != null ? conversa.anteriores(beforeId, limite)
+                : conversa.ultimas(limite);
+        (pagina != null ? acertos : falhas).increment();
+        return Optional.ofNullable(pagina);
+    }
+
+    /**
+     * Versao do pedido antes de consultar o banco, a ser devolvida em {@link #carregar}.
+     */
+    public synchronized long versao(Long pedidoId) {
+        return versoes[faixa(pedidoId)];
+    }
+
+    /**
+     * Guarda as mensagens mais novas do pedido (em ordem cronologica) lidas do banco.
+     * {@code inicioDaConversa}: a lista comeca na primeira mensagem do pedido.
+     * Ignorado se o pedido mudou depois de {@code versaoLida}.
+     */
+    public synchronized void carregar(Long pedidoId, List<MensagemResponseDTO> mensagens,
+                                      boolean inicioDaConversa, long versaoLida) {
+        if (maxBytes <= 0 || versoes[faixa(pedidoId)] != versaoLida) {
+            return;
+        }
+        remover(pedidoId);
+        Conversa conversa = new Conversa(inicioDaConversa && mensagens.size() <= capacidade);
+        for (int i = Math.max(0, mensagens.size() - capacidade); i < mensagens.size(); i++) {
+            conversa.adicionar(mensagens.get(i));
+        }
+        conversas.put(pedidoId, conversa);
+        bytesTotal += conversa.bytes;
+        liberarEspaco();
+    }
+
+    /**
+     * Mensagens ja gravadas (commitadas). Repetir uma mensagem nao tem efeito.
+     */
+    public void registrarEnvios(List<MensagemResponseDTO> mensagens) {
+        Set<Long> pedidos = new LinkedHashSet<>();
+        synchronized (this) {
+            for (MensagemResponseDTO mensagem : mensagens) {
+                Long pedidoId = mensagem.pedidoServicoId();
+                pedidos.add(pedidoId);
+                tocar(pedidoId);
+                Conversa conversa = conversas.get(pedidoId);
+                if (conversa != null) {
+                    bytesTotal -= conversa.bytes;
+                    conversa.adicionar(mensagem);
+                    bytesTotal += conversa.bytes;
+                }
+            }
+            liberarEspaco();
+        }
+        pedidos.forEach(this::publicarInvalidacao);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onMensagemEnviada(MensagemEnviadaEvent event) {
+        // Na fila do write-behind: entra quando o lote for gravado (MensagemWriteBehind), nao antes
+        if (!event.gravada()) {
+            return;
+        }
+        registrarEnvios(List.of(event.mensagem()));
+    }
+
+    @TransactionalEventListener
+    public void onMensagensLidas(MensagensLidasEvent event) {
+        synchronized (this) {
+            tocar(event.pedidoId());
+            Conversa conversa = conversas.get(event.pedidoId());
+            if (conversa != null) {
+                conversa.marcarLidas(event.leitorId(), event.ateMensagemId(), event.lidaEm());
+            }
+        }
+        publicarInvalidacao(event.pedidoId());
+    }
+
+    public synchronized void invalidar(Long pedidoId) {
+        tocar(pedidoId);
+        remover(pedidoId);
+    }
+
+    private void publicarInvalidacao(Long pedidoId) {
+        // Varios envios no mesmo pedido antes do proximo lote viram uma invalidacao so
+        bus.publicarEstado(DESTINO_INVALIDACAO + pedidoId, new EnvelopeCluster(UUID.randomUUID().toString(),
+                relay.getInstanciaId(), DESTINO_INVALIDACAO + pedidoId, null, ""));
+    }
+
+    private void tocar(Long pedidoId) {
+        versoes[faixa(pedidoId)] = ++versao;
+    }
+
+    private void remover(Long pedidoId) {
+        Conversa anterior = conversas.remove(pedidoId);
+        if (anterior != null) {
+            bytesTotal -= anterior.bytes;
+        }
+    }
+
+    private void liberarEspaco() {
+        Iterator<Map.Entry<Long, Conversa>> menosUsadas = conversas.entrySet().iterator();
+        while (bytesTotal > maxBytes && menosUsadas.hasNext()) {
+            bytesTotal -= menosUsadas.next().getValue().bytes;
+            menosUsadas.remove();
+        }
+    }
+
+    private static int faixa(Long pedidoId) {
+        return (int) ((pedidoId * 0x9E3779B97F4A7C15L) >>> 54);
+    }
+
+    private static long bytesEstimados(MensagemResponseDTO mensagem) {
+        return BYTES_FIXOS_MENSAGEM + 2L * (tamanho(mensagem.conteudo())
+                + tamanho(mensagem.remetenteNome()) + tamanho(mensagem.remetenteFotoUrl()));
+    }
+
+    private static int tamanho(String texto) {
+        return texto != null ? texto.length() : 0;
+    }
+
+    /**
+     * Buffer circular de uma conversa, do mais antigo ({@code itens[inicio]}) para o mais novo.
+     */
+    private final class Conversa {
+
+        private final MensagemResponseDTO[] itens = new MensagemResponseDTO[capacidade];
+        private int inicio;
+        private int tamanho;
+        private long bytes;
+        // O buffer comeca na primeira mensagem do pedido (nao ha anteriores no banco)
+        private boolean inicioDaConversa;
+        // Ultima leitura de cada participante, aplicada tambem ao que for adicionado depois
+        private final Map<Long, Leitura> leituras = new HashMap<>(4);
+
+        Conversa(boolean inicioDaConversa) {
+            this.inicioDaConversa = inicioDaConversa;
+        }
+
+        MensagemResponseDTO get(int i) {
+            return itens[(inicio + i) % capacidade];
+        }
+
+        void set(int i, MensagemResponseDTO mensagem) {
+            itens[(inicio + i) % capacidade] = mensagem;
+        }
+
+        int posicao(Long mensagemId) {
+            for (int i = tamanho - 1; i >= 0; i--) {
+                if (get(i).id().equals(mensagemId)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void adicionar(MensagemResponseDTO mensagem) {
+            if (posicao(mensagem.id()) >= 0) {
+                return;
+            }
+            mensagem = comLeituras(mensagem);
+            // Quase sempre a mais nova: a busca pelo lugar para logo no fim
+            int pos = tamanho;
+            while (pos > 0 && CRONOLOGICA.compare(get(pos - 1), mensagem) > 0) {
+                pos--;
+            }
+            if (tamanho == capacidade) {
+                if (pos == 0) {
+                    return;
+                }
+                bytes -= bytesEstimados(get(0));
+                itens[inicio] = null;
+                inicio = (inicio + 1) % capacidade;
+                tamanho--;
+                pos--;
+                inicioDaConversa = false;
+            }
+            for (int i = tamanho; i > pos; i--) {
+                set(i, get(i - 1));
+            }
+            set(pos, mensagem);
+            tamanho++;
+            bytes += bytesEstimados(mensagem);
+        }
+
+        void marcarLidas(Long leitorId, Long ateMensagemId, LocalDateTime lidaEm) {
+            leituras.merge(leitorId, new Leitura(ateMensagemId, lidaEm),
+                    (anterior, nova) -> nova.ateMensagemId() >= anterior.ateMensagemId() ? nova : anterior);
+            for (int i = 0; i < tamanho; i++) {
+                set(i, comLeituras(get(i)));
+            }
+        }
+
+        private MensagemResponseDTO comLeituras(MensagemResponseDTO m) {
+            if (Boolean.TRUE.equals(m.lida())) {
+                return m;
+            }
+            for (Map.Entry<Long, Leitura> leitura : leituras.entrySet()) {
+                if (!m.remetenteId().equals(leitura.getKey()) && m.id() <= leitura.getValue().ateMensagemId()) {
+                    return new MensagemResponseDTO(m.id(), m.pedidoServicoId(), m.remetenteId(), m.remetenteNome(),
+                            m.conteudo(), m.enviadoEm(), true, leitura.getValue().lidaEm(), m.remetenteFotoUrl());
+                }
+            }
+            return m;
+        }
+
+        HistoricoMensagensDTO ultimas(int limite) {
+            if (tamanho < limite && !inicioDaConversa) {
+                return null;
+            }
+            int de = Math.max(0, tamanho - limite);
+            return pagina(de, tamanho, null, null, de > 0 || !inicioDaConversa, false);
+        }
+
+        HistoricoMensagensDTO anteriores(Long beforeId, int limite) {
+            int pos = posicao(beforeId);
+            if (pos < 0 || (pos < limite && !inicioDaConversa)) {
+                return null;
+            }
+            int de = Math.max(0, pos - limite);
+            return pagina(de, pos, beforeId, null, de > 0 || !inicioDaConversa, true);
+        }
+
+        HistoricoMensagensDTO posteriores(Long afterId, int limite) {
+            int pos = posicao(afterId);
+            if (pos < 0) {
+                return null;
+            }
+            int ate = Math.min(tamanho, pos + 1 + limite);
+            return pagina(pos + 1, ate, null, afterId, true, ate < tamanho);
+        }
+
+        private HistoricoMensagensDTO pagina(int de, int ate, Long beforeId, Long afterId,
+                                             boolean temAnteriores, boolean temPosteriores) {
+            List<MensagemResponseDTO> pagina = new ArrayList<>(ate - de);
+            for (int i = de; i < ate; i++) {
+                pagina.add(get(i));
+            }
+            Long primeiroId = pagina.isEmpty() ? beforeId : pagina.get(0).id();
+            Long ultimoId = pagina.isEmpty() ? afterId : pagina.get(pagina.size() - 1).id();
+            return new HistoricoMensagensDTO(pagina, primeiroId, ultimoId, temAnteriores, temPosteriores);
+        }
+    }
+
+    private record Leitura(Long ateMensagemId, LocalDateTime lidaEm) {}
+}
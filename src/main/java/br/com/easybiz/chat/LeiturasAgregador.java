@@ -0,0 +1,108 @@
+package br.com.easybiz.chat;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import br.com.easybiz.dto.LeituraDTO;
+import br.com.easybiz.dto.MensagemLidaDTO;
+import br.com.easybiz.dto.UltimoVistoDTO;
+import br.com.easybiz.exception.ForbiddenException;
+import br.com.easybiz.service.MensagemService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Junta as confirmacoes de leitura do WebSocket por (pedido, leitor) e grava so a maior.
+ *
+ * Rolar a conversa gera uma confirmacao por mensagem; aqui elas viram, a cada janela de
+ * {@code app.chat.leituras.janela-ms}, um unico UPDATE ate a marca d'agua
+ * ({@link MensagemService#marcarComoLidas}) e um unico evento "lida ate" em {@code /lida},
+ * seguido do "ultimo visto" em {@code /ultimo-visto} com o horario da gravacao, sem consulta de MAX().
+ */
+@Component
+public class LeiturasAgregador {
+
+    private static final Logger log = LoggerFactory.getLogger(LeiturasAgregador.class);
+
+    private final MensagemService mensagemService;
+    private final ParticipantesPedidoCache participantesPedido;
+    private final SimpMessagingTemplate messagingTemplate;
+
+    // (pedido, leitor) -> maior mensagemId confirmada desde a ultima gravacao
+    private final Map<Chave, Long> pendentes = new ConcurrentHashMap<>();
+
+    private final Counter recebidas;
+    private final Counter gravadas;
+
+    public LeiturasAgregador(
+            MensagemService mensagemService,
+            ParticipantesPedidoCache participantesPedido,
+            SimpMessagingTemplate messagingTemplate,
+            MeterRegistry meterRegistry
+    ) {
+        this.mensagemService = mensagemService;
+        this.participantesPedido = participantesPedido;
+        this.messagingTemplate = messagingTemplate;
+        this.recebidas = meterRegistry.counter("easybiz.chat.leituras", "etapa", "recebida");
+        this.gravadas = meterRegistry.counter("easybiz.chat.leituras", "etapa", "gravada");
+    }
+
+    /**
+     * Registra que o leitor viu o pedido ate {@code mensagemId}. A autorizacao e imediata;
+     * a gravacao e o broadcast ficam para o proximo {@link #descarregar()}.
+     */
+    public void registrar(Long pedidoId, Long leitorId, Long mensagemId) {
+        if (!participantesPedido.buscar(pedidoId).inclui(leitorId)) {
+            throw new ForbiddenException("Acesso negado: usuario nao participa deste pedido.");
+        }
+        pendentes.merge(new Chave(pedidoId, leitorId), mensagemId, Math::max);
+        recebidas.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${app.chat.leituras.janela-ms:500}")
+    public void descarregar() {
+        for (Chave chave : pendentes.keySet()) {
+            // remove() e atomico: uma confirmacao que chegar depois abre uma entrada nova para a proxima janela
+            Long marca = pendentes.remove(chave);
+            if (marca != null) {
+                gravar(chave, marca);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void encerrar() {
+        descarregar();
+    }
+
+    private void gravar(Chave chave, Long marca) {
+        LeituraDTO leitura;
+        try {
+            leitura = mensagemService.marcarComoLidas(chave.pedidoId(), chave.leitorId(), marca);
+        } catch (RuntimeException e) {
+            log.warn("[CHAT] Falha ao gravar leitura do pedido {} ate {}: {}", chave.pedidoId(), marca, e.getMessage());
+            return;
+        }
+        gravadas.increment();
+
+        LocalDateTime agora = LocalDateTime.now();
+        String lida = "/topic/mensagens/" + chave.pedidoId() + "/lida";
+        String ultimoVisto = "/topic/mensagens/" + chave.pedidoId() + "/ultimo-visto";
+        messagingTemplate.convertAndSend(lida,
+                new MensagemLidaDTO(leitura.ateMensagemId(), chave.pedidoId(), chave.leitorId(), agora),
+                ClusterBrokerRelay.estado(lida + ":" + chave.leitorId()));
+        messagingTemplate.convertAndSend(ultimoVisto,
+                new UltimoVistoDTO(chave.pedidoId(), agora),
+                ClusterBrokerRelay.estado(ultimoVisto + ":" + chave.leitorId()));
+    }
+
+    private record Chave(Long pedidoId, Long leitorId) {}
+}
@@ -0,0 +1,30 @@
+package br.com.easybiz.chat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Barramento dentro da propria JVM ({@code app.cluster.bus=loopback}, padrao): entrega na hora, na thread
+ * de quem publicou. Serve para uma instancia so e para os testes, que simulam outra instancia
+ * publicando com uma origem diferente.
+ */
+@Component
+@ConditionalOnProperty(name = "app.cluster.bus", havingValue = "loopback", matchIfMissing = true)
+public class LoopbackClusterMessageBus implements ClusterMessageBus {
+
+    private final List<Consumer<EnvelopeCluster>> ouvintes = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publicar(EnvelopeCluster envelope) {
+        ouvintes.forEach(ouvinte -> ouvinte.accept(envelope));
+    }
+
+    @Override
+    public void assinar(Consumer<EnvelopeCluster> ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+}
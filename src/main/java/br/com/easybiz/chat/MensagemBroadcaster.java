@@ -0,0 +1,147 @@
+package br.com.easybiz.chat;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.easybiz.dto.MensagemResponseDTO;
+import br.com.easybiz.event.MensagemEnviadaEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Publica em {@code /topic/mensagens/{pedidoId}} as mensagens enviadas, so depois do commit e fora da
+ * thread que atendeu o envio (WebSocket ou REST).
+ *
+ * Cada pedido cai sempre na mesma faixa ({@code app.chat.broadcast.faixas}), uma thread por faixa:
+ * as mensagens de um pedido saem na ordem em que foram commitadas. Com a fila da faixa cheia
+ * ({@code app.chat.broadcast.fila}), quem commitou espera uma vaga na mesma fila por ate {@code espera-ms}
+ * (backpressure); publicar na propria thread passaria a frente das mensagens ja enfileiradas do pedido.
+ * Se a espera estourar, a mensagem nao e publicada ({@code easybiz.chat.broadcast.descartadas}): ja esta
+ * commitada e aparece no historico.
+ *
+ * {@code easybiz.chat.envio.latencia} mede do recebimento no {@code MensagemService} ate a entrega ao broker.
+ */
+@Component
+public class MensagemBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(MensagemBroadcaster.class);
+
+    public static final String TOPICO = "/topic/mensagens/";
+
+    private final SimpMessagingTemplate messagingTemplate;
+    private final ThreadPoolTaskExecutor[] faixas;
+
+    private final Timer latenciaWebSocket;
+    private final Timer latenciaRest;
+    private final Counter falhas;
+    private final Counter descartadas;
+
+    public MensagemBroadcaster(
+            SimpMessagingTemplate messagingTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.broadcast.faixas:4}") int quantidadeFaixas,
+            @Value("${app.chat.broadcast.fila:10000}") int fila,
+            @Value("${app.chat.broadcast.espera-ms:5000}") long esperaMs
+    ) {
+        if (quantidadeFaixas <= 0 || fila <= 0) {
+            throw new IllegalStateException("app.chat.broadcast: faixas e fila devem ser positivas");
+        }
+        this.messagingTemplate = messagingTemplate;
+        this.descartadas = meterRegistry.counter("easybiz.chat.broadcast.descartadas");
+        RejectedExecutionHandler esperarVaga = esperarVaga(esperaMs);
+        this.faixas = new ThreadPoolTaskExecutor[quantidadeFaixas];
+        for (int i = 0; i < quantidadeFaixas; i++) {
+            ThreadPoolTaskExecutor faixa = new ThreadPoolTaskExecutor();
+            faixa.setCorePoolSize(1);
+            faixa.setMaxPoolSize(1);
+            faixa.setQueueCapacity(fila);
+            faixa.setThreadNamePrefix("chat-broadcast-" + i + "-");
+            faixa.setRejectedExecutionHandler(esperarVaga);
+            faixa.setWaitForTasksToCompleteOnShutdown(true);
+            faixa.setAwaitTerminationSeconds(5);
+            faixa.initialize();
+            faixas[i] = faixa;
+        }
+
+        this.latenciaWebSocket = latencia(meterRegistry, MensagemEnviadaEvent.CANAL_WEBSOCKET);
+        this.latenciaRest = latencia(meterRegistry, MensagemEnviadaEvent.CANAL_REST);
+        this.falhas = meterRegistry.counter("easybiz.chat.broadcast.falhas");
+        meterRegistry.gauge("easybiz.chat.broadcast.fila", faixas, f -> {
+            int total = 0;
+            for (ThreadPoolTaskExecutor faixa : f) {
+                total += faixa.getQueueSize();
+            }
+            return total;
+        });
+    }
+
+    private static Timer latencia(MeterRegistry meterRegistry, String canal) {
+        return Timer.builder("easybiz.chat.envio.latencia")
+                .tag("canal", canal)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    // Fila cheia: espera a vaga na propria faixa, para nao passar a frente do que ja esta nela
+    private RejectedExecutionHandler esperarVaga(long esperaMs) {
+        return (tarefa, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Broadcast encerrado");
+            }
+            try {
+                if (!executor.getQueue().offer(tarefa, esperaMs, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("Fila da faixa cheia por mais de " + esperaMs + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrompido esperando a fila da faixa", e);
+            }
+        };
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onMensagemEnviada(MensagemEnviadaEvent event) {
+        MensagemResponseDTO mensagem = event.mensagem();
+        try {
+            faixas[Math.floorMod(mensagem.pedidoServicoId(), faixas.length)].execute(() -> publicar(event));
+        } catch (RejectedExecutionException e) {
+            descartadas.increment();
+            log.warn("[CHAT] Mensagem {} do pedido {} nao publicada: {}",
+                    mensagem.id(), mensagem.pedidoServicoId(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void encerrar() {
+        for (ThreadPoolTaskExecutor faixa : faixas) {
+            faixa.shutdown();
+        }
+    }
+
+    private void publicar(MensagemEnviadaEvent event) {
+        MensagemResponseDTO mensagem = event.mensagem();
+        try {
+            messagingTemplate.convertAndSend(TOPICO + mensagem.pedidoServicoId(), mensagem);
+        } catch (MessagingException e) {
+            falhas.increment();
+            log.warn("[CHAT] Falha ao publicar mensagem {} do pedido {}: {}",
+                    mensagem.id(), mensagem.pedidoServicoId(), e.getMessage());
+            return;
+        }
+        Timer latencia = MensagemEnviadaEvent.CANAL_REST.equals(event.canal()) ? latenciaRest : latenciaWebSocket;
+        latencia.record(System.nanoTime() - event.recebidaEmNanos(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,327 @@
+package br.com.easybiz.chat;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.easybiz.dto.MensagemResponseDTO;
+import br.com.easybiz.model.ContadorNaoLidas;
+import br.com.easybiz.model.Mensagem;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Modo opcional ({@code app.chat.write-behind.enabled}) para as mensagens do WebSocket:
+ * a mensagem recebe o id na hora, e publicada, e e gravada depois em lotes JDBC por uma thread dedicada.
+ *
+ * Ids vem da {@code mensagem_id_seq}, um a um, como no gerador do Hibernate para {@link Mensagem}: sem blocos
+ * por caminho ou por instancia, o id segue a ordem de envio e continua valendo como marca d'agua de leitura
+ * ({@code id <= ateId}). A fila e limitada: cheia, quem envia espera ate {@code espera-ms} e depois grava
+ * a propria mensagem de forma sincrona.
+ *
+ * Cada lote grava as mensagens e soma os contadores de nao lidas ({@link ContadoresNaoLidas}) na mesma transacao.
+ * Uma mensagem publicada pode ser confirmada como lida antes de gravada: o lote consulta a marca d'agua de leitura
+ * do destinatario (travando o contador) e grava como lidas, sem somar, as que ela ja cobre.
+ *
+ * Garantia de durabilidade: uma mensagem ja publicada fica no maximo {@code intervalo-ms} so em memoria
+ * (perdida se o processo cair nesse intervalo). No desligamento normal a fila e esvaziada antes de sair.
+ */
+@Component
+public class MensagemWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(MensagemWriteBehind.class);
+
+    private static final String INSERT_SQL = """
+        INSERT INTO mensagem (id, pedido_servico_id, remetente_id, conteudo, enviado_em, lida, lida_em)
+        VALUES (?, ?, ?, ?, ?, ?, ?)
+    """;
+
+    private static final int TENTATIVAS_LOTE = 3;
+
+    private static final Comparator<MensagemResponseDTO> MAIS_NOVA =
+            Comparator.comparing(MensagemResponseDTO::enviadoEm).thenComparing(MensagemResponseDTO::id);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ContadoresNaoLidas contadores;
+    private final HistoricoRecenteCache historicoRecente;
+    private final EntityManagerFactory entityManagerFactory;
+    private final boolean ativo;
+    private final int tamanhoLote;
+    private final long intervaloMs;
+    private final long esperaMs;
+    private final BlockingQueue<Pendente> fila;
+    // Maior id ainda nao gravado por (pedido, destinatario): limite valido para a marca d'agua de leitura
+    private final Map<ContadorNaoLidas.Chave, Long> naoGravadas = new ConcurrentHashMap<>();
+
+    private String proximoValorSql;
+
+    private volatile boolean rodando;
+    private Thread gravador;
+
+    private final Counter enfileiradas;
+    private final Counter gravadas;
+    private final Counter sincronas;
+    private final Counter descartadas;
+    private final Timer tempoLote;
+
+    public MensagemWriteBehind(
+            JdbcTemplate jdbcTemplate,
+            PlatformTransactionManager transactionManager,
+            ContadoresNaoLidas contadores,
+            HistoricoRecenteCache historicoRecente,
+            EntityManagerFactory entityManagerFactory,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.write-behind.enabled:false}") boolean ativo,
+            @Value("${app.chat.write-behind.capacidade:10000}") int capacidade,
+            @Value("${app.chat.write-behind.tamanho-lote:200}") int tamanhoLote,
+            @Value("${app.chat.write-behind.intervalo-ms:100}") long intervaloMs,
+            @Value("${app.chat.write-behind.espera-ms:50}") long esperaMs
+    ) {
+        if (capacidade <= 0 || tamanhoLote <= 0 || intervaloMs <= 0) {
+            throw new IllegalStateException("app.chat.write-behind: capacidade, tamanho-lote e intervalo-ms devem ser positivos");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.contadores = contadores;
+        this.historicoRecente = historicoRecente;
+        this.entityManagerFactory = entityManagerFactory;
+        this.ativo = ativo;
+        this.tamanhoLote = tamanhoLote;
+        this.intervaloMs = intervaloMs;
+        this.esperaMs = esperaMs;
+        this.fila = new ArrayBlockingQueue<>(capacidade);
+
+        this.enfileiradas = meterRegistry.counter("easybiz.chat.write-behind", "resultado", "enfileirada");
+        this.gravadas = meterRegistry.counter("easybiz.chat.write-behind", "resultado", "gravada");
+        this.sincronas = meterRegistry.counter("easybiz.chat.write-behind", "resultado", "sincrona");
+        this.descartadas = meterRegistry.counter("easybiz.chat.write-behind", "resultado", "descartada");
+        this.tempoLote = meterRegistry.timer("easybiz.chat.write-behind.lote");
+        meterRegistry.gauge("easybiz.chat.write-behind.fila", fila, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    void iniciar() {
+        if (!ativo) {
+            return;
+        }
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        proximoValorSql = sessionFactory.getJdbcServices().getDialect().getSequenceSupport()
+                .getSequenceNextValString(Mensagem.SEQUENCE);
+        rodando = true;
+        gravador = new Thread(this::executar, "mensagens-write-behind");
+        gravador.setDaemon(true);
+        gravador.start();
+    }
+
+    public boolean isAtivo() {
+        return ativo;
+    }
+
+    /**
+     * Proximo id de mensagem, direto da sequence (um {@code nextval} por mensagem, sem bloco reservado).
+     */
+    public long proximoId() {
+        return jdbcTemplate.queryForObject(proximoValorSql, Long.class);
+    }
+
+    /**
+     * Maior id de mensagem para o destinatario no pedido que esta instancia publicou e ainda nao gravou, ou 0.
+     */
+    public long ultimaNaoGravada(Long pedidoId, Long destinatarioId) {
+        return naoGravadas.getOrDefault(new ContadorNaoLidas.Chave(pedidoId, destinatarioId), 0L);
+    }
+
+    /**
+     * Agenda a gravacao. Com a fila cheia por mais de {@code espera-ms} (ou durante o desligamento),
+     * grava na hora, na thread (e na transacao) de quem chamou.
+     *
+     * @return true se gravou na hora; false se ficou na fila
+     */
+    public boolean gravar(MensagemResponseDTO mensagem, Long destinatarioId) {
+        Pendente pendente = new Pendente(mensagem, destinatarioId);
+        naoGravadas.merge(pendente.chave(), mensagem.id(), Math::max);
+        try {
+            if (rodando && fila.offer(pendente, esperaMs, TimeUnit.MILLISECONDS)) {
+                enfileiradas.increment();
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        inserir(List.of(pendente));
+        sincronas.increment();
+        return true;
+    }
+
+    @PreDestroy
+    void encerrar() throws InterruptedException {
+        if (gravador == null) {
+            return;
+        }
+        rodando = false;
+        gravador.join(TimeUnit.SECONDS.toMillis(30));
+        // O que entrou na fila depois da ultima volta do gravador
+        List<Pendente> restantes = new ArrayList<>();
+        fila.drainTo(restantes);
+        if (!restantes.isEmpty()) {
+            gravarLote(restantes);
+        }
+    }
+
+    private void executar() {
+        List<Pendente> lote = new ArrayList<>(tamanhoLote);
+        while (rodando || !fila.isEmpty()) {
+            try {
+                Pendente primeira = fila.poll(intervaloMs, TimeUnit.MILLISECONDS);
+                if (primeira == null) {
+                    continue;
+                }
+                lote.add(primeira);
+
+                // O lote fecha cheio ou quando a mais antiga completa o intervalo
+                long limite = primeira.enfileiradaEm() + intervaloMs;
+                while (lote.size() < tamanhoLote) {
+                    fila.drainTo(lote, tamanhoLote - lote.size());
+                    long restante = limite - System.currentTimeMillis();
+                    if (lote.size() >= tamanhoLote || restante <= 0 || !rodando) {
+                        break;
+                    }
+                    Pendente proxima = fila.poll(restante, TimeUnit.MILLISECONDS);
+                    if (proxima == null) {
+                        break;
+                    }
+                    lote.add(proxima);
+                }
+
+                gravarLote(lote);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rodando = false;
+            } finally {
+                lote.clear();
+            }
+        }
+    }
+
+    private void gravarLote(List<Pendente> lote) throws InterruptedException {
+        for (int tentativa = 1; tentativa <= TENTATIVAS_LOTE; tentativa++) {
+            try {
+                List<MensagemResponseDTO> inseridas = tempoLote.record(() -> inserir(lote));
+                gravadas.increment(lote.size());
+                historicoRecente.registrarEnvios(inseridas);
+                return;
+            } catch (DataAccessException e) {
+                log.warn("[CHAT] Falha ao gravar lote de {} mensagens (tentativa {}): {}",
+                        lote.size(), tentativa, e.getMessage());
+                Thread.sleep(200L * tentativa);
+            }
+        }
+        // Lote ainda falhando: uma a uma, para nao perder as validas por causa de uma invalida
+        for (Pendente pendente : lote) {
+            try {
+                List<MensagemResponseDTO> inserida = inserir(List.of(pendente));
+                gravadas.increment();
+                historicoRecente.registrarEnvios(inserida);
+            } catch (DataAccessException e) {
+                liberar(List.of(pendente));
+                descartadas.increment();
+                log.error("[CHAT] Mensagem {} do pedido {} descartada: {}",
+                        pendente.mensagem().id(), pendente.mensagem().pedidoServicoId(), e.getMessage());
+            }
+        }
+    }
+
+    // Mensagens e contadores de nao lidas na mesma transacao: um UPDATE por pedido do lote.
+    // Os contadores sao travados primeiro: a mensagem que o destinatario ja confirmou (id ate a marca d'agua
+    // dele) entra lida e nao soma; uma confirmacao concorrente espera o commit e marca o resto no UPDATE dela.
+    // Devolve as mensagens como foram gravadas. O lote as registra no HistoricoRecenteCache so depois do commit,
+    // entao uma descartada nunca aparece la; a gravada na hora por gravar() entra pelo MensagemEnviadaEvent.
+    private List<MensagemResponseDTO> inserir(List<Pendente> pendentes) {
+        List<MensagemResponseDTO> inseridas = transactionTemplate.execute(status -> {
+            Map<Long, List<Pendente>> porPedido = new LinkedHashMap<>();
+            pendentes.forEach(p -> porPedido.computeIfAbsent(p.mensagem().pedidoServicoId(), k -> new ArrayList<>()).add(p));
+            Map<ContadorNaoLidas.Chave, Long> marcas = contadores.travarMarcasLeitura(porPedido.keySet());
+            LocalDateTime agora = LocalDateTime.now();
+            List<MensagemResponseDTO> mensagens = pendentes.stream()
+                    .map(p -> lida(p, marcas) ? comoLida(p.mensagem(), agora) : p.mensagem())
+                    .toList();
+
+            jdbcTemplate.batchUpdate(INSERT_SQL, mensagens, mensagens.size(), (ps, m) -> {
+                ps.setLong(1, m.id());
+                ps.setLong(2, m.pedidoServicoId());
+                ps.setLong(3, m.remetenteId());
+                ps.setString(4, m.conteudo());
+                ps.setTimestamp(5, Timestamp.valueOf(m.enviadoEm()));
+                ps.setBoolean(6, m.lida());
+                ps.setTimestamp(7, m.lidaEm() != null ? Timestamp.valueOf(m.lidaEm()) : null);
+            });
+
+            porPedido.forEach((pedidoId, doPedido) -> registrarNaoLidas(pedidoId, doPedido, marcas));
+            return mensagens;
+        });
+        liberar(pendentes);
+        return inseridas;
+    }
+
+    // So remove se nenhuma mais nova do mesmo destinatario entrou na fila enquanto o lote gravava
+    private void liberar(List<Pendente> pendentes) {
+        pendentes.forEach(p -> naoGravadas.remove(p.chave(), p.mensagem().id()));
+    }
+
+    private void registrarNaoLidas(Long pedidoId, List<Pendente> mensagens, Map<ContadorNaoLidas.Chave, Long> marcas) {
+        // A mais nova do lote, na mesma ordem da caixa de entrada (a fila nao garante a ordem de envio)
+        MensagemResponseDTO ultima = mensagens.stream()
+                .map(Pendente::mensagem)
+                .max(MAIS_NOVA)
+                .orElseThrow();
+        Map<Long, Integer> porDestinatario = new LinkedHashMap<>();
+        mensagens.forEach(m -> porDestinatario.merge(m.destinatarioId(), lida(m, marcas) ? 0 : 1, Integer::sum));
+        porDestinatario.forEach((destinatario, quantidade) ->
+                contadores.registrarEnvio(pedidoId, destinatario, quantidade, ultima.id(), ultima.enviadoEm()));
+    }
+
+    private static boolean lida(Pendente pendente, Map<ContadorNaoLidas.Chave, Long> marcas) {
+        MensagemResponseDTO m = pendente.mensagem();
+        Long marca = marcas.get(pendente.chave());
+        return marca != null && m.id() <= marca;
+    }
+
+    private static MensagemResponseDTO comoLida(MensagemResponseDTO m, LocalDateTime lidaEm) {
+        return new MensagemResponseDTO(m.id(), m.pedidoServicoId(), m.remetenteId(), m.remetenteNome(),
+                m.conteudo(), m.enviadoEm(), true, lidaEm, m.remetenteFotoUrl());
+    }
+
+    private record Pendente(MensagemResponseDTO mensagem, Long destinatarioId, long enfileiradaEm) {
+
+        Pendente(MensagemResponseDTO mensagem, Long destinatarioId) {
+            this(mensagem, destinatarioId, System.currentTimeMillis());
+        }
+
+        ContadorNaoLidas.Chave chave() {
+            return new ContadorNaoLidas.Chave(mensagem.pedidoServicoId(), destinatarioId);
+        }
+    }
+}
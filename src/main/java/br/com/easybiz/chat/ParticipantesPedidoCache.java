@@ -0,0 +1,153 @@
+package br.com.easybiz.chat;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import br.com.easybiz.exception.ResourceNotFoundException;
+import br.com.easybiz.repository.PedidoServicoRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * pedidoId -> (clienteId, prestadorId) em memoria, para autorizar as operacoes do chat sem carregar o pedido.
+ *
+ * Os participantes de um pedido nao mudam depois de criado e pedidos nao sao apagados (cancelar so muda o
+ * status), entao nao ha remocao de entradas. Tabela de enderecamento aberto (sondagem linear) sobre arrays
+ * de {@code long}: sem objeto por entrada e sem boxing. Ao atingir {@code max-entradas} a tabela e esvaziada e
+ * volta a ser preenchida sob demanda, uma query estreita por pedido.
+ */
+@Component
+public class ParticipantesPedidoCache {
+
+    // Ids de pedido sao sempre positivos (a sequence comeca em 1): zero marca slot livre
+    private static final long VAZIO = 0L;
+
+    private final PedidoServicoRepository pedidoRepository;
+    private final int maxEntradas;
+
+    private long[] pedidos;
+    private long[] clientes;
+    private long[] prestadores;
+    private int tamanho;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public ParticipantesPedidoCache(
+            PedidoServicoRepository pedidoRepository,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.participantes.max-entradas:100000}") int maxEntradas
+    ) {
+        if (maxEntradas <= 0) {
+            throw new IllegalStateException("app.chat.participantes.max-entradas deve ser positivo");
+        }
+        this.pedidoRepository = pedidoRepository;
+        this.maxEntradas = maxEntradas;
+        alocar(64);
+
+        this.hits = meterRegistry.counter("easybiz.chat.participantes.cache", "resultado", "hit");
+        this.misses = meterRegistry.counter("easybiz.chat.participantes.cache", "resultado", "miss");
+        meterRegistry.gauge("easybiz.chat.participantes.cache.tamanho", this, ParticipantesPedidoCache::tamanho);
+    }
+
+    /**
+     * Participantes do pedido; na primeira consulta busca so os dois ids no banco.
+     *
+     * @throws ResourceNotFoundException se o pedido nao existir
+     */
+    public Participantes buscar(Long pedidoId) {
+        Participantes emCache = ler(pedidoId);
+        if (emCache != null) {
+            hits.increment();
+            return emCache;
+        }
+        misses.increment();
+
+        Participantes participantes = pedidoRepository.buscarParticipantes(pedidoId)
+                .map(p -> new Participantes(p.getClienteId(), p.getPrestadorId()))
+                .orElseThrow(() -> new ResourceNotFoundException("Pedido nao encontrado"));
+        gravar(pedidoId, participantes);
+        return participantes;
+    }
+
+    public synchronized int tamanho() {
+        return tamanho;
+    }
+
+    private synchronized Participantes ler(long pedidoId) {
+        int slot = procurar(pedidoId);
+        if (pedidos[slot] == VAZIO) {
+            return null;
+        }
+        return new Participantes(clientes[slot], prestadores[slot]);
+    }
+
+    private synchronized void gravar(long pedidoId, Participantes participantes) {
+        if (tamanho >= maxEntradas) {
+            alocar(64);
+        }
+        int slot = procurar(pedidoId);
+        if (pedidos[slot] == VAZIO) {
+            pedidos[slot] = pedidoId;
+            tamanho++;
+        }
+        clientes[slot] = participantes.clienteId();
+        prestadores[slot] = participantes.prestadorId();
+
+        // Fator de carga maximo de 1/2
+        if (tamanho * 2 > pedidos.length) {
+            redimensionar(pedidos.length * 2);
+        }
+    }
+
+    // Slot do pedido, ou o primeiro slot vazio da sua sequencia de sondagem
+    private int procurar(long pedidoId) {
+        int mascara = pedidos.length - 1;
+        int slot = indice(pedidoId, mascara);
+        while (pedidos[slot] != VAZIO && pedidos[slot] != pedidoId) {
+            slot = (slot + 1) & mascara;
+        }
+        return slot;
+    }
+
+    private void redimensionar(int capacidade) {
+        long[] antigosPedidos = pedidos;
+        long[] antigosClientes = clientes;
+        long[] antigosPrestadores = prestadores;
+        alocar(capacidade);
+        for (int i = 0; i < antigosPedidos.length; i++) {
+            if (antigosPedidos[i] != VAZIO) {
+                int slot = procurar(antigosPedidos[i]);
+                pedidos[slot] = antigosPedidos[i];
+                clientes[slot] = antigosClientes[i];
+                prestadores[slot] = antigosPrestadores[i];
+                tamanho++;
+            }
+        }
+    }
+
+    private void alocar(int capacidade) {
+        pedidos = new long[capacidade];
+        clientes = new long[capacidade];
+        prestadores = new long[capacidade];
+        tamanho = 0;
+    }
+
+    private static int indice(long pedidoId, int mascara) {
+        // Mistura os bits: ids sequenciais nao formam aglomerados na sondagem linear
+        long h = pedidoId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mascara;
+    }
+
+    public record Participantes(long clienteId, long prestadorId) {
+
+        public boolean inclui(Long usuarioId) {
+            return usuarioId != null && (usuarioId == clienteId || usuarioId == prestadorId);
+        }
+
+        /** O outro participante da conversa (destinatario de uma mensagem de {@code usuarioId}). */
+        public long outro(long usuarioId) {
+            return usuarioId == clienteId ? prestadorId : clienteId;
+        }
+    }
+}
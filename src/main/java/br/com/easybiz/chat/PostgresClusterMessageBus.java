@@ -0,0 +1,217 @@
+package br.com.easybiz.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Barramento sobre LISTEN/NOTIFY do Postgres ({@code app.cluster.bus=postgres}).
+ *
+ * Publicar so enfileira ({@link FilaPublicacaoCluster}, limitada por {@code app.cluster.postgres.fila}):
+ * quem envia nao toca no pool nem espera o banco. A thread {@code cluster-bus-listener} segura uma conexao
+ * em autocommit com {@code LISTEN} e alterna entre esvaziar a fila, com um unico {@code pg_notify} por lote
+ * ({@code unnest} de um array), e esperar notificacoes por ate {@code app.cluster.postgres.intervalo-ms},
+ * que e tambem a maior espera de um envelope na fila. Estados publicados com {@link #publicarEstado}
+ * ("digitando", leituras, invalidacoes) sao consolidados por chave enquanto esperam. Fila cheia descarta.
+ *
+ * Se a conexao cair, reconecta; notificacoes emitidas nesse meio tempo e o lote em envio se perdem
+ * (o historico continua no REST). O Postgres limita o payload a 8000 bytes: envelopes maiores so sao
+ * entregues localmente. Descartes sao contados em {@code easybiz.cluster.bus{resultado=descartado}}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.cluster.bus", havingValue = "postgres")
+public class PostgresClusterMessageBus implements ClusterMessageBus {
+
+    private static final Logger log = LoggerFactory.getLogger(PostgresClusterMessageBus.class);
+
+    private static final int LIMITE_PAYLOAD_BYTES = 8000;
+    private static final int LOTE_MAXIMO = 500;
+    private static final long ESPERA_RECONEXAO_MS = 1000;
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final String canal;
+    private final int intervaloMs;
+    private final FilaPublicacaoCluster fila;
+    private final List<Consumer<EnvelopeCluster>> ouvintes = new CopyOnWriteArrayList<>();
+
+    private final Counter publicados;
+    private final Counter descartados;
+
+    private volatile boolean rodando;
+    private Thread listener;
+
+    public PostgresClusterMessageBus(
+            DataSource dataSource,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${app.cluster.postgres.canal:easybiz_chat}") String canal,
+            @Value("${app.cluster.postgres.fila:10000}") int capacidadeFila,
+            @Value("${app.cluster.postgres.intervalo-ms:20}") int intervaloMs
+    ) {
+        // O canal vai direto no comando LISTEN (nao aceita parametro)
+        if (!canal.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalStateException("app.cluster.postgres.canal invalido: " + canal);
+        }
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.canal = canal;
+        this.intervaloMs = Math.max(1, intervaloMs);
+        this.fila = new FilaPublicacaoCluster(capacidadeFila);
+        this.publicados = meterRegistry.counter("easybiz.cluster.bus", "resultado", "publicado");
+        this.descartados = meterRegistry.counter("easybiz.cluster.bus", "resultado", "descartado");
+    }
+
+    @PostConstruct
+    void iniciar() {
+        rodando = true;
+        listener = new Thread(this::escutar, "cluster-bus-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    void parar() throws InterruptedException {
+        rodando = false;
+        listener.join(ESPERA_RECONEXAO_MS * 2);
+    }
+
+    @Override
+    public void publicar(EnvelopeCluster envelope) {
+        String json = serializar(envelope);
+        if (json != null && !fila.adicionar(json)) {
+            filaCheia(envelope);
+        }
+    }
+
+    @Override
+    public void publicarEstado(String chave, EnvelopeCluster envelope) {
+        String json = serializar(envelope);
+        if (json != null && !fila.adicionarEstado(chave, json)) {
+            filaCheia(envelope);
+        }
+    }
+
+    @Override
+    public void assinar(Consumer<EnvelopeCluster> ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    private void escutar() {
+        while (rodando) {
+            try (Connection conexao = dataSource.getConnection()) {
+                conexao.setAutoCommit(true);
+                try (Statement st = conexao.createStatement()) {
+                    st.execute("LISTEN " + canal);
+                }
+                PGConnection pg = conexao.unwrap(PGConnection.class);
+                log.info("[CLUSTER] Escutando o canal {}", canal);
+
+                while (rodando) {
+                    enviarPendentes(conexao);
+                    PGNotification[] notificacoes = pg.getNotifications(intervaloMs);
+                    if (notificacoes != null) {
+                        for (PGNotification notificacao : notificacoes) {
+                            entregar(notificacao.getParameter());
+                        }
+                    }
+                }
+                enviarPendentes(conexao);
+                // A conexao volta para o pool: nao pode continuar inscrita no canal
+                try (Statement st = conexao.createStatement()) {
+                    st.execute("UNLISTEN *");
+                }
+            } catch (SQLException e) {
+                if (!rodando) {
+                    return;
+                }
+                log.error("[CLUSTER] Conexao do LISTEN caiu, reconectando: {}", e.getMessage());
+                try {
+                    Thread.sleep(ESPERA_RECONEXAO_MS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private String serializar(EnvelopeCluster envelope) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(envelope);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Falha ao serializar envelope do cluster", e);
+        }
+        if (json.getBytes(StandardCharsets.UTF_8).length >= LIMITE_PAYLOAD_BYTES) {
+            descartados.increment();
+            log.warn("[CLUSTER] Envelope de {} acima do limite do NOTIFY; entregue so nesta instancia", envelope.destino());
+            return null;
+        }
+        return json;
+    }
+
+    private void filaCheia(EnvelopeCluster envelope) {
+        descartados.increment();
+        log.warn("[CLUSTER] Fila de publicacao cheia; {} entregue so nesta instancia", envelope.destino());
+    }
+
+    // Um lote, um comando: SELECT pg_notify(canal, p) FROM unnest(array)
+    private void enviarPendentes(Connection conexao) throws SQLException {
+        List<String> lote;
+        while (!(lote = fila.drenar(LOTE_MAXIMO)).isEmpty()) {
+            try (PreparedStatement ps = conexao.prepareStatement("SELECT pg_notify(?, p) FROM unnest(?) AS p")) {
+                Array payloads = conexao.createArrayOf("text", lote.toArray());
+                ps.setString(1, canal);
+                ps.setArray(2, payloads);
+                ps.execute();
+                payloads.free();
+                publicados.increment(lote.size());
+            } catch (SQLException e) {
+                descartados.increment(lote.size());
+                throw e;
+            }
+        }
+    }
+
+    private void entregar(String json) {
+        EnvelopeCluster envelope;
+        try {
+            envelope = objectMapper.readValue(json, EnvelopeCluster.class);
+        } catch (JsonProcessingException e) {
+            log.warn("[CLUSTER] Notificacao invalida ignorada: {}", e.getMessage());
+            return;
+        }
+        for (Consumer<EnvelopeCluster> ouvinte : ouvintes) {
+            try {
+                ouvinte.accept(envelope);
+            } catch (RuntimeException e) {
+                log.error("[CLUSTER] Falha ao entregar {}: {}", envelope.destino(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package br.com.easybiz.chat;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import br.com.easybiz.exception.ResourceNotFoundException;
+import br.com.easybiz.repository.UsuarioRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * usuarioId -> (nome, foto) de quem envia mensagens, para o envio pelo WebSocket montar a mensagem
+ * sem um SELECT em {@code usuarios} por mensagem.
+ *
+ * O nome nao muda depois do cadastro; a foto muda em {@code UsuarioService.atualizarFoto}, que invalida a
+ * entrada desta instancia depois do commit. Nas demais a foto antiga vale ate
+ * {@code app.chat.remetentes.ttl-segundos}. Ao atingir {@code max-entradas} o mapa e esvaziado.
+ */
+@Component
+public class RemetentesCache {
+
+    private final UsuarioRepository usuarioRepository;
+    private final long ttlNanos;
+    private final int maxEntradas;
+
+    private final Map<Long, Entrada> entradas = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public RemetentesCache(
+            UsuarioRepository usuarioRepository,
+            MeterRegistry meterRegistry,
+            @Value("${app.chat.remetentes.ttl-segundos:300}") long ttlSegundos,
+            @Value("${app.chat.remetentes.max-entradas:50000}") int maxEntradas
+    ) {
+        if (ttlSegundos <= 0 || maxEntradas <= 0) {
+            throw new IllegalStateException("app.chat.remetentes: ttl-segundos e max-entradas devem ser positivos");
+        }
+        this.usuarioRepository = usuarioRepository;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSegundos);
+        this.maxEntradas = maxEntradas;
+        this.hits = meterRegistry.counter("easybiz.chat.remetentes.cache", "resultado", "hit");
+        this.misses = meterRegistry.counter("easybiz.chat.remetentes.cache", "resultado", "miss");
+        meterRegistry.gauge("easybiz.chat.remetentes.cache.tamanho", entradas, Map::size);
+    }
+
+    /**
+     * @throws ResourceNotFoundException se o usuario nao existir
+     */
+    public Remetente buscar(Long usuarioId) {
+        long agora = System.nanoTime();
+        Entrada entrada = entradas.get(usuarioId);
+        if (entrada != null && agora - entrada.carregadaEm() < ttlNanos) {
+            hits.increment();
+            return entrada.remetente();
+        }
+        misses.increment();
+
+        Remetente remetente = usuarioRepository.findById(usuarioId)
+                .map(u -> new Remetente(u.getNomeCompleto(), u.getFotoUrl()))
+                .orElseThrow(() -> new ResourceNotFoundException("Usuario nao encontrado"));
+        if (entradas.size() >= maxEntradas) {
+            entradas.clear();
+        }
+        entradas.put(usuarioId, new Entrada(remetente, agora));
+        return remetente;
+    }
+
+    /**
+     * Descarta a entrada do usuario; dentro de uma transacao, so depois do commit
+     * (antes dele, um {@link #buscar} concorrente recarregaria o valor antigo).
+     */
+    public void invalidar(Long usuarioId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    entradas.remove(usuarioId);
+                }
+            });
+        } else {
+            entradas.remove(usuarioId);
+        }
+    }
+
+    public record Remetente(String nome, String fotoUrl) {}
+
+    private record Entrada(Remetente remetente, long carregadaEm) {}
+}
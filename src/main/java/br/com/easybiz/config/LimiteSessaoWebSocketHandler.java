@@ -0,0 +1,48 @@
+package br.com.easybiz.config;
+
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator.OverflowStrategy;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Politica para cliente lento, quando o buffer de envio da sessao estoura.
+ *
+ * O {@link SubProtocolWebSocketHandler} envolve cada sessao num {@link ConcurrentWebSocketSessionDecorator}
+ * com os limites de tempo e de buffer do transporte, sempre com TERMINATE (a sessao e encerrada).
+ * Aqui esse unico decorator recebe a estrategia configurada: com {@link OverflowStrategy#DROP}, as mensagens
+ * mais antigas do buffer sao descartadas em vez de desconectar; passar do tempo limite de envio continua
+ * encerrando. Um segundo decorator por fora nao funcionaria: o de dentro nunca acumula, quem estoura e o de fora.
+ * Sessoes encerradas por limite sao contadas em {@code easybiz.websocket.sessoes.encerradas}.
+ */
+class LimiteSessaoWebSocketHandler extends SubProtocolWebSocketHandler {
+
+    private final OverflowStrategy estrategia;
+    private final Counter encerradasPorLimite;
+
+    LimiteSessaoWebSocketHandler(MessageChannel clientInboundChannel, SubscribableChannel clientOutboundChannel,
+                                 OverflowStrategy estrategia, MeterRegistry meterRegistry) {
+        super(clientInboundChannel, clientOutboundChannel);
+        this.estrategia = estrategia;
+        this.encerradasPorLimite = meterRegistry.counter("easybiz.websocket.sessoes.encerradas", "motivo", "cliente-lento");
+    }
+
+    @Override
+    protected WebSocketSession decorateSession(WebSocketSession session) {
+        return new ConcurrentWebSocketSessionDecorator(session, getSendTimeLimit(), getSendBufferSizeLimit(), estrategia);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        if (CloseStatus.SESSION_NOT_RELIABLE.equals(closeStatus)) {
+            encerradasPorLimite.increment();
+        }
+        super.afterConnectionClosed(session, closeStatus);
+    }
+}
@@ -0,0 +1,41 @@
+package br.com.easybiz.config;
+
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator.OverflowStrategy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Infraestrutura do STOMP, no lugar do {@code @EnableWebSocketMessageBroker}: a mesma configuracao
+ * (delegando para o {@link WebSocketConfig}), so com o {@link LimiteSessaoWebSocketHandler} no lugar do
+ * handler padrao, para a estrategia de cliente lento ({@code app.websocket.envio.overflow}) valer.
+ */
+@Configuration
+public class WebSocketBrokerConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${app.websocket.envio.overflow:TERMINATE}")
+    private OverflowStrategy overflow;
+
+    public WebSocketBrokerConfig(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        LimiteSessaoWebSocketHandler handler = new LimiteSessaoWebSocketHandler(
+                clientInboundChannel, clientOutboundChannel, overflow, meterRegistry);
+        handler.setPhase(getPhase());
+        return handler;
+    }
+}
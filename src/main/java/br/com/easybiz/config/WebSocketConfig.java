@@ -1,33 +1,109 @@
 package br.com.easybiz.config;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import br.com.easybiz.chat.ClusterBrokerRelay;
 import br.com.easybiz.security.WebSocketJwtInterceptor;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 
+/**
+ * STOMP com pools limitados para os canais de entrada e saida.
+ *
+ * A ordem por sessao e preservada nos dois sentidos ({@code setPreserveReceiveOrder} e
+ * {@code setPreservePublishOrder}), entao threads extras nao embaralham as mensagens de um cliente.
+ * Cada sessao tem limite de tempo e de buffer de envio: um cliente lento e desconectado ou tem
+ * mensagens descartadas ({@code app.websocket.envio.overflow}, ver {@link LimiteSessaoWebSocketHandler})
+ * sem segurar as threads de saida. A infraestrutura do broker vem do {@link WebSocketBrokerConfig}.
+ * Filas e threads ativas ficam em {@code easybiz.websocket.fila} e {@code easybiz.websocket.threads.ativas}.
+ *
+ * O broker continua em memoria; o {@link ClusterBrokerRelay} no {@code brokerChannel} replica os envios
+ * para as outras instancias ({@code app.cluster.bus}).
+ */
 @Configuration
-@EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
     private final WebSocketJwtInterceptor interceptor;
+    private final ClusterBrokerRelay clusterRelay;
     private final String[] allowedOrigins;
+    private final MeterRegistry meterRegistry;
+
+    private final ThreadPoolTaskExecutor executorEntrada = new ThreadPoolTaskExecutor();
+    private final ThreadPoolTaskExecutor executorSaida = new ThreadPoolTaskExecutor();
+
+    @Value("${app.websocket.entrada.threads:8}")
+    private int threadsEntrada;
+    @Value("${app.websocket.entrada.fila:1000}")
+    private int filaEntrada;
+    @Value("${app.websocket.saida.threads:8}")
+    private int threadsSaida;
+    @Value("${app.websocket.saida.fila:5000}")
+    private int filaSaida;
+    @Value("${app.websocket.envio.limite-tempo-ms:10000}")
+    private int limiteTempoEnvioMs;
+    @Value("${app.websocket.envio.limite-buffer-bytes:524288}")
+    private int limiteBufferBytes;
+    @Value("${app.websocket.mensagem.limite-bytes:65536}")
+    private int limiteMensagemBytes;
+    @Value("${app.websocket.heartbeat-ms:10000}")
+    private long heartbeatMs;
+
+    private TaskScheduler brokerScheduler;
 
     public WebSocketConfig(
             WebSocketJwtInterceptor interceptor,
-            @Value("${app.cors.allowed-origins}") String corsOrigins
+            ClusterBrokerRelay clusterRelay,
+            @Value("${app.cors.allowed-origins}") String corsOrigins,
+            MeterRegistry meterRegistry
     ) {
         this.interceptor = interceptor;
+        this.clusterRelay = clusterRelay;
         this.allowedOrigins = corsOrigins.split(",");
+        this.meterRegistry = meterRegistry;
+
+        registrarMetricas(executorEntrada, "entrada");
+        registrarMetricas(executorSaida, "saida");
+    }
+
+    // Scheduler do proprio broker (heartbeats); @Lazy porque ele e criado por esta configuracao
+    @Autowired
+    public void setBrokerScheduler(@Lazy @Qualifier("messageBrokerTaskScheduler") TaskScheduler brokerScheduler) {
+        this.brokerScheduler = brokerScheduler;
     }
 
     @Override
     public void configureClientInboundChannel(ChannelRegistration registration) {
         registration.interceptors(interceptor);
+        registration.taskExecutor(executorEntrada)
+                .corePoolSize(threadsEntrada)
+                .maxPoolSize(threadsEntrada)
+                .queueCapacity(filaEntrada);
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(executorSaida)
+                .corePoolSize(threadsSaida)
+                .maxPoolSize(threadsSaida)
+                .queueCapacity(filaSaida);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(limiteTempoEnvioMs)
+                .setSendBufferSizeLimit(limiteBufferBytes)
+                .setMessageSizeLimit(limiteMensagemBytes);
     }
 
     @Override
@@ -35,11 +111,26 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws-chat")
                 .setAllowedOrigins(allowedOrigins)
                 .withSockJS();
+        registry.setPreserveReceiveOrder(true);
     }
 
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
-        registry.enableSimpleBroker("/topic", "/queue");
+        registry.enableSimpleBroker("/topic", "/queue")
+                .setHeartbeatValue(new long[] { heartbeatMs, heartbeatMs })
+                .setTaskScheduler(brokerScheduler);
         registry.setApplicationDestinationPrefixes("/app");
+        // Fan-out entre instancias: o que vai para o broker local tambem vai para o barramento do cluster
+        registry.configureBrokerChannel().interceptors(clusterRelay);
+        registry.setPreservePublishOrder(true);
+    }
+
+    private void registrarMetricas(ThreadPoolTaskExecutor executor, String canal) {
+        Gauge.builder("easybiz.websocket.fila", executor, ThreadPoolTaskExecutor::getQueueSize)
+                .tag("canal", canal)
+                .register(meterRegistry);
+        Gauge.builder("easybiz.websocket.threads.ativas", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .tag("canal", canal)
+                .register(meterRegistry);
     }
-}
\ No newline at end of file
+}
@@ -76,7 +76,7 @@ public class AuthController {
         }
 
 
-        String token = jwtService.gerarToken(usuario.getEmail());
+        String token = jwtService.gerarToken(usuario.getId(), usuario.getEmail());
 
         return ResponseEntity.ok(new LoginResponseDTO(token));
     }
@@ -189,7 +189,7 @@ public class AvaliacaoController {
             Principal principal
     ) {
         // ✅ SUBSTITUIÇÃO: Usa o serviço centralizado para pegar o ID seguro
-        Long usuarioLogadoId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioLogadoId = authContextService.getUsuarioId(principal);
 
         AvaliacaoResponseDTO response = avaliacaoService.avaliarPedido(pedidoId, usuarioLogadoId, dto);
 
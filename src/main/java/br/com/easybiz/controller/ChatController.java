@@ -1,16 +1,19 @@
 package br.com.easybiz.controller;
 
 import java.security.Principal;
-import java.time.LocalDateTime;
 
 import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
 
+import br.com.easybiz.chat.DigitandoDebouncer;
+import br.com.easybiz.chat.LeiturasAgregador;
 import br.com.easybiz.dto.DigitandoDTO;
 import br.com.easybiz.dto.EnviarMensagemDTO;
-import br.com.easybiz.dto.MensagemLidaDTO;
+import br.com.easybiz.dto.MensagemAckDTO;
 import br.com.easybiz.dto.MensagemResponseDTO;
 import br.com.easybiz.service.AuthContextService;
 import br.com.easybiz.service.MensagemService;
@@ -19,78 +22,65 @@ import br.com.easybiz.service.MensagemService;
 public class ChatController {
 
     private final MensagemService mensagemService;
-    private final SimpMessagingTemplate messagingTemplate;
     private final AuthContextService authContextService;
+    private final LeiturasAgregador leiturasAgregador;
+    private final DigitandoDebouncer digitandoDebouncer;
 
     public ChatController(
             MensagemService mensagemService,
-            SimpMessagingTemplate messagingTemplate,
-            AuthContextService authContextService
+            AuthContextService authContextService,
+            LeiturasAgregador leiturasAgregador,
+            DigitandoDebouncer digitandoDebouncer
     ) {
         this.mensagemService = mensagemService;
-        this.messagingTemplate = messagingTemplate;
         this.authContextService = authContextService;
+        this.leiturasAgregador = leiturasAgregador;
+        this.digitandoDebouncer = digitandoDebouncer;
     }
 
-    // 1. Envio de Mensagem (WebSocket)
+    // 1. Envio de Mensagem (WebSocket): o broadcast sai depois do commit (MensagemBroadcaster);
+    //    quem enviou recebe so um ack curto, na propria sessao
     @MessageMapping("/chat/{pedidoId}")
-    public void enviarMensagemEmTempoReal(
+    @SendToUser(destinations = "/queue/ack", broadcast = false)
+    public MensagemAckDTO enviarMensagemEmTempoReal(
             @DestinationVariable Long pedidoId,
             EnviarMensagemDTO dto,
             Principal principal
     ) {
-        String emailRemetente = principal.getName();
-
-        // Service aceita Email (String)
-        MensagemResponseDTO mensagem = mensagemService.enviarMensagem(
+        // Id vem do principal montado no CONNECT, sem consulta ao banco
+        MensagemResponseDTO mensagem = mensagemService.enviarMensagemTempoReal(
                 pedidoId,
-                emailRemetente,
+                authContextService.getUsuarioId(principal),
                 dto.conteudo()
         );
 
-        messagingTemplate.convertAndSend("/topic/mensagens/" + pedidoId, mensagem);
+        return new MensagemAckDTO(mensagem.id(), pedidoId, mensagem.enviadoEm(), dto.idCliente());
     }
 
-    // 2. Notificação de "Digitando..."
+    // 2. Notificação de "Digitando...": só mudanças de estado, com intervalo mínimo e expiração (sem banco)
     @MessageMapping("/chat/{pedidoId}/digitando")
     public void digitando(
             @DestinationVariable Long pedidoId,
             DigitandoDTO dto,
-            Principal principal
+            Principal principal,
+            @Header(SimpMessageHeaderAccessor.SESSION_ID_HEADER) String sessaoId
     ) {
-        // Precisamos do ID numérico para o DTO do frontend
-        Long usuarioId = authContextService.getUsuarioIdByEmail(principal.getName());
-
-        messagingTemplate.convertAndSend(
-                "/topic/mensagens/" + pedidoId + "/digitando",
-                new DigitandoDTO(usuarioId, dto.usuarioNome(), dto.digitando())
+        digitandoDebouncer.receber(
+                sessaoId,
+                pedidoId,
+                authContextService.getUsuarioId(principal),
+                dto.usuarioNome(),
+                Boolean.TRUE.equals(dto.digitando())
         );
     }
 
-    // 3. Confirmação de Leitura
+    // 3. Confirmação de Leitura: agregada por (pedido, leitor); "/lida" e "/ultimo-visto" saem uma vez por janela
     @MessageMapping("/chat/{pedidoId}/lida/{mensagemId}")
     public void confirmarLeitura(
             @DestinationVariable Long pedidoId,
             @DestinationVariable Long mensagemId,
             Principal principal
     ) {
-        String emailUsuario = principal.getName();
-        Long quemLeuId = authContextService.getUsuarioIdByEmail(emailUsuario);
-
-        // Persiste usando Email
-        mensagemService.marcarMensagemEspecifica(pedidoId, mensagemId, emailUsuario);
-
-        // Notifica usando ID
-        messagingTemplate.convertAndSend(
-                "/topic/mensagens/" + pedidoId + "/lida",
-                new MensagemLidaDTO(mensagemId, pedidoId, quemLeuId, LocalDateTime.now())
-        );
-
-        var ultimoVisto = mensagemService.buscarUltimoVisto(pedidoId, emailUsuario);
-
-        messagingTemplate.convertAndSend(
-                "/topic/mensagens/" + pedidoId + "/ultimo-visto",
-                ultimoVisto
-        );
+        leiturasAgregador.registrar(pedidoId, authContextService.getUsuarioId(principal), mensagemId);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package br.com.easybiz.controller;
+
+import java.security.Principal;
+import java.util.List;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import br.com.easybiz.dto.ConversaDTO;
+import br.com.easybiz.service.AuthContextService;
+import br.com.easybiz.service.MensagemService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@Tag(name = "5. Chat do Pedido", description = "Envio e leitura de mensagens entre cliente e prestador")
+@RestController
+@RequestMapping("/pedidos/conversas")
+@SecurityRequirement(name = "bearerAuth")
+public class ConversaController {
+
+	private final MensagemService mensagemService;
+	private final AuthContextService authContextService;
+
+	public ConversaController(MensagemService mensagemService, AuthContextService authContextService) {
+		this.mensagemService = mensagemService;
+		this.authContextService = authContextService;
+	}
+
+	@Operation(summary = "Caixa de entrada",
+			description = """
+				Todas as conversas do usuário (como cliente ou prestador), da mais recente para a mais antiga,
+				com a quantidade de não lidas e a prévia da última mensagem. Mudanças no contador chegam
+				em tempo real em `/user/queue/nao-lidas`.
+				""")
+	@GetMapping
+	public ResponseEntity<List<ConversaDTO>> listar(Principal principal) {
+		return ResponseEntity.ok(mensagemService.listarConversas(authContextService.getUsuarioId(principal)));
+	}
+}
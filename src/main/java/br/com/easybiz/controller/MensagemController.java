@@ -1,19 +1,25 @@
 package br.com.easybiz.controller;
 
 import java.security.Principal;
-import java.util.List;
 
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import br.com.easybiz.dto.EnviarMensagemDTO;
+import br.com.easybiz.dto.HistoricoMensagensDTO;
+import br.com.easybiz.dto.LeituraDTO;
 import br.com.easybiz.dto.MensagemResponseDTO;
+import br.com.easybiz.service.AuthContextService;
 import br.com.easybiz.service.MensagemService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
@@ -25,12 +31,15 @@ import jakarta.validation.Valid;
 @RestController
 @RequestMapping("/pedidos/{pedidoId}/mensagens")
 @SecurityRequirement(name = "bearerAuth")
+@Validated
 public class MensagemController {
 
 	private final MensagemService mensagemService;
+	private final AuthContextService authContextService;
 
-	public MensagemController(MensagemService mensagemService) {
+	public MensagemController(MensagemService mensagemService, AuthContextService authContextService) {
 		this.mensagemService = mensagemService;
+		this.authContextService = authContextService;
 	}
 
 	@Operation(summary = "Enviar mensagem")
@@ -44,22 +53,43 @@ public class MensagemController {
 			@RequestBody @Valid EnviarMensagemDTO dto,
 			Principal principal
 	) {
-		// Correção: Passa o Email (String) direto para o Service
-		return ResponseEntity.ok(mensagemService.enviarMensagem(pedidoId, principal.getName(), dto.conteudo()));
+		return ResponseEntity.ok(mensagemService.enviarMensagem(pedidoId, authContextService.getUsuarioId(principal), dto.conteudo()));
 	}
 
-	@Operation(summary = "Histórico de conversa")
+	@Operation(summary = "Histórico de conversa",
+			description = """
+				Paginado por cursor. Sem cursor, retorna as mensagens mais recentes.
+				Use `beforeId` da resposta para carregar as anteriores e `afterId` para buscar só as novas
+				(ex.: ao reconectar o WebSocket). Informe apenas um dos dois.
+				""")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Página do histórico em ordem cronológica"),
+			@ApiResponse(responseCode = "400", description = "beforeId e afterId informados juntos ou limit inválido")
+	})
 	@GetMapping
-	public ResponseEntity<List<MensagemResponseDTO>> listar(@PathVariable Long pedidoId, Principal principal) {
-		// Correção: Passa o Email para validar participante
-		return ResponseEntity.ok(mensagemService.listarMensagens(pedidoId, principal.getName()));
+	public ResponseEntity<HistoricoMensagensDTO> listar(
+			@PathVariable Long pedidoId,
+			@RequestParam(required = false) Long beforeId,
+			@RequestParam(required = false) Long afterId,
+			@RequestParam(defaultValue = "50") @Min(1) @Max(200) Integer limit,
+			Principal principal
+	) {
+		Long usuarioId = authContextService.getUsuarioId(principal);
+		return ResponseEntity.ok(mensagemService.listarMensagens(pedidoId, usuarioId, beforeId, afterId, limit));
 	}
 
-	@Operation(summary = "Marcar mensagens como lidas")
+	@Operation(summary = "Marcar mensagens como lidas",
+			description = """
+				Marca como lidas as mensagens recebidas neste pedido. Com `ateId`, apenas ate essa mensagem
+				(marca d'agua de leitura); sem ele, todas as não lidas.
+				""")
 	@PostMapping("/lidas")
-	public ResponseEntity<Void> marcarComoLidas(@PathVariable Long pedidoId, Principal principal) {
+	public ResponseEntity<LeituraDTO> marcarComoLidas(
+			@PathVariable Long pedidoId,
+			@RequestParam(required = false) Long ateId,
+			Principal principal
+	) {
 		// Correção: Removemos {usuarioId} da URL e usamos o Token
-		mensagemService.marcarComoLidas(pedidoId, principal.getName());
-		return ResponseEntity.noContent().build();
+		return ResponseEntity.ok(mensagemService.marcarComoLidas(pedidoId, authContextService.getUsuarioId(principal), ateId));
 	}
 }
\ No newline at end of file
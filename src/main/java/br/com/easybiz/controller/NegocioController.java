@@ -6,6 +6,8 @@ import java.util.List;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import jakarta.validation.constraints.DecimalMax;
 import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
@@ -20,9 +22,12 @@ import org.springframework.web.bind.annotation.RestController;
 
 import br.com.easybiz.dto.AtualizarFotoDTO;
 import br.com.easybiz.dto.AtualizarLocalizacaoDTO;
+import br.com.easybiz.dto.ClusterDTO;
 import br.com.easybiz.dto.CriarNegocioDTO;
 import br.com.easybiz.dto.NegocioResponseDTO;
+import br.com.easybiz.dto.PaginaCursorDTO;
 import br.com.easybiz.model.Negocio;
+import br.com.easybiz.search.ClusterIndex;
 import br.com.easybiz.service.AuthContextService;
 import br.com.easybiz.service.NegocioService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -63,7 +68,7 @@ public class NegocioController {
     @PostMapping
     @SecurityRequirement(name = "bearerAuth")
     public ResponseEntity<NegocioResponseDTO> criar(@RequestBody @Valid CriarNegocioDTO dto, Principal principal) {
-        Long usuarioLogadoId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioLogadoId = authContextService.getUsuarioId(principal);
 
         Negocio negocio = negocioService.criarNegocio(
                 usuarioLogadoId,
@@ -79,17 +84,42 @@ public class NegocioController {
     }
 
     @GetMapping("/busca")
-    @Operation(summary = "Busca inteligente por localização e ranking")
-    public ResponseEntity<List<NegocioResponseDTO>> buscar(
+    @Operation(summary = "Busca inteligente por localização e ranking",
+            description = """
+                Resultados paginados por cursor. Use o `proximoCursor` da resposta para buscar a próxima página.
+
+                Com o parâmetro `k`, retorna os k negócios mais próximos (sem limite de raio),
+                ordenados pela distância; `limit` e `cursor` são ignorados nesse modo.
+                """)
+    public ResponseEntity<PaginaCursorDTO<NegocioResponseDTO>> buscar(
             @RequestParam @DecimalMin("-90.0") @DecimalMax("90.0") Double lat,
             @RequestParam @DecimalMin("-180.0") @DecimalMax("180.0") Double lon,
-            @RequestParam(required = false) String busca
+            @RequestParam(required = false) String busca,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) @Min(1) @Max(100) Integer k
+    ) {
+        if (k != null) {
+            return ResponseEntity.ok(negocioService.buscarMaisProximos(lat, lon, busca, k));
+        }
+        return ResponseEntity.ok(negocioService.buscarNegocios(lat, lon, busca, limit, cursor));
+    }
+
+    @GetMapping("/clusters")
+    @Operation(summary = "Clusters de negócios para o mapa",
+            description = """
+                Agrupa os negócios do retângulo visível em células do nível de zoom (lado de 360/2^zoom graus)
+                e retorna a quantidade e o centroide de cada célula. Filtro opcional por categoria.
+                """)
+    public ResponseEntity<List<ClusterDTO>> clusters(
+            @RequestParam @DecimalMin("-90.0") @DecimalMax("90.0") Double latMin,
+            @RequestParam @DecimalMin("-90.0") @DecimalMax("90.0") Double latMax,
+            @RequestParam @DecimalMin("-180.0") @DecimalMax("180.0") Double lonMin,
+            @RequestParam @DecimalMin("-180.0") @DecimalMax("180.0") Double lonMax,
+            @RequestParam @Min(0) @Max(ClusterIndex.ZOOM_MAXIMO) Integer zoom,
+            @RequestParam(required = false) String categoria
     ) {
-        List<NegocioResponseDTO> resultado = negocioService.buscarNegocios(lat, lon, busca)
-                .stream()
-                .map(NegocioResponseDTO::fromEntity)
-                .toList();
-        return ResponseEntity.ok(resultado);
+        return ResponseEntity.ok(negocioService.buscarClusters(latMin, latMax, lonMin, lonMax, zoom, categoria));
     }
 
     @PatchMapping("/{id}/localizacao")
@@ -105,7 +135,7 @@ public class NegocioController {
             @RequestBody @Valid AtualizarLocalizacaoDTO dto,
             Principal principal
     ) {
-        Long usuarioLogadoId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioLogadoId = authContextService.getUsuarioId(principal);
         negocioService.atualizarLocalizacao(id, usuarioLogadoId, dto.latitude(), dto.longitude(), dto.enderecoCompleto());
         return ResponseEntity.noContent().build();
     }
@@ -118,7 +148,7 @@ public class NegocioController {
             @RequestBody @Valid AtualizarFotoDTO dto,
             Principal principal
     ) {
-        Long usuarioLogadoId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioLogadoId = authContextService.getUsuarioId(principal);
 
         negocioService.atualizarLogo(id, usuarioLogadoId, dto.url());
 
@@ -43,8 +43,8 @@ public class PedidoServicoController {
             @RequestBody @Valid CriarPedidoServicoDTO dto,
             Principal principal
     ) {
-        String emailCliente = principal.getName();
-        return ResponseEntity.status(HttpStatus.CREATED).body(service.criar(emailCliente, dto));
+        Long clienteId = authContextService.getUsuarioId(principal);
+        return ResponseEntity.status(HttpStatus.CREATED).body(service.criar(clienteId, dto));
     }
 
     @GetMapping
@@ -53,31 +53,31 @@ public class PedidoServicoController {
             Principal principal,
             @PageableDefault(size = 20) Pageable pageable
     ) {
-        Long usuarioId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioId = authContextService.getUsuarioId(principal);
         return ResponseEntity.ok(service.listarMeusPedidos(usuarioId, pageable));
     }
 
     @PatchMapping("/{id}/aceitar")
     public ResponseEntity<Void> aceitar(@PathVariable Long id, Principal principal) {
-        service.aceitar(id, authContextService.getUsuarioIdByEmail(principal.getName()));
+        service.aceitar(id, authContextService.getUsuarioId(principal));
         return ResponseEntity.noContent().build();
     }
 
     @PatchMapping("/{id}/recusar")
     public ResponseEntity<Void> recusar(@PathVariable Long id, Principal principal) {
-        service.recusar(id, authContextService.getUsuarioIdByEmail(principal.getName()));
+        service.recusar(id, authContextService.getUsuarioId(principal));
         return ResponseEntity.noContent().build();
     }
 
     @PatchMapping("/{id}/concluir")
     public ResponseEntity<Void> concluir(@PathVariable Long id, Principal principal) {
-        service.concluir(id, authContextService.getUsuarioIdByEmail(principal.getName()));
+        service.concluir(id, authContextService.getUsuarioId(principal));
         return ResponseEntity.noContent().build();
     }
 
     @PatchMapping("/{id}/cancelar")
     public ResponseEntity<Void> cancelar(@PathVariable Long id, Principal principal) {
-        service.cancelar(id, authContextService.getUsuarioIdByEmail(principal.getName()));
+        service.cancelar(id, authContextService.getUsuarioId(principal));
         return ResponseEntity.noContent().build();
     }
 }
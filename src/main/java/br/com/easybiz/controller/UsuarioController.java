@@ -65,7 +65,7 @@ public class UsuarioController {
     @SecurityRequirement(name = "bearerAuth")
     public ResponseEntity<UsuarioResponseDTO> meusDados(Principal principal) {
         // Resolve ID via AuthContextService
-        Long meuId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long meuId = authContextService.getUsuarioId(principal);
 
         return usuarioRepository.findById(meuId)
                 .map(u -> ResponseEntity.ok(new UsuarioResponseDTO(
@@ -96,7 +96,7 @@ public class UsuarioController {
             @RequestBody @Valid AtualizarFotoDTO dto,
             Principal principal
     ) {
-        Long usuarioLogadoId = authContextService.getUsuarioIdByEmail(principal.getName());
+        Long usuarioLogadoId = authContextService.getUsuarioId(principal);
         service.atualizarFoto(usuarioLogadoId, dto.url());
         return ResponseEntity.noContent().build();
     }
@@ -0,0 +1,16 @@
+package br.com.easybiz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Agrupamento de negocios de uma celula do mapa")
+public record ClusterDTO(
+
+        @Schema(description = "Latitude do centroide dos negocios da celula", example = "-23.5507")
+        double latitude,
+
+        @Schema(description = "Longitude do centroide dos negocios da celula", example = "-46.6336")
+        double longitude,
+
+        @Schema(description = "Quantidade de negocios na celula", example = "37")
+        long quantidade
+) {}
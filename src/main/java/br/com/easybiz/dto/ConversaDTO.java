@@ -0,0 +1,34 @@
+package br.com.easybiz.dto;
+
+import java.time.LocalDateTime;
+
+import br.com.easybiz.model.StatusPedido;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Conversa da caixa de entrada (campos da ultima mensagem nulos se ainda nao ha mensagens)")
+public record ConversaDTO(
+
+        @Schema(description = "ID do pedido de serviço", example = "10")
+        Long pedidoId,
+
+        @Schema(description = "Status atual do pedido", example = "ACEITO")
+        StatusPedido status,
+
+        @Schema(description = "Nome do negocio contratado", example = "Barbearia do Joao")
+        String negocioNome,
+
+        @Schema(description = "Mensagens recebidas e ainda nao lidas", example = "3")
+        int naoLidas,
+
+        @Schema(description = "ID da ultima mensagem da conversa", example = "169")
+        Long ultimaMensagemId,
+
+        @Schema(description = "ID de quem enviou a ultima mensagem", example = "5")
+        Long ultimaMensagemRemetenteId,
+
+        @Schema(description = "Inicio da ultima mensagem (ate 100 caracteres)", example = "Posso passar amanha as 10h?")
+        String ultimaMensagemPrevia,
+
+        @Schema(description = "Data e hora da ultima mensagem")
+        LocalDateTime ultimaMensagemEm
+) {}
@@ -13,5 +13,9 @@ public record EnviarMensagemDTO(
 
         @Schema(description = "Texto da mensagem", example = "Olá, qual o valor do orçamento?")
         @NotBlank @Size(max = 2000)
-        String conteudo
+        String conteudo,
+
+        @Schema(description = "Opcional, so no WebSocket: identificador local da mensagem, devolvido no ack", example = "tmp-42")
+        @Size(max = 64)
+        String idCliente
 ) {}
@@ -0,0 +1,26 @@
+package br.com.easybiz.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Pagina do historico do chat, em ordem cronologica, com os cursores para navegar")
+public record HistoricoMensagensDTO(
+
+        @Schema(description = "Mensagens da pagina, da mais antiga para a mais nova")
+        List<MensagemResponseDTO> itens,
+
+        @Schema(description = "Use como beforeId para carregar as mensagens anteriores (null se a pagina veio vazia)",
+                example = "120")
+        Long beforeId,
+
+        @Schema(description = "Use como afterId para buscar apenas as mensagens novas (ex.: ao reconectar)",
+                example = "169")
+        Long afterId,
+
+        @Schema(description = "Existem mensagens mais antigas que beforeId", example = "true")
+        boolean temAnteriores,
+
+        @Schema(description = "Existem mensagens mais novas que afterId alem desta pagina", example = "false")
+        boolean temPosteriores
+) {}
@@ -0,0 +1,17 @@
+package br.com.easybiz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Resultado da marcacao de mensagens como lidas")
+public record LeituraDTO(
+
+        @Schema(description = "ID do pedido de serviço", example = "10")
+        Long pedidoId,
+
+        @Schema(description = "Quantidade de mensagens marcadas nesta chamada", example = "12")
+        int quantidade,
+
+        @Schema(description = "Marca d'agua: mensagens do outro participante ate este ID estao lidas "
+                + "(null se nao havia nada para marcar)", example = "169")
+        Long ateMensagemId
+) {}
@@ -0,0 +1,21 @@
+package br.com.easybiz.dto;
+
+import java.time.LocalDateTime;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Confirmacao de envio, devolvida so para a sessao que enviou em /user/queue/ack")
+public record MensagemAckDTO(
+
+    @Schema(description = "ID da mensagem criada", example = "151")
+    Long mensagemId,
+
+    @Schema(description = "ID do pedido de serviço", example = "10")
+    Long pedidoId,
+
+    @Schema(description = "Data e hora do envio")
+    LocalDateTime enviadoEm,
+
+    @Schema(description = "Valor de idCliente enviado junto com a mensagem, para o app casar o ack com o envio", example = "tmp-42")
+    String idCliente
+) {}
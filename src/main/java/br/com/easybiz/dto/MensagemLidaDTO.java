@@ -4,10 +4,10 @@ import java.time.LocalDateTime;
 
 import io.swagger.v3.oas.annotations.media.Schema;
 
-@Schema(description = "Objeto de confirmação quando uma mensagem é visualizada")
+@Schema(description = "Confirmação de leitura: todas as mensagens do pedido até mensagemId foram visualizadas")
 public record MensagemLidaDTO(
 
-    @Schema(description = "ID da mensagem que foi lida", example = "150")
+    @Schema(description = "ID da última mensagem lida (marca d'água; as anteriores também estão lidas)", example = "150")
     Long mensagemId,
 
     @Schema(description = "ID do pedido de serviço", example = "10")
@@ -0,0 +1,13 @@
+package br.com.easybiz.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Contador de nao lidas de um pedido, enviado em /user/queue/nao-lidas quando muda")
+public record NaoLidasDTO(
+
+        @Schema(description = "ID do pedido de serviço", example = "10")
+        Long pedidoId,
+
+        @Schema(description = "Mensagens recebidas e ainda nao lidas neste pedido", example = "3")
+        int naoLidas
+) {}
@@ -13,9 +13,19 @@ public record NegocioResponseDTO(
         Double longitude,
         String enderecoCompleto,
         Double notaMedia,
-        String logoUrl
+        String logoUrl,
+        Double distanciaKm,
+        Double score
 ) {
     public static NegocioResponseDTO fromEntity(Negocio negocio) {
+        return fromEntity(negocio, null);
+    }
+
+    public static NegocioResponseDTO fromEntity(Negocio negocio, Double distanciaKm) {
+        return fromEntity(negocio, distanciaKm, null);
+    }
+
+    public static NegocioResponseDTO fromEntity(Negocio negocio, Double distanciaKm, Double score) {
         return new NegocioResponseDTO(
                 negocio.getId(),
                 negocio.getNome(),
@@ -27,7 +37,9 @@ public record NegocioResponseDTO(
                 negocio.getLongitude(),
                 negocio.getEnderecoCompleto(),
                 negocio.getNotaMedia(),
-                negocio.getLogoUrl()
+                negocio.getLogoUrl(),
+                distanciaKm,
+                score
         );
     }
 }
@@ -0,0 +1,19 @@
+package br.com.easybiz.dto;
+
+import java.util.List;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Pagina de resultados com paginacao por cursor (keyset)")
+public record PaginaCursorDTO<T>(
+
+        @Schema(description = "Itens da pagina")
+        List<T> itens,
+
+        @Schema(description = "Cursor opaco para a proxima pagina (null quando nao ha mais resultados)",
+                example = "NC41fDQy")
+        String proximoCursor,
+
+        @Schema(description = "Indica se existem mais resultados apos esta pagina", example = "true")
+        boolean temMais
+) {}
@@ -0,0 +1,18 @@
+package br.com.easybiz.event;
+
+import br.com.easybiz.dto.MensagemResponseDTO;
+
+/**
+ * Publicado na transacao do envio, assim que a mensagem recebe o id (gravada ou, com o write-behind, agendada).
+ * {@code recebidaEmNanos} ({@link System#nanoTime()}) e o inicio da medida de latencia do envio.
+ * {@code gravada}: a mensagem foi inserida nesta transacao; false se ainda esta na fila do write-behind.
+ */
+public record MensagemEnviadaEvent(
+        MensagemResponseDTO mensagem,
+        String canal,
+        long recebidaEmNanos,
+        boolean gravada
+) {
+    public static final String CANAL_REST = "rest";
+    public static final String CANAL_WEBSOCKET = "websocket";
+}
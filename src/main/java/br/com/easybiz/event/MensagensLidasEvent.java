@@ -0,0 +1,14 @@
+package br.com.easybiz.event;
+
+import java.time.LocalDateTime;
+
+/**
+ * Publicado quando mensagens do pedido recebidas por {@code leitorId} sao marcadas como lidas
+ * ate {@code ateMensagemId}.
+ */
+public record MensagensLidasEvent(
+        Long pedidoId,
+        Long leitorId,
+        Long ateMensagemId,
+        LocalDateTime lidaEm
+) {}
@@ -0,0 +1,10 @@
+package br.com.easybiz.event;
+
+/**
+ * Publicado quando o contador de nao lidas de um participante muda (envio ou leitura).
+ * O valor atual e lido depois do commit, na hora de notificar.
+ */
+public record NaoLidasAlteradasEvent(
+        Long pedidoId,
+        Long usuarioId
+) {}
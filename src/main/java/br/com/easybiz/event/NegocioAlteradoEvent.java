@@ -0,0 +1,18 @@
+package br.com.easybiz.event;
+
+import br.com.easybiz.model.Negocio;
+import br.com.easybiz.search.NegocioIndexado;
+
+/**
+ * Publicado quando um negocio e criado ou alterado.
+ * {@code estadoAtual} nulo indica que o negocio deixou de ser pesquisavel (inativo ou sem coordenadas).
+ */
+public record NegocioAlteradoEvent(
+        Long negocioId,
+        NegocioIndexado estadoAtual
+) {
+    public static NegocioAlteradoEvent de(Negocio negocio) {
+        NegocioIndexado estado = NegocioIndexado.indexavel(negocio) ? NegocioIndexado.fromEntity(negocio) : null;
+        return new NegocioAlteradoEvent(negocio.getId(), estado);
+    }
+}
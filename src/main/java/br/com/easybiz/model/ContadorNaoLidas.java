@@ -0,0 +1,61 @@
+package br.com.easybiz.model;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Mensagens nao lidas de um participante num pedido, mantido junto com o envio e a leitura.
+ * Cada pedido tem uma linha para o cliente e outra para o prestador, criadas com o pedido.
+ * {@code ultimaMensagemId} e a mensagem mais recente da conversa por (enviadoEm, id), igual nas duas linhas;
+ * {@code ultimaMensagemEm} guarda o enviadoEm dela para o envio comparar sem ler a mensagem.
+ * {@code lidaAteMensagemId} e a marca d'agua de leitura do participante: mensagens do outro com id ate ela
+ * estao lidas, inclusive as que o write-behind ainda vai gravar.
+ */
+@Entity
+@Table(name = "contador_nao_lidas")
+@IdClass(ContadorNaoLidas.Chave.class)
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContadorNaoLidas {
+
+    @Id
+    @Column(name = "pedido_servico_id")
+    private Long pedidoId;
+
+    @Id
+    @Column(name = "usuario_id")
+    private Long usuarioId;
+
+    @Column(nullable = false)
+    private int quantidade;
+
+    private Long ultimaMensagemId;
+
+    private LocalDateTime ultimaMensagemEm;
+
+    @Column(nullable = false)
+    private long lidaAteMensagemId;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Chave implements Serializable {
+        private Long pedidoId;
+        private Long usuarioId;
+    }
+}
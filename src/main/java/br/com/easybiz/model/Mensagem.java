@@ -6,12 +6,14 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -28,12 +30,18 @@ import lombok.Setter;
 @Builder
 public class Mensagem {
 
+    public static final String SEQUENCE = "mensagem_id_seq";
+
+    // Sem blocos (V10): REST, write-behind e todas as instancias tiram ids da mesma sequence, em ordem de envio.
+    // O id e a marca d'agua de leitura ("lidas ate X"), entao nao pode haver bloco reservado por instancia.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "mensagem_id")
+    @SequenceGenerator(name = "mensagem_id", sequenceName = Mensagem.SEQUENCE, allocationSize = 1)
     private Long id;
 
+    // LAZY: o chat so usa o id; a autorizacao vem do ParticipantesPedidoCache
     @JsonIgnore
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "pedido_servico_id", nullable = false)
     private PedidoServico pedidoServico;
 
@@ -10,6 +10,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.PrePersist;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -27,7 +28,8 @@ import lombok.Setter;
 public class Negocio {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "negocios_id")
+    @SequenceGenerator(name = "negocios_id", sequenceName = "negocios_id_seq", allocationSize = SequenciaIds.TAMANHO_BLOCO)
     private Long id;
 
     @Column(nullable = false)
@@ -36,6 +38,10 @@ public class Negocio {
     @Column(nullable = false)
     private String categoria;
 
+    // Forma usada nos filtros da busca; a categoria fica como o dono digitou (ver NegocioService.chaveCategoria)
+    @Column(name = "categoria_chave", nullable = false)
+    private String categoriaChave;
+
     @ManyToOne
     @JoinColumn(name = "usuario_id", nullable = false)
     private Usuario usuario;
@@ -55,6 +61,10 @@ public class Negocio {
     @Column(name = "nota_media")
     private Double notaMedia = 0.0;
 
+    @Builder.Default
+    @Column(name = "total_avaliacoes", nullable = false)
+    private Integer totalAvaliacoes = 0;
+
     @Column(length = 500)
     private String logoUrl;
 
@@ -67,5 +77,8 @@ public class Negocio {
         if (this.notaMedia == null) {
             this.notaMedia = 0.0;
         }
+        if (this.totalAvaliacoes == null) {
+            this.totalAvaliacoes = 0;
+        }
     }
 }
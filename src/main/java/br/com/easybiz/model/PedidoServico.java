@@ -17,6 +17,7 @@ import jakarta.persistence.Id;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.SequenceGenerator;
 import jakarta.persistence.Table;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -34,7 +35,8 @@ import lombok.Setter;
 public class PedidoServico {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pedido_servico_id")
+    @SequenceGenerator(name = "pedido_servico_id", sequenceName = "pedido_servico_id_seq", allocationSize = SequenciaIds.TAMANHO_BLOCO)
     private Long id;
 
     @Version
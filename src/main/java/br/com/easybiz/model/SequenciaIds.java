@@ -0,0 +1,16 @@
+package br.com.easybiz.model;
+
+/**
+ * Ids das entidades saem de sequences em blocos (otimizador pooled-lo): o Hibernate reserva
+ * {@link #TAMANHO_BLOCO} ids por ida ao banco e pode agrupar os INSERTs em batch.
+ *
+ * O valor efetivo e o INCREMENT BY de cada sequence (definido pela V11 a partir de
+ * {@code app.ids.tamanho-bloco}); com {@code increment_size_mismatch_strategy=fix} o Hibernate adota o do banco.
+ * {@link Mensagem} e a excecao: o id dela e a ordem de envio do chat, entao sai da sequence um a um (V10).
+ */
+public final class SequenciaIds {
+
+    public static final int TAMANHO_BLOCO = 50;
+
+    private SequenciaIds() {}
+}
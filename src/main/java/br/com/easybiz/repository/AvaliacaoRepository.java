@@ -15,4 +15,8 @@ public interface AvaliacaoRepository extends JpaRepository<Avaliacao, Long> {
     // O COALESCE serve para retornar 0.0 se não tiver nenhuma nota (evita null)
     @Query("SELECT COALESCE(AVG(a.nota), 0.0) FROM Avaliacao a WHERE a.pedido.negocio.id = :negocioId")
     Double calcularMediaDoNegocio(@Param("negocioId") Long negocioId);
+
+    // Quantidade de avaliacoes, usada no ranking da busca junto com a media
+    @Query("SELECT COUNT(a) FROM Avaliacao a WHERE a.pedido.negocio.id = :negocioId")
+    long contarDoNegocio(@Param("negocioId") Long negocioId);
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package br.com.easybiz.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import br.com.easybiz.model.ContadorNaoLidas;
+
+public interface ContadorNaoLidasRepository extends JpaRepository<ContadorNaoLidas, ContadorNaoLidas.Chave> {
+
+    // 🔹 As duas linhas do pedido (cliente e prestador), num INSERT so
+    @Modifying
+    @Query(value = """
+        INSERT INTO contador_nao_lidas (pedido_servico_id, usuario_id, quantidade, lida_ate_mensagem_id)
+        VALUES (:pedidoId, :clienteId, 0, 0), (:pedidoId, :prestadorId, 0, 0)
+    """, nativeQuery = true)
+    void criarContadores(
+            @Param("pedidoId") Long pedidoId,
+            @Param("clienteId") Long clienteId,
+            @Param("prestadorId") Long prestadorId
+    );
+
+    // 🔹 Envio: soma no destinatario e, se a mensagem for mais nova por (enviadoEm, id) que a atual,
+    // move a ultima mensagem das duas linhas, num UPDATE atomico (envios concorrentes commitam em qualquer ordem)
+    @Modifying
+    @Query("""
+        UPDATE ContadorNaoLidas c
+        SET c.quantidade = c.quantidade + CASE WHEN c.usuarioId = :destinatarioId THEN :quantidade ELSE 0 END,
+            c.ultimaMensagemId = CASE
+                WHEN c.ultimaMensagemEm IS NULL OR c.ultimaMensagemEm < :enviadaEm
+                     OR (c.ultimaMensagemEm = :enviadaEm AND c.ultimaMensagemId < :ultimaMensagemId)
+                THEN :ultimaMensagemId ELSE c.ultimaMensagemId END,
+            c.ultimaMensagemEm = CASE
+                WHEN c.ultimaMensagemEm IS NULL OR c.ultimaMensagemEm < :enviadaEm
+                     OR (c.ultimaMensagemEm = :enviadaEm AND c.ultimaMensagemId < :ultimaMensagemId)
+                THEN :enviadaEm ELSE c.ultimaMensagemEm END
+        WHERE c.pedidoId = :pedidoId
+    """)
+    int registrarEnvio(
+            @Param("pedidoId") Long pedidoId,
+            @Param("destinatarioId") Long destinatarioId,
+            @Param("quantidade") int quantidade,
+            @Param("ultimaMensagemId") Long ultimaMensagemId,
+            @Param("enviadaEm") LocalDateTime enviadaEm
+    );
+
+    // 🔹 Leitura: desconta as mensagens marcadas como lidas (nunca abaixo de zero)
+    @Modifying
+    @Query("""
+        UPDATE ContadorNaoLidas c
+        SET c.quantidade = CASE WHEN c.quantidade > :quantidade THEN c.quantidade - :quantidade ELSE 0 END
+        WHERE c.pedidoId = :pedidoId AND c.usuarioId = :usuarioId
+    """)
+    int registrarLeitura(
+            @Param("pedidoId") Long pedidoId,
+            @Param("usuarioId") Long usuarioId,
+            @Param("quantidade") int quantidade
+    );
+
+    // 🔹 Marca d'agua de leitura do participante (so avanca). Trava a linha antes do UPDATE das mensagens
+    @Modifying
+    @Query("""
+        UPDATE ContadorNaoLidas c
+        SET c.lidaAteMensagemId = CASE WHEN c.lidaAteMensagemId < :ateId THEN :ateId ELSE c.lidaAteMensagemId END
+        WHERE c.pedidoId = :pedidoId AND c.usuarioId = :usuarioId
+    """)
+    int registrarMarcaLeitura(
+            @Param("pedidoId") Long pedidoId,
+            @Param("usuarioId") Long usuarioId,
+            @Param("ateId") Long ateId
+    );
+
+    // 🔹 Write-behind: marcas d'agua dos pedidos do lote, com as linhas travadas ate o fim da transacao
+    @Query(value = """
+        SELECT c.pedido_servico_id AS "pedidoId", c.usuario_id AS "usuarioId",
+               c.lida_ate_mensagem_id AS "lidaAteMensagemId"
+        FROM contador_nao_lidas c
+        WHERE c.pedido_servico_id IN (:pedidos)
+        ORDER BY c.pedido_servico_id, c.usuario_id
+        FOR UPDATE
+    """, nativeQuery = true)
+    List<MarcaLeitura> travarMarcasLeitura(@Param("pedidos") Collection<Long> pedidos);
+
+    // 🔹 Valor atual e email do dono (nome do usuario no destino /user do STOMP)
+    @Query("""
+        SELECT c.quantidade AS quantidade, u.email AS email
+        FROM ContadorNaoLidas c JOIN Usuario u ON u.id = c.usuarioId
+        WHERE c.pedidoId = :pedidoId AND c.usuarioId = :usuarioId
+    """)
+    Optional<ContadorUsuario> buscarContador(@Param("pedidoId") Long pedidoId, @Param("usuarioId") Long usuarioId);
+
+    // 🔹 Caixa de entrada: todas as conversas do usuario numa consulta, mais recentes primeiro
+    @Query("""
+        SELECT c.pedidoId AS pedidoId,
+               p.status AS status,
+               n.nome AS negocioNome,
+               c.quantidade AS naoLidas,
+               m.id AS ultimaMensagemId,
+               m.remetente.id AS ultimaMensagemRemetenteId,
+               SUBSTRING(m.conteudo, 1, 100) AS ultimaMensagemPrevia,
+               m.enviadoEm AS ultimaMensagemEm
+        FROM ContadorNaoLidas c
+        JOIN PedidoServico p ON p.id = c.pedidoId
+        JOIN p.negocio n
+        LEFT JOIN Mensagem m ON m.id = c.ultimaMensagemId
+        WHERE c.usuarioId = :usuarioId
+        ORDER BY m.enviadoEm DESC NULLS LAST, c.pedidoId DESC
+    """)
+    List<LinhaConversa> listarConversas(@Param("usuarioId") Long usuarioId);
+
+    interface MarcaLeitura {
+
+        Long getPedidoId();
+
+        Long getUsuarioId();
+
+        Long getLidaAteMensagemId();
+    }
+
+    interface ContadorUsuario {
+
+        Integer getQuantidade();
+
+        String getEmail();
+    }
+}
@@ -0,0 +1,52 @@
+package br.com.easybiz.repository;
+
+import java.time.LocalDateTime;
+
+import br.com.easybiz.dto.NegocioResponseDTO;
+import br.com.easybiz.search.NegocioIndexado;
+
+/**
+ * Linha das queries nativas de busca: colunas de negocios + nome do dono, em um unico SELECT.
+ * Traz o que o ranking e o {@link NegocioResponseDTO} precisam, sem carregar entidades.
+ */
+public interface LinhaBuscaNegocio {
+
+    Long getId();
+
+    String getNome();
+
+    String getCategoria();
+
+    String getCategoriaChave();
+
+    Long getUsuarioId();
+
+    String getNomeUsuario();
+
+    Boolean getAtivo();
+
+    Double getLatitude();
+
+    Double getLongitude();
+
+    String getEnderecoCompleto();
+
+    Double getNotaMedia();
+
+    String getLogoUrl();
+
+    Integer getTotalAvaliacoes();
+
+    LocalDateTime getCriadoEm();
+
+    default NegocioIndexado paraIndexado() {
+        return new NegocioIndexado(getId(), getNome(), getCategoria(), getCategoriaChave(), getLatitude(), getLongitude(),
+                getNotaMedia(), getEnderecoCompleto(), getTotalAvaliacoes(), getCriadoEm());
+    }
+
+    default NegocioResponseDTO paraResponse(Double distanciaKm, Double score) {
+        return new NegocioResponseDTO(getId(), getNome(), getCategoria(), getUsuarioId(), getNomeUsuario(),
+                getAtivo(), getLatitude(), getLongitude(), getEnderecoCompleto(), getNotaMedia(), getLogoUrl(),
+                distanciaKm, score);
+    }
+}
@@ -0,0 +1,28 @@
+package br.com.easybiz.repository;
+
+import java.time.LocalDateTime;
+
+import br.com.easybiz.model.StatusPedido;
+
+/**
+ * Uma conversa da caixa de entrada: pedido, nao lidas do usuario e previa da ultima mensagem
+ * (campos da mensagem nulos se a conversa ainda nao tem mensagens).
+ */
+public interface LinhaConversa {
+
+    Long getPedidoId();
+
+    StatusPedido getStatus();
+
+    String getNegocioNome();
+
+    Integer getNaoLidas();
+
+    Long getUltimaMensagemId();
+
+    Long getUltimaMensagemRemetenteId();
+
+    String getUltimaMensagemPrevia();
+
+    LocalDateTime getUltimaMensagemEm();
+}
@@ -3,7 +3,9 @@ package br.com.easybiz.repository;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
@@ -11,37 +13,78 @@ import br.com.easybiz.model.Mensagem;
 
 public interface MensagemRepository extends JpaRepository<Mensagem, Long> {
 
-    List<Mensagem> findByPedidoServico_IdOrderByEnviadoEmAsc(Long pedidoId);
+    // 🔹 Historico paginado por keyset em (enviado_em, id), sobre idx_mensagem_pedido_enviado_em.
+    // O cursor e o id de uma mensagem do pedido; a subquery (avaliada uma vez) resolve o enviado_em dela,
+    // e a primeira condicao (<= / >=) vira limite do range scan no indice. Cursor de outro pedido: nada.
 
- // 🔹 Mensagens NÃO lidas de um pedido (exceto do próprio usuário)
+    // Mais recentes primeiro (abertura do chat)
     @Query("""
-        SELECT m FROM Mensagem m
+        SELECT m FROM Mensagem m JOIN FETCH m.remetente
+        WHERE m.pedidoServico.id = :pedidoId
+        ORDER BY m.enviadoEm DESC, m.id DESC
+    """)
+    List<Mensagem> buscarUltimas(@Param("pedidoId") Long pedidoId, Limit limite);
+
+    // Anteriores ao cursor, da mais nova para a mais antiga (rolar para cima)
+    @Query("""
+        SELECT m FROM Mensagem m JOIN FETCH m.remetente
+        WHERE m.pedidoServico.id = :pedidoId
+          AND m.enviadoEm <= (SELECT c.enviadoEm FROM Mensagem c WHERE c.id = :cursorId AND c.pedidoServico.id = :pedidoId)
+          AND (m.enviadoEm < (SELECT c.enviadoEm FROM Mensagem c WHERE c.id = :cursorId) OR m.id < :cursorId)
+        ORDER BY m.enviadoEm DESC, m.id DESC
+    """)
+    List<Mensagem> buscarAnteriores(@Param("pedidoId") Long pedidoId, @Param("cursorId") Long cursorId, Limit limite);
+
+    // Posteriores ao cursor, em ordem cronologica (ressincronizar depois de reconectar)
+    @Query("""
+        SELECT m FROM Mensagem m JOIN FETCH m.remetente
+        WHERE m.pedidoServico.id = :pedidoId
+          AND m.enviadoEm >= (SELECT c.enviadoEm FROM Mensagem c WHERE c.id = :cursorId AND c.pedidoServico.id = :pedidoId)
+          AND (m.enviadoEm > (SELECT c.enviadoEm FROM Mensagem c WHERE c.id = :cursorId) OR m.id > :cursorId)
+        ORDER BY m.enviadoEm ASC, m.id ASC
+    """)
+    List<Mensagem> buscarPosteriores(@Param("pedidoId") Long pedidoId, @Param("cursorId") Long cursorId, Limit limite);
+
+    // 🔹 Maior ID nao lido do pedido (exceto do proprio usuario): marca d'agua de "ler tudo"
+    @Query("""
+        SELECT MAX(m.id) FROM Mensagem m
         WHERE m.pedidoServico.id = :pedidoId
           AND m.lida = false
           AND m.remetente.id <> :usuarioId
     """)
-    List<Mensagem> findNaoLidasDoPedido(
+    Long buscarUltimaNaoLida(
             @Param("pedidoId") Long pedidoId,
             @Param("usuarioId") Long usuarioId
     );
 
-    @org.springframework.data.jpa.repository.Modifying // Indica que é um UPDATE/DELETE
-    @org.springframework.data.jpa.repository.Query("UPDATE Mensagem m SET m.lida = true, m.lidaEm = :data WHERE m.id = :id")
-    void marcarMensagemComoLida(@Param("id") Long id, @Param("data") LocalDateTime data);
-
+    // 🔹 Maior id recebido pelo usuario no pedido: teto da marca d'agua de leitura
+    @Query("""
+        SELECT MAX(m.id) FROM Mensagem m
+        WHERE m.pedidoServico.id = :pedidoId
+          AND m.remetente.id <> :usuarioId
+    """)
+    Long buscarUltimaRecebida(
+            @Param("pedidoId") Long pedidoId,
+            @Param("usuarioId") Long usuarioId
+    );
 
- // Busca a data da última leitura feita pelo usuário X neste pedido
-    // "Quero saber a última vez que este usuário leu uma mensagem que não foi ele que mandou"
+    // 🔹 Marca como lidas, em um unico UPDATE, as mensagens do outro participante ate a marca d'agua
+    @Modifying
     @Query("""
-        SELECT MAX(m.lidaEm)
-        FROM Mensagem m
+        UPDATE Mensagem m SET m.lida = true, m.lidaEm = :data
         WHERE m.pedidoServico.id = :pedidoId
+          AND m.lida = false
           AND m.remetente.id <> :usuarioId
-          AND m.lida = true
+          AND m.id <= :ateId
     """)
-    LocalDateTime buscarUltimaLeitura(
-        @Param("pedidoId") Long pedidoId,
-        @Param("usuarioId") Long usuarioId
+    int marcarLidasAte(
+            @Param("pedidoId") Long pedidoId,
+            @Param("usuarioId") Long usuarioId,
+            @Param("ateId") Long ateId,
+            @Param("data") LocalDateTime data
     );
-}
 
+    @org.springframework.data.jpa.repository.Modifying // Indica que é um UPDATE/DELETE
+    @org.springframework.data.jpa.repository.Query("UPDATE Mensagem m SET m.lida = true, m.lidaEm = :data WHERE m.id = :id")
+    void marcarMensagemComoLida(@Param("id") Long id, @Param("data") LocalDateTime data);
+}
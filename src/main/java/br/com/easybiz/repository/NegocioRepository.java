@@ -1,5 +1,6 @@
 package br.com.easybiz.repository;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -7,29 +8,110 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import br.com.easybiz.model.Negocio;
+import br.com.easybiz.search.NegocioIndexado;
 
 public interface NegocioRepository extends JpaRepository<Negocio, Long> {
 
-    @Query(value = """
-        SELECT *
+    /**
+     * O bounding box (BETWEEN) e resolvido pelo idx_negocios_geo antes do Haversine exato,
+     * que roda apenas nas linhas dentro do retangulo.
+     * Sem ORDER BY: o ranking e a paginacao sao feitos em memoria pelo RankingBusca.
+     * O dono vem no mesmo SELECT (JOIN), sem uma consulta a usuarios por negocio.
+     */
+    String BUSCA_GEO_SQL = """
+        SELECT
+            n.id AS "id", n.nome AS "nome", n.categoria AS "categoria", n.categoria_chave AS "categoriaChave",
+            u.id AS "usuarioId", u.nome_completo AS "nomeUsuario", n.ativo AS "ativo",
+            n.latitude AS "latitude", n.longitude AS "longitude", n.endereco_completo AS "enderecoCompleto",
+            n.nota_media AS "notaMedia", n.logo_url AS "logoUrl",
+            n.total_avaliacoes AS "totalAvaliacoes", n.criado_em AS "criadoEm"
         FROM negocios n
+        JOIN usuarios u ON u.id = n.usuario_id
         WHERE
+            n.ativo = true
+        AND
             n.latitude IS NOT NULL AND n.longitude IS NOT NULL
         AND
-            (:categoria IS NULL OR UPPER(n.categoria) LIKE UPPER(CONCAT('%', :categoria, '%')))
+            n.latitude BETWEEN :latMin AND :latMax
+        AND
+            n.longitude BETWEEN :lonMin AND :lonMax
+        AND
+            (:categoria IS NULL OR n.categoria_chave = :categoria)
         AND
             (6371 * acos(
                 cos(radians(:userLat)) * cos(radians(n.latitude)) *
                 cos(radians(n.longitude) - radians(:userLon)) +
                 sin(radians(:userLat)) * sin(radians(n.latitude))
             )) < :raioKm
-        ORDER BY n.nota_media DESC
-        """, nativeQuery = true)
-    List<Negocio> buscarInteligente(
+        """;
+
+    @Query(value = BUSCA_GEO_SQL, nativeQuery = true)
+    List<LinhaBuscaNegocio> buscarInteligente(
         @Param("userLat") Double userLat,
         @Param("userLon") Double userLon,
         @Param("raioKm") Double raioKm,
-        @Param("categoria") String categoria
+        @Param("categoria") String categoria,
+        @Param("latMin") Double latMin,
+        @Param("latMax") Double latMax,
+        @Param("lonMin") Double lonMin,
+        @Param("lonMax") Double lonMax
     );
-}
 
+    /**
+     * Fallback do modo "mais proximos" enquanto o KnnIndex aquece: ordena pela distancia exata.
+     */
+    @Query(value = """
+        SELECT
+            n.id AS "id", n.nome AS "nome", n.categoria AS "categoria", n.categoria_chave AS "categoriaChave",
+            u.id AS "usuarioId", u.nome_completo AS "nomeUsuario", n.ativo AS "ativo",
+            n.latitude AS "latitude", n.longitude AS "longitude", n.endereco_completo AS "enderecoCompleto",
+            n.nota_media AS "notaMedia", n.logo_url AS "logoUrl",
+            n.total_avaliacoes AS "totalAvaliacoes", n.criado_em AS "criadoEm"
+        FROM negocios n
+        JOIN usuarios u ON u.id = n.usuario_id
+        WHERE
+            n.ativo = true
+        AND
+            n.latitude IS NOT NULL AND n.longitude IS NOT NULL
+        AND
+            (:categoria IS NULL OR n.categoria_chave = :categoria)
+        ORDER BY
+            (6371 * acos(
+                cos(radians(:userLat)) * cos(radians(n.latitude)) *
+                cos(radians(n.longitude) - radians(:userLon)) +
+                sin(radians(:userLat)) * sin(radians(n.latitude))
+            )) ASC, n.id ASC
+        LIMIT :k
+        """, nativeQuery = true)
+    List<LinhaBuscaNegocio> buscarMaisProximos(
+        @Param("userLat") Double userLat,
+        @Param("userLon") Double userLon,
+        @Param("categoria") String categoria,
+        @Param("k") Integer k
+    );
+
+    @Query("""
+        SELECT new br.com.easybiz.search.NegocioIndexado(
+            n.id, n.nome, n.categoria, n.categoriaChave, n.latitude, n.longitude, n.notaMedia, n.enderecoCompleto,
+            n.totalAvaliacoes, n.criadoEm)
+        FROM Negocio n
+        WHERE n.ativo = true AND n.latitude IS NOT NULL AND n.longitude IS NOT NULL
+        """)
+    List<NegocioIndexado> listarPesquisaveis();
+
+    /**
+     * Hidrata uma pagina de resultados vinda dos indices em memoria: um SELECT com JOIN, na ordem que vier.
+     */
+    @Query(value = """
+        SELECT
+            n.id AS "id", n.nome AS "nome", n.categoria AS "categoria", n.categoria_chave AS "categoriaChave",
+            u.id AS "usuarioId", u.nome_completo AS "nomeUsuario", n.ativo AS "ativo",
+            n.latitude AS "latitude", n.longitude AS "longitude", n.endereco_completo AS "enderecoCompleto",
+            n.nota_media AS "notaMedia", n.logo_url AS "logoUrl",
+            n.total_avaliacoes AS "totalAvaliacoes", n.criado_em AS "criadoEm"
+        FROM negocios n
+        JOIN usuarios u ON u.id = n.usuario_id
+        WHERE n.id IN (:ids)
+        """, nativeQuery = true)
+    List<LinhaBuscaNegocio> carregarParaBusca(@Param("ids") Collection<Long> ids);
+}
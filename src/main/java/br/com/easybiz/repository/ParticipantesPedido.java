@@ -0,0 +1,11 @@
+package br.com.easybiz.repository;
+
+/**
+ * Ids do cliente e do prestador (dono do negocio) de um pedido, sem carregar as entidades.
+ */
+public interface ParticipantesPedido {
+
+    Long getClienteId();
+
+    Long getPrestadorId();
+}
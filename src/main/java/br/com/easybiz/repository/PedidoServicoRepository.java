@@ -1,5 +1,7 @@
 package br.com.easybiz.repository;
 
+import java.util.Optional;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -22,5 +24,12 @@ public interface PedidoServicoRepository extends JpaRepository<PedidoServico, Lo
             @Param("prestadorId") Long prestadorId,
             Pageable pageable
     );
-}
 
+    @Query("""
+        SELECT p.cliente.id AS clienteId, n.usuario.id AS prestadorId
+        FROM PedidoServico p
+        JOIN p.negocio n
+        WHERE p.id = :pedidoId
+    """)
+    Optional<ParticipantesPedido> buscarParticipantes(@Param("pedidoId") Long pedidoId);
+}
@@ -0,0 +1,173 @@
+package br.com.easybiz.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import br.com.easybiz.event.NegocioAlteradoEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Cache de candidatos da busca por (celula lat/lon quantizada, categoria).
+ *
+ * Cada entrada guarda os negocios a ate {@code raio + meia diagonal da celula} do centro da celula,
+ * ja filtrados pela categoria. Assim qualquer ponto dentro da celula e atendido pela mesma entrada;
+ * o filtro exato de distancia e o ranking ({@link RankingBusca}) sao feitos por requisicao.
+ *
+ * Uma alteracao de negocio invalida apenas as entradas que o continham ou cuja area
+ * de cobertura contem a nova posicao.
+ */
+@Component
+public class BuscaCache {
+
+    private static final double KM_POR_GRAU = 111.32;
+
+    private final GeoGridIndex geoGridIndex;
+    private final double tamanhoCelula;
+    private final int maxEntradas;
+    private final long ttlMs;
+
+    private final LinkedHashMap<Chave, Entrada> entradas = new LinkedHashMap<>(256, 0.75f, true);
+
+    // Incrementada a cada invalidacao: uma carga iniciada antes dela nao entra no cache
+    private final AtomicLong geracao = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictionsTamanho;
+    private final Counter evictionsTtl;
+    private final Counter evictionsInvalidacao;
+
+    public BuscaCache(
+            GeoGridIndex geoGridIndex,
+            MeterRegistry meterRegistry,
+            @Value("${app.busca.cache.celula-graus:0.01}") double tamanhoCelula,
+            @Value("${app.busca.cache.max-entradas:5000}") int maxEntradas,
+            @Value("${app.busca.cache.ttl-segundos:60}") long ttlSegundos
+    ) {
+        this.geoGridIndex = geoGridIndex;
+        this.tamanhoCelula = tamanhoCelula;
+        this.maxEntradas = maxEntradas;
+        this.ttlMs = ttlSegundos * 1000;
+
+        this.hits = meterRegistry.counter("easybiz.busca.cache", "resultado", "hit");
+        this.misses = meterRegistry.counter("easybiz.busca.cache", "resultado", "miss");
+        this.evictionsTamanho = meterRegistry.counter("easybiz.busca.cache.evictions", "motivo", "tamanho");
+        this.evictionsTtl = meterRegistry.counter("easybiz.busca.cache.evictions", "motivo", "ttl");
+        this.evictionsInvalidacao = meterRegistry.counter("easybiz.busca.cache.evictions", "motivo", "invalidacao");
+        meterRegistry.gauge("easybiz.busca.cache.tamanho", entradas, m -> tamanho());
+    }
+
+    /**
+     * Candidatos para uma busca de raio {@code raioKm} a partir de qualquer ponto da celula de (lat, lon),
+     * sem ordem definida. Pode conter negocios um pouco alem do raio.
+     */
+    public List<NegocioIndexado> candidatos(double lat, double lon, double raioKm, String categoria) {
+        Chave chave = new Chave(indice(lat), indice(lon), raioKm, categoria);
+        long agora = System.currentTimeMillis();
+
+        synchronized (this) {
+            Entrada entrada = entradas.get(chave);
+            if (entrada != null && entrada.expiraEm > agora) {
+                hits.increment();
+                return entrada.negocios;
+            }
+        }
+        misses.increment();
+
+        long geracaoInicial = geracao.get();
+        double latCentro = (chave.celLat + 0.5) * tamanhoCelula;
+        double lonCentro = (chave.celLon + 0.5) * tamanhoCelula;
+        double cobertura = raioKm + meiaDiagonalKm();
+
+        List<NegocioIndexado> negocios = geoGridIndex.buscarNoRaio(latCentro, lonCentro, cobertura).stream()
+                .map(NegocioProximo::negocio)
+                .filter(n -> categoria == null || categoria.equals(n.categoriaChave()))
+                .toList();
+
+        Set<Long> ids = negocios.stream().map(NegocioIndexado::id).collect(Collectors.toSet());
+
+        synchronized (this) {
+            if (geracao.get() == geracaoInicial) {
+                entradas.put(chave, new Entrada(negocios, ids, latCentro, lonCentro, cobertura, agora + ttlMs));
+                while (entradas.size() > maxEntradas) {
+                    Iterator<Map.Entry<Chave, Entrada>> maisAntiga = entradas.entrySet().iterator();
+                    maisAntiga.next();
+                    maisAntiga.remove();
+                    evictionsTamanho.increment();
+                }
+            }
+        }
+        return negocios;
+    }
+
+    /**
+     * Deve ser chamado depois que os indices ja aplicaram o evento.
+     */
+    public synchronized void invalidar(NegocioAlteradoEvent event) {
+        geracao.incrementAndGet();
+        NegocioIndexado atual = event.estadoAtual();
+
+        Iterator<Entrada> it = entradas.values().iterator();
+        while (it.hasNext()) {
+            Entrada entrada = it.next();
+            boolean continha = entrada.ids.contains(event.negocioId());
+            boolean passaAConter = atual != null && GeoMath.distanciaKm(
+                    entrada.latCentro, entrada.lonCentro, atual.latitude(), atual.longitude()) < entrada.cobertura;
+            if (continha || passaAConter) {
+                it.remove();
+                evictionsInvalidacao.increment();
+            }
+        }
+    }
+
+    public synchronized void limpar() {
+        geracao.incrementAndGet();
+        entradas.clear();
+    }
+
+    public synchronized int tamanho() {
+        return entradas.size();
+    }
+
+    @Scheduled(fixedRate = 60_000)
+    public synchronized void removerExpiradas() {
+        long agora = System.currentTimeMillis();
+        Iterator<Entrada> it = entradas.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().expiraEm <= agora) {
+                it.remove();
+                evictionsTtl.increment();
+            }
+        }
+    }
+
+    private double meiaDiagonalKm() {
+        // A largura em longitude nunca passa da largura em latitude
+        return tamanhoCelula * KM_POR_GRAU * Math.sqrt(2) / 2;
+    }
+
+    private long indice(double grau) {
+        return (long) Math.floor(grau / tamanhoCelula);
+    }
+
+    private record Chave(long celLat, long celLon, double raioKm, String categoria) {}
+
+    private record Entrada(
+            List<NegocioIndexado> negocios,
+            Set<Long> ids,
+            double latCentro,
+            double lonCentro,
+            double cobertura,
+            long expiraEm
+    ) {}
+}
@@ -0,0 +1,255 @@
+package br.com.easybiz.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Resolve texto livre para uma categoria canonica.
+ *
+ * Tudo e pre-compilado no construtor: um mapa exato (categorias + sinonimos ja normalizados),
+ * um mapa ordenado para prefixos e uma BK-tree para erros de digitacao ("eletrecista").
+ * A consulta nunca percorre o dicionario inteiro.
+ */
+public class CategoriaMatcher {
+
+    private static final int PREFIXO_MINIMO = 4;
+
+    private final Map<String, String> exatos = new HashMap<>();
+    private final TreeMap<String, String> ordenados = new TreeMap<>();
+    private final BkTree bkTree = new BkTree();
+
+    /**
+     * @param categorias nomes canonicos (ja em maiusculas)
+     * @param sinonimos  termo alternativo -> categoria canonica
+     */
+    public CategoriaMatcher(List<String> categorias, Map<String, String> sinonimos) {
+        for (String categoria : categorias) {
+            registrar(normalizar(categoria), categoria);
+        }
+        sinonimos.forEach((termo, categoria) -> {
+            if (!categorias.contains(categoria)) {
+                throw new IllegalArgumentException("Sinonimo aponta para categoria desconhecida: " + categoria);
+            }
+            registrar(normalizar(termo), categoria);
+        });
+    }
+
+    /**
+     * Categoria canonica para o termo, ou vazio se nada no dicionario se aproxima dele.
+     */
+    public Optional<String> resolver(String termo) {
+        String normalizado = normalizar(termo);
+        if (normalizado.isEmpty()) {
+            return Optional.empty();
+        }
+
+        String exato = exatos.get(normalizado);
+        if (exato != null) {
+            return Optional.of(exato);
+        }
+
+        String[] tokens = normalizado.split(" ");
+        for (String token : tokens) {
+            String porToken = exatos.get(token);
+            if (porToken != null) {
+                return Optional.of(porToken);
+            }
+        }
+
+        String porPrefixo = porPrefixo(normalizado);
+        if (porPrefixo != null) {
+            return Optional.of(porPrefixo);
+        }
+
+        String aproximado = bkTree.maisProximo(normalizado, tolerancia(normalizado));
+        if (aproximado == null && tokens.length > 1) {
+            for (String token : tokens) {
+                aproximado = bkTree.maisProximo(token, tolerancia(token));
+                if (aproximado != null) {
+                    break;
+                }
+            }
+        }
+        return Optional.ofNullable(aproximado).map(exatos::get);
+    }
+
+    /**
+     * So o termo inteiro igual (depois de normalizado) a uma categoria ou sinonimo; sem prefixo nem aproximacao.
+     * "barbearia do joao" e "pintora" nao resolvem aqui.
+     */
+    public Optional<String> resolverExato(String termo) {
+        return Optional.ofNullable(exatos.get(normalizar(termo)));
+    }
+
+    /**
+     * Maiusculas, sem acentos, sem pontuacao e com espacos simples.
+     * Passada unica sobre os caracteres; a decomposicao Unicode so roda se houver algo fora do ASCII.
+     */
+    public static String normalizar(String termo) {
+        if (termo == null) {
+            return "";
+        }
+        String origem = termo;
+        for (int i = 0; i < termo.length(); i++) {
+            if (termo.charAt(i) > 127) {
+                origem = Normalizer.normalize(termo, Normalizer.Form.NFD);
+                break;
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(origem.length());
+        boolean espacoPendente = false;
+        for (int i = 0; i < origem.length(); i++) {
+            char c = origem.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            char maiuscula = Character.toUpperCase(c);
+            if ((maiuscula >= 'A' && maiuscula <= 'Z') || (maiuscula >= '0' && maiuscula <= '9')) {
+                if (espacoPendente && sb.length() > 0) {
+                    sb.append(' ');
+                }
+                espacoPendente = false;
+                sb.append(maiuscula);
+            } else {
+                espacoPendente = true;
+            }
+        }
+        return sb.toString();
+    }
+
+    private void registrar(String chave, String categoria) {
+        exatos.put(chave, categoria);
+        ordenados.put(chave, categoria);
+        bkTree.adicionar(chave);
+    }
+
+    // "ELETRI" -> ELETRICISTA, desde que o prefixo aponte para uma unica categoria
+    private String porPrefixo(String prefixo) {
+        if (prefixo.length() < PREFIXO_MINIMO) {
+            return null;
+        }
+        String encontrada = null;
+        for (Map.Entry<String, String> e : ordenados.tailMap(prefixo, true).entrySet()) {
+            if (!e.getKey().startsWith(prefixo)) {
+                break;
+            }
+            if (encontrada != null && !encontrada.equals(e.getValue())) {
+                return null;
+            }
+            encontrada = e.getValue();
+        }
+        return encontrada;
+    }
+
+    private static int tolerancia(String termo) {
+        if (termo.length() <= 4) {
+            return 0;
+        }
+        return termo.length() <= 7 ? 1 : 2;
+    }
+
+    static int distancia(String a, String b) {
+        return distancia(a, b, Math.max(a.length(), b.length()));
+    }
+
+    /**
+     * Levenshtein com limite: para assim que a linha inteira passa de {@code limite}.
+     */
+    static int distancia(String a, String b, int limite) {
+        if (Math.abs(a.length() - b.length()) > limite) {
+            return limite + 1;
+        }
+        int[] anterior = new int[b.length() + 1];
+        int[] atual = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            anterior[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            atual[0] = i;
+            int menorDaLinha = atual[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int custo = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                atual[j] = Math.min(Math.min(atual[j - 1] + 1, anterior[j] + 1), anterior[j - 1] + custo);
+                menorDaLinha = Math.min(menorDaLinha, atual[j]);
+            }
+            if (menorDaLinha > limite) {
+                return limite + 1;
+            }
+            int[] troca = anterior;
+            anterior = atual;
+            atual = troca;
+        }
+        return anterior[b.length()];
+    }
+
+    /**
+     * BK-tree (Burkhard-Keller) sobre a distancia de Levenshtein.
+     * Pela desigualdade triangular, so os filhos com aresta em [d - tol, d + tol] podem conter resultados.
+     */
+    private static final class BkTree {
+
+        private No raiz;
+
+        void adicionar(String termo) {
+            if (raiz == null) {
+                raiz = new No(termo);
+                return;
+            }
+            No atual = raiz;
+            while (true) {
+                int d = distancia(termo, atual.termo);
+                if (d == 0) {
+                    return;
+                }
+                No filho = atual.filhos.get(d);
+                if (filho == null) {
+                    atual.filhos.put(d, new No(termo));
+                    return;
+                }
+                atual = filho;
+            }
+        }
+
+        String maisProximo(String termo, int tolerancia) {
+            if (raiz == null || tolerancia <= 0) {
+                return null;
+            }
+            String melhor = null;
+            int melhorDistancia = tolerancia + 1;
+
+            List<No> pendentes = new ArrayList<>();
+            pendentes.add(raiz);
+            while (!pendentes.isEmpty()) {
+                No no = pendentes.remove(pendentes.size() - 1);
+                // A poda dos filhos depende da distancia exata ate o no
+                int d = distancia(termo, no.termo);
+                if (d < melhorDistancia) {
+                    melhorDistancia = d;
+                    melhor = no.termo;
+                }
+                int raio = Math.min(melhorDistancia - 1, tolerancia);
+                for (Map.Entry<Integer, No> filho : no.filhos.entrySet()) {
+                    if (Math.abs(filho.getKey() - d) <= raio) {
+                        pendentes.add(filho.getValue());
+                    }
+                }
+            }
+            return melhor;
+        }
+
+        private static final class No {
+            final String termo;
+            final Map<Integer, No> filhos = new HashMap<>();
+
+            No(String termo) {
+                this.termo = termo;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Contagens e centroides por celula, para cada nivel de zoom do mapa.
+ *
+ * No zoom {@code z} a celula tem {@code 360 / 2^z} graus de lado. Cada celula guarda, por categoria,
+ * a quantidade de negocios e a soma das coordenadas; inserir ou remover um negocio soma ou subtrai
+ * nas {@code ZOOM_MAXIMO + 1} celulas que o contem. Uma consulta so le as celulas do viewport.
+ */
+@Component
+public class ClusterIndex implements IndiceNegocios {
+
+    public static final int ZOOM_MAXIMO = 18;
+
+    // niveis[z]: chave da celula -> categoria (maiusculas) -> agregado
+    private final List<Map<Long, Map<String, Agregado>>> niveis = new ArrayList<>();
+    private final Map<Long, NegocioIndexado> porId = new ConcurrentHashMap<>();
+
+    private volatile boolean pronto = false;
+
+    public ClusterIndex() {
+        for (int z = 0; z <= ZOOM_MAXIMO; z++) {
+            niveis.add(new ConcurrentHashMap<>());
+        }
+    }
+
+    public boolean isPronto() {
+        return pronto;
+    }
+
+    @Override
+    public synchronized void reconstruir(Collection<NegocioIndexado> negocios) {
+        niveis.forEach(Map::clear);
+        porId.clear();
+        negocios.forEach(this::inserir);
+        pronto = true;
+    }
+
+    @Override
+    public synchronized void atualizar(NegocioIndexado negocio) {
+        removerInterno(negocio.id());
+        inserir(negocio);
+    }
+
+    @Override
+    public synchronized void remover(Long negocioId) {
+        removerInterno(negocioId);
+    }
+
+    /**
+     * Clusters das celulas do zoom que intersectam o retangulo, filtrados pela categoria (ou todas, se nula).
+     */
+    public List<Cluster> clusters(double latMin, double latMax, double lonMin, double lonMax,
+                                  int zoom, String categoria) {
+        double tamanho = tamanhoCelula(zoom);
+        long iIni = indice(latMin + 90, tamanho);
+        long iFim = indice(latMax + 90, tamanho);
+        long jIni = indice(lonMin + 180, tamanho);
+        long jFim = indice(lonMax + 180, tamanho);
+
+        Map<Long, Map<String, Agregado>> nivel = niveis.get(zoom);
+        String chaveCategoria = categoria != null ? categoria.toUpperCase() : null;
+        List<Cluster> resultado = new ArrayList<>();
+
+        // Viewport maior que o numero de celulas ocupadas: percorre as ocupadas em vez do retangulo
+        long celulasNoRetangulo = (iFim - iIni + 1) * (jFim - jIni + 1);
+        if (celulasNoRetangulo > nivel.size()) {
+            for (Map.Entry<Long, Map<String, Agregado>> e : nivel.entrySet()) {
+                long i = e.getKey() >> 32;
+                long j = e.getKey() & 0xffffffffL;
+                if (i >= iIni && i <= iFim && j >= jIni && j <= jFim) {
+                    adicionar(resultado, e.getValue(), chaveCategoria);
+                }
+            }
+            return resultado;
+        }
+
+        for (long i = iIni; i <= iFim; i++) {
+            for (long j = jIni; j <= jFim; j++) {
+                Map<String, Agregado> celula = nivel.get(chave(i, j));
+                if (celula != null) {
+                    adicionar(resultado, celula, chaveCategoria);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private static void adicionar(List<Cluster> resultado, Map<String, Agregado> celula, String categoria) {
+        long quantidade = 0;
+        double somaLat = 0;
+        double somaLon = 0;
+        for (Map.Entry<String, Agregado> e : celula.entrySet()) {
+            if (categoria == null || categoria.equals(e.getKey())) {
+                Agregado a = e.getValue();
+                quantidade += a.quantidade();
+                somaLat += a.somaLat();
+                somaLon += a.somaLon();
+            }
+        }
+        if (quantidade > 0) {
+            resultado.add(new Cluster(somaLat / quantidade, somaLon / quantidade, quantidade));
+        }
+    }
+
+    private void inserir(NegocioIndexado negocio) {
+        aplicar(negocio, 1);
+        porId.put(negocio.id(), negocio);
+    }
+
+    private void removerInterno(Long negocioId) {
+        NegocioIndexado anterior = porId.remove(negocioId);
+        if (anterior != null) {
+            aplicar(anterior, -1);
+        }
+    }
+
+    private void aplicar(NegocioIndexado negocio, int sinal) {
+        String categoria = negocio.categoriaChave().toUpperCase();
+        double lat = negocio.latitude();
+        double lon = negocio.longitude();
+
+        for (int z = 0; z <= ZOOM_MAXIMO; z++) {
+            double tamanho = tamanhoCelula(z);
+            long chave = chave(indice(lat + 90, tamanho), indice(lon + 180, tamanho));
+            Map<Long, Map<String, Agregado>> nivel = niveis.get(z);
+
+            Map<String, Agregado> celula = nivel.computeIfAbsent(chave, k -> new ConcurrentHashMap<>());
+            // Agregados sao imutaveis: a leitura concorrente ve o valor antigo ou o novo, nunca um meio-termo
+            Agregado novo = celula.getOrDefault(categoria, Agregado.VAZIO).somar(sinal, lat, lon);
+            if (novo.quantidade() == 0) {
+                celula.remove(categoria);
+                if (celula.isEmpty()) {
+                    nivel.remove(chave);
+                }
+            } else {
+                celula.put(categoria, novo);
+            }
+        }
+    }
+
+    private static double tamanhoCelula(int zoom) {
+        return 360.0 / (1L << zoom);
+    }
+
+    private static long indice(double grauDeslocado, double tamanho) {
+        return (long) Math.floor(grauDeslocado / tamanho);
+    }
+
+    private static long chave(long i, long j) {
+        return (i << 32) | (j & 0xffffffffL);
+    }
+
+    private record Agregado(long quantidade, double somaLat, double somaLon) {
+
+        static final Agregado VAZIO = new Agregado(0, 0, 0);
+
+        Agregado somar(int sinal, double lat, double lon) {
+            return new Agregado(quantidade + sinal, somaLat + sinal * lat, somaLon + sinal * lon);
+        }
+    }
+
+    /**
+     * Centroide e quantidade de negocios de uma celula.
+     */
+    public record Cluster(double latitude, double longitude, long quantidade) {}
+}
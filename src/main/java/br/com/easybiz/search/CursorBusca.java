@@ -0,0 +1,41 @@
+package br.com.easybiz.search;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import br.com.easybiz.exception.BusinessException;
+
+/**
+ * Posicao (score, id) do ultimo item entregue, serializada como token opaco.
+ * A ordem da busca e score DESC, id DESC; a proxima pagina comeca estritamente depois do cursor.
+ */
+public record CursorBusca(double score, long id) {
+
+    /** Cursor que antecede todos os resultados (primeira pagina). */
+    public static final CursorBusca INICIO = new CursorBusca(Double.MAX_VALUE, Long.MAX_VALUE);
+
+    public static CursorBusca decodificar(String token) {
+        if (token == null || token.isBlank()) {
+            return INICIO;
+        }
+        try {
+            String valor = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separador = valor.indexOf('|');
+            return new CursorBusca(
+                    Double.parseDouble(valor.substring(0, separador)),
+                    Long.parseLong(valor.substring(separador + 1))
+            );
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new BusinessException("Cursor de busca invalido.");
+        }
+    }
+
+    public String codificar() {
+        String valor = score + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(valor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public boolean antecede(double outroScore, long outroId) {
+        return outroScore < score || (outroScore == score && outroId < id);
+    }
+}
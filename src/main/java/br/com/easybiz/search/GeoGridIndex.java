@@ -0,0 +1,133 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Grade uniforme lat/lon sobre os negocios pesquisaveis.
+ * Uma busca por raio visita apenas as celulas que intersectam o circulo,
+ * em vez de calcular Haversine para todas as linhas da tabela.
+ */
+@Component
+public class GeoGridIndex implements IndiceNegocios {
+
+    private final double tamanhoCelula;
+
+    private final Map<Long, Map<Long, NegocioIndexado>> celulas = new ConcurrentHashMap<>();
+    private final Map<Long, NegocioIndexado> porId = new ConcurrentHashMap<>();
+
+    private volatile boolean pronto = false;
+
+    public GeoGridIndex(@Value("${app.busca.indice.celula-graus:0.1}") double tamanhoCelula) {
+        if (tamanhoCelula <= 0) {
+            throw new IllegalStateException("app.busca.indice.celula-graus deve ser positivo");
+        }
+        this.tamanhoCelula = tamanhoCelula;
+    }
+
+    public boolean isPronto() {
+        return pronto;
+    }
+
+    @Override
+    public synchronized void reconstruir(Collection<NegocioIndexado> negocios) {
+        celulas.clear();
+        porId.clear();
+        negocios.forEach(this::inserir);
+        pronto = true;
+    }
+
+    @Override
+    public synchronized void atualizar(NegocioIndexado negocio) {
+        removerInterno(negocio.id());
+        inserir(negocio);
+    }
+
+    @Override
+    public synchronized void remover(Long negocioId) {
+        removerInterno(negocioId);
+    }
+
+    /**
+     * Negocios a ate {@code raioKm} do ponto, na ordem em que foram encontrados.
+     */
+    public List<NegocioProximo> buscarNoRaio(double lat, double lon, double raioKm) {
+        GeoMath.BoundingBox box = GeoMath.boundingBox(lat, lon, raioKm);
+
+        long latIni = indice(box.latMin());
+        long latFim = indice(box.latMax());
+        long lonIni = indice(box.lonMin());
+        long lonFim = indice(box.lonMax());
+
+        List<NegocioProximo> resultado = new ArrayList<>();
+
+        for (long i = latIni; i <= latFim; i++) {
+            for (long j = lonIni; j <= lonFim; j++) {
+                if (!celulaIntersectaCirculo(i, j, lat, lon, raioKm)) {
+                    continue;
+                }
+                Map<Long, NegocioIndexado> celula = celulas.get(chave(i, j));
+                if (celula == null) {
+                    continue;
+                }
+                for (NegocioIndexado n : celula.values()) {
+                    double distancia = GeoMath.distanciaKm(lat, lon, n.latitude(), n.longitude());
+                    if (distancia < raioKm) {
+                        resultado.add(new NegocioProximo(n, distancia));
+                    }
+                }
+            }
+        }
+        return resultado;
+    }
+
+    public int tamanho() {
+        return porId.size();
+    }
+
+    private void inserir(NegocioIndexado negocio) {
+        long chave = chave(indice(negocio.latitude()), indice(negocio.longitude()));
+        celulas.computeIfAbsent(chave, k -> new ConcurrentHashMap<>()).put(negocio.id(), negocio);
+        porId.put(negocio.id(), negocio);
+    }
+
+    private void removerInterno(Long negocioId) {
+        NegocioIndexado anterior = porId.remove(negocioId);
+        if (anterior == null) {
+            return;
+        }
+        long chave = chave(indice(anterior.latitude()), indice(anterior.longitude()));
+        Map<Long, NegocioIndexado> celula = celulas.get(chave);
+        if (celula != null) {
+            celula.remove(negocioId);
+            if (celula.isEmpty()) {
+                celulas.remove(chave);
+            }
+        }
+    }
+
+    /**
+     * Compara a distancia do centro ao ponto mais proximo da celula com o raio.
+     */
+    private boolean celulaIntersectaCirculo(long i, long j, double lat, double lon, double raioKm) {
+        double latMin = i * tamanhoCelula;
+        double lonMin = j * tamanhoCelula;
+        double latMaisProxima = Math.max(latMin, Math.min(lat, latMin + tamanhoCelula));
+        double lonMaisProxima = Math.max(lonMin, Math.min(lon, lonMin + tamanhoCelula));
+        return GeoMath.distanciaKm(lat, lon, latMaisProxima, lonMaisProxima) < raioKm;
+    }
+
+    private long indice(double grau) {
+        return (long) Math.floor(grau / tamanhoCelula);
+    }
+
+    private static long chave(long i, long j) {
+        return (i << 32) | (j & 0xffffffffL);
+    }
+}
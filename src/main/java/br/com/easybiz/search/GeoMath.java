@@ -0,0 +1,47 @@
+package br.com.easybiz.search;
+
+/**
+ * Calculos geograficos usados pela busca (Haversine e bounding box).
+ */
+public final class GeoMath {
+
+    public static final double RAIO_TERRA_KM = 6371.0;
+
+    private static final double KM_POR_GRAU_LAT = 111.32;
+
+    private GeoMath() {
+    }
+
+    public static double distanciaKm(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * RAIO_TERRA_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Retangulo lat/lon que contem o circulo de raio {@code raioKm} em volta do ponto.
+     * Perto dos polos a longitude cobre o intervalo inteiro.
+     */
+    public static BoundingBox boundingBox(double lat, double lon, double raioKm) {
+        double deltaLat = raioKm / KM_POR_GRAU_LAT;
+        double cosLat = Math.cos(Math.toRadians(lat));
+        double deltaLon = cosLat > 1e-6 ? raioKm / (KM_POR_GRAU_LAT * cosLat) : 180.0;
+
+        return new BoundingBox(
+                Math.max(-90.0, lat - deltaLat),
+                Math.min(90.0, lat + deltaLat),
+                Math.max(-180.0, lon - Math.min(deltaLon, 180.0)),
+                Math.min(180.0, lon + Math.min(deltaLon, 180.0))
+        );
+    }
+
+    public record BoundingBox(double latMin, double latMax, double lonMin, double lonMax) {
+
+        public boolean contem(double lat, double lon) {
+            return lat >= latMin && lat <= latMax && lon >= lonMin && lon <= lonMax;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import br.com.easybiz.event.NegocioAlteradoEvent;
+import br.com.easybiz.repository.NegocioRepository;
+
+/**
+ * Faz a carga inicial dos {@link IndiceNegocios} e aplica as alteracoes depois do commit,
+ * invalidando em seguida as entradas afetadas do {@link BuscaCache}.
+ *
+ * Eventos que chegam durante a carga ficam na fila e sao reaplicados em ordem ao final,
+ * assim nenhum commit concorrente com o aquecimento se perde.
+ */
+@Component
+public class IndexacaoNegocios {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexacaoNegocios.class);
+
+    private final NegocioRepository negocioRepository;
+    private final List<IndiceNegocios> indices;
+    private final BuscaCache buscaCache;
+
+    private final List<NegocioAlteradoEvent> pendentes = new ArrayList<>();
+    private boolean carregado = false;
+
+    public IndexacaoNegocios(NegocioRepository negocioRepository, List<IndiceNegocios> indices,
+                             BuscaCache buscaCache) {
+        this.negocioRepository = negocioRepository;
+        this.indices = indices;
+        this.buscaCache = buscaCache;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void carregar() {
+        long inicio = System.currentTimeMillis();
+        List<NegocioIndexado> negocios = negocioRepository.listarPesquisaveis();
+
+        synchronized (this) {
+            indices.forEach(indice -> indice.reconstruir(negocios));
+            pendentes.forEach(this::aplicar);
+            pendentes.clear();
+            carregado = true;
+            buscaCache.limpar();
+        }
+
+        log.info("[BUSCA] Indices carregados com {} negocios em {} ms",
+                negocios.size(), System.currentTimeMillis() - inicio);
+    }
+
+    @TransactionalEventListener
+    public synchronized void onNegocioAlterado(NegocioAlteradoEvent event) {
+        if (!carregado) {
+            pendentes.add(event);
+            return;
+        }
+        aplicar(event);
+    }
+
+    private void aplicar(NegocioAlteradoEvent event) {
+        for (IndiceNegocios indice : indices) {
+            if (event.estadoAtual() == null) {
+                indice.remover(event.negocioId());
+            } else {
+                indice.atualizar(event.estadoAtual());
+            }
+        }
+        // Por ultimo: uma busca que recarregar o cache ja enxerga os indices atualizados
+        buscaCache.invalidar(event);
+    }
+}
@@ -0,0 +1,16 @@
+package br.com.easybiz.search;
+
+import java.util.Collection;
+
+/**
+ * Estrutura em memoria mantida em sincronia com a tabela {@code negocios}.
+ * A carga inicial e os eventos de alteracao sao distribuidos pelo {@link IndexacaoNegocios}.
+ */
+public interface IndiceNegocios {
+
+    void reconstruir(Collection<NegocioIndexado> negocios);
+
+    void atualizar(NegocioIndexado negocio);
+
+    void remover(Long negocioId);
+}
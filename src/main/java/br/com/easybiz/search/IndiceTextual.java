@@ -0,0 +1,296 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Indice invertido sobre nome, categoria (como digitada e a chave) e endereco dos negocios.
+ *
+ * Os termos passam pela mesma normalizacao do {@link CategoriaMatcher} (maiusculas, sem acento).
+ * Cada posting list e um array ordenado de ids internos densos, gravado como deltas em varint.
+ * As listas sao imutaveis: uma alteracao grava uma nova lista para cada termo afetado,
+ * entao as leituras nao precisam de lock.
+ */
+@Component
+public class IndiceTextual implements IndiceNegocios {
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "A", "O", "AS", "OS", "E", "DE", "DA", "DO", "DAS", "DOS",
+            "EM", "NA", "NO", "NAS", "NOS", "RUA", "AV", "AVENIDA"
+    );
+
+    private final Map<String, byte[]> postings = new ConcurrentHashMap<>();
+
+    // Ids internos (int) so crescem; o negocio mantem o seu enquanto estiver no indice
+    private final Map<Long, Integer> docPorNegocio = new HashMap<>();
+    private final Map<Integer, String[]> termosPorDoc = new HashMap<>();
+    private volatile long[] negocioPorDoc = new long[1024];
+    private int proximoDoc = 0;
+
+    private volatile boolean pronto = false;
+
+    public boolean isPronto() {
+        return pronto;
+    }
+
+    /**
+     * Termos pesquisaveis de um texto livre, sem stopwords e sem repeticao.
+     */
+    public static List<String> tokenizar(String texto) {
+        String normalizado = CategoriaMatcher.normalizar(texto);
+        if (normalizado.isEmpty()) {
+            return List.of();
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String token : normalizado.split(" ")) {
+            if (token.length() > 1 && !STOPWORDS.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    @Override
+    public synchronized void reconstruir(Collection<NegocioIndexado> negocios) {
+        postings.clear();
+        docPorNegocio.clear();
+        termosPorDoc.clear();
+        negocioPorDoc = new long[Math.max(1024, negocios.size())];
+        proximoDoc = 0;
+
+        // Carga em lote: monta as listas em memoria e comprime uma vez so
+        Map<String, List<Integer>> temporario = new HashMap<>();
+        for (NegocioIndexado negocio : negocios) {
+            int doc = novoDoc(negocio.id());
+            String[] termos = termosDe(negocio);
+            termosPorDoc.put(doc, termos);
+            for (String termo : termos) {
+                temporario.computeIfAbsent(termo, t -> new ArrayList<>()).add(doc);
+            }
+        }
+        temporario.forEach((termo, docs) ->
+                postings.put(termo, comprimir(docs.stream().mapToInt(Integer::intValue).toArray())));
+        pronto = true;
+    }
+
+    @Override
+    public synchronized void atualizar(NegocioIndexado negocio) {
+        Integer existente = docPorNegocio.get(negocio.id());
+        int doc = existente != null ? existente : novoDoc(negocio.id());
+
+        Set<String> antigos = new HashSet<>(Arrays.asList(termosPorDoc.getOrDefault(doc, new String[0])));
+        String[] novos = termosDe(negocio);
+        Set<String> novosSet = new HashSet<>(Arrays.asList(novos));
+
+        for (String termo : antigos) {
+            if (!novosSet.contains(termo)) {
+                retirarDoc(termo, doc);
+            }
+        }
+        for (String termo : novosSet) {
+            if (!antigos.contains(termo)) {
+                incluirDoc(termo, doc);
+            }
+        }
+        termosPorDoc.put(doc, novos);
+    }
+
+    @Override
+    public synchronized void remover(Long negocioId) {
+        Integer doc = docPorNegocio.remove(negocioId);
+        if (doc == null) {
+            return;
+        }
+        for (String termo : termosPorDoc.remove(doc)) {
+            retirarDoc(termo, doc);
+        }
+    }
+
+    /**
+     * Negocios que casam com todos os grupos; dentro de um grupo basta casar com um dos termos
+     * (ex.: {BARBEARIA, BARBEIRO} e {JOAO}).
+     */
+    public Set<Long> buscar(List<Set<String>> grupos) {
+        if (grupos.isEmpty()) {
+            return Set.of();
+        }
+
+        List<int[]> listas = new ArrayList<>(grupos.size());
+        for (Set<String> grupo : grupos) {
+            int[] uniao = uniao(grupo);
+            if (uniao.length == 0) {
+                return Set.of();
+            }
+            listas.add(uniao);
+        }
+
+        // Interseccao comecando pela lista mais curta
+        listas.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] resultado = listas.get(0);
+        for (int i = 1; i < listas.size() && resultado.length > 0; i++) {
+            resultado = intersecao(resultado, listas.get(i));
+        }
+
+        long[] negocios = negocioPorDoc;
+        Set<Long> ids = new HashSet<>(resultado.length * 2);
+        for (int doc : resultado) {
+            ids.add(negocios[doc]);
+        }
+        return ids;
+    }
+
+    /**
+     * A regra do {@link #buscar} aplicada a um negocio so, sem o indice: cada grupo precisa de um termo dele.
+     * Usada pela busca enquanto o indice aquece, sobre as linhas que ela ja trouxe do banco.
+     */
+    public static boolean casa(NegocioIndexado negocio, List<Set<String>> grupos) {
+        Set<String> termos = Set.of(termosDe(negocio));
+        return grupos.stream().allMatch(grupo -> grupo.stream().anyMatch(termos::contains));
+    }
+
+    private int[] uniao(Set<String> termos) {
+        int[] resultado = new int[0];
+        for (String termo : termos) {
+            byte[] lista = postings.get(termo);
+            if (lista != null) {
+                resultado = uniao(resultado, descomprimir(lista));
+            }
+        }
+        return resultado;
+    }
+
+    private int novoDoc(Long negocioId) {
+        int doc = proximoDoc++;
+        if (doc == negocioPorDoc.length) {
+            negocioPorDoc = Arrays.copyOf(negocioPorDoc, doc * 2);
+        }
+        negocioPorDoc[doc] = negocioId;
+        docPorNegocio.put(negocioId, doc);
+        return doc;
+    }
+
+    private void incluirDoc(String termo, int doc) {
+        byte[] atual = postings.get(termo);
+        int[] docs = atual == null ? new int[0] : descomprimir(atual);
+        postings.put(termo, comprimir(uniao(docs, new int[] { doc })));
+    }
+
+    private void retirarDoc(String termo, int doc) {
+        byte[] atual = postings.get(termo);
+        if (atual == null) {
+            return;
+        }
+        int[] docs = descomprimir(atual);
+        int pos = Arrays.binarySearch(docs, doc);
+        if (pos < 0) {
+            return;
+        }
+        if (docs.length == 1) {
+            postings.remove(termo);
+            return;
+        }
+        int[] restantes = new int[docs.length - 1];
+        System.arraycopy(docs, 0, restantes, 0, pos);
+        System.arraycopy(docs, pos + 1, restantes, pos, docs.length - pos - 1);
+        postings.put(termo, comprimir(restantes));
+    }
+
+    private static String[] termosDe(NegocioIndexado negocio) {
+        Set<String> termos = new LinkedHashSet<>();
+        termos.addAll(tokenizar(negocio.nome()));
+        termos.addAll(tokenizar(negocio.categoria()));
+        // E a chave: um erro de digitacao que resolve para PINTOR acha o negocio gravado como "Pintura"
+        termos.addAll(tokenizar(negocio.categoriaChave()));
+        termos.addAll(tokenizar(negocio.enderecoCompleto()));
+        return termos.toArray(new String[0]);
+    }
+
+    // ----- posting lists: deltas em varint (7 bits por byte) -----
+
+    static byte[] comprimir(int[] docsOrdenados) {
+        byte[] buffer = new byte[docsOrdenados.length * 5 + 5];
+        int pos = escreverVarint(buffer, 0, docsOrdenados.length);
+        int anterior = 0;
+        for (int doc : docsOrdenados) {
+            pos = escreverVarint(buffer, pos, doc - anterior);
+            anterior = doc;
+        }
+        return Arrays.copyOf(buffer, pos);
+    }
+
+    static int[] descomprimir(byte[] dados) {
+        int[] pos = { 0 };
+        int[] docs = new int[lerVarint(dados, pos)];
+        int anterior = 0;
+        for (int i = 0; i < docs.length; i++) {
+            anterior += lerVarint(dados, pos);
+            docs[i] = anterior;
+        }
+        return docs;
+    }
+
+    private static int escreverVarint(byte[] buffer, int pos, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            buffer[pos++] = (byte) ((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        buffer[pos++] = (byte) valor;
+        return pos;
+    }
+
+    private static int lerVarint(byte[] dados, int[] pos) {
+        int valor = 0;
+        int deslocamento = 0;
+        byte b;
+        do {
+            b = dados[pos[0]++];
+            valor |= (b & 0x7F) << deslocamento;
+            deslocamento += 7;
+        } while ((b & 0x80) != 0);
+        return valor;
+    }
+
+    private static int[] intersecao(int[] a, int[] b) {
+        int[] resultado = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                resultado[n++] = a[i];
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
+
+    private static int[] uniao(int[] a, int[] b) {
+        int[] resultado = new int[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                resultado[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                resultado[n++] = b[j++];
+            } else {
+                resultado[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(resultado, n);
+    }
+}
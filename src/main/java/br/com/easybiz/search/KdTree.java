@@ -0,0 +1,153 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * KD-tree imutavel em 3 dimensoes sobre a esfera unitaria.
+ *
+ * Cada ponto lat/lon vira um vetor (x, y, z); a distancia euclidiana (corda) cresce
+ * junto com a distancia de grande circulo, entao o vizinho mais proximo pela corda
+ * e o mais proximo pelo Haversine e a poda por eixo continua exata.
+ */
+final class KdTree {
+
+    private static final KdTree VAZIA = new KdTree(new NegocioIndexado[0], new double[0][]);
+
+    // Arvore implicita: o no da faixa [ini, fim) fica em (ini + fim) / 2
+    private final NegocioIndexado[] negocios;
+    private final double[][] pontos;
+
+    private KdTree(NegocioIndexado[] negocios, double[][] pontos) {
+        this.negocios = negocios;
+        this.pontos = pontos;
+    }
+
+    static KdTree construir(Collection<NegocioIndexado> origem) {
+        if (origem.isEmpty()) {
+            return VAZIA;
+        }
+        NegocioIndexado[] negocios = origem.toArray(new NegocioIndexado[0]);
+        double[][] pontos = new double[negocios.length][];
+        Integer[] ordem = new Integer[negocios.length];
+        for (int i = 0; i < negocios.length; i++) {
+            pontos[i] = paraVetor(negocios[i].latitude(), negocios[i].longitude());
+            ordem[i] = i;
+        }
+
+        organizar(ordem, pontos, 0, ordem.length, 0);
+
+        NegocioIndexado[] negociosOrdenados = new NegocioIndexado[negocios.length];
+        double[][] pontosOrdenados = new double[negocios.length][];
+        for (int i = 0; i < ordem.length; i++) {
+            negociosOrdenados[i] = negocios[ordem[i]];
+            pontosOrdenados[i] = pontos[ordem[i]];
+        }
+        return new KdTree(negociosOrdenados, pontosOrdenados);
+    }
+
+    int tamanho() {
+        return negocios.length;
+    }
+
+    /**
+     * Os {@code k} negocios mais proximos, do mais perto para o mais longe.
+     */
+    List<NegocioProximo> maisProximos(double lat, double lon, int k) {
+        if (negocios.length == 0 || k <= 0) {
+            return List.of();
+        }
+        double[] alvo = paraVetor(lat, lon);
+
+        // Max-heap pela distancia: o topo e o pior dos k melhores encontrados ate agora
+        PriorityQueue<Candidato> melhores = new PriorityQueue<>(
+                Comparator.comparingDouble(Candidato::distancia2).reversed());
+        buscar(alvo, 0, negocios.length, 0, k, melhores);
+
+        List<NegocioProximo> resultado = new ArrayList<>(melhores.size());
+        while (!melhores.isEmpty()) {
+            Candidato c = melhores.poll();
+            resultado.add(new NegocioProximo(negocios[c.indice()], cordaParaKm(Math.sqrt(c.distancia2()))));
+        }
+        Collections.reverse(resultado);
+        return resultado;
+    }
+
+    /**
+     * Distancia em km de um negocio fora da arvore, na mesma medida de {@link #maisProximos}.
+     */
+    static double distanciaKm(double lat, double lon, NegocioIndexado negocio) {
+        double[] alvo = paraVetor(lat, lon);
+        double[] ponto = paraVetor(negocio.latitude(), negocio.longitude());
+        return cordaParaKm(Math.sqrt(distancia2(alvo, ponto)));
+    }
+
+    private void buscar(double[] alvo, int ini, int fim, int eixo, int k, PriorityQueue<Candidato> melhores) {
+        if (ini >= fim) {
+            return;
+        }
+        int meio = (ini + fim) >>> 1;
+        double[] ponto = pontos[meio];
+
+        double d2 = distancia2(alvo, ponto);
+        if (melhores.size() < k) {
+            melhores.add(new Candidato(meio, d2));
+        } else if (d2 < melhores.peek().distancia2()) {
+            melhores.poll();
+            melhores.add(new Candidato(meio, d2));
+        }
+
+        double delta = alvo[eixo] - ponto[eixo];
+        int proximoEixo = (eixo + 1) % 3;
+
+        // Desce primeiro no lado do alvo; o outro lado so e visitado se o plano de corte
+        // estiver mais perto que o pior candidato atual
+        if (delta < 0) {
+            buscar(alvo, ini, meio, proximoEixo, k, melhores);
+            if (melhores.size() < k || delta * delta < melhores.peek().distancia2()) {
+                buscar(alvo, meio + 1, fim, proximoEixo, k, melhores);
+            }
+        } else {
+            buscar(alvo, meio + 1, fim, proximoEixo, k, melhores);
+            if (melhores.size() < k || delta * delta < melhores.peek().distancia2()) {
+                buscar(alvo, ini, meio, proximoEixo, k, melhores);
+            }
+        }
+    }
+
+    private static void organizar(Integer[] ordem, double[][] pontos, int ini, int fim, int eixo) {
+        if (fim - ini <= 1) {
+            return;
+        }
+        Arrays.sort(ordem, ini, fim, Comparator.comparingDouble(i -> pontos[i][eixo]));
+        int meio = (ini + fim) >>> 1;
+        int proximoEixo = (eixo + 1) % 3;
+        organizar(ordem, pontos, ini, meio, proximoEixo);
+        organizar(ordem, pontos, meio + 1, fim, proximoEixo);
+    }
+
+    private static double[] paraVetor(double lat, double lon) {
+        double phi = Math.toRadians(lat);
+        double lambda = Math.toRadians(lon);
+        double cosPhi = Math.cos(phi);
+        return new double[] { cosPhi * Math.cos(lambda), cosPhi * Math.sin(lambda), Math.sin(phi) };
+    }
+
+    private static double distancia2(double[] a, double[] b) {
+        double dx = a[0] - b[0];
+        double dy = a[1] - b[1];
+        double dz = a[2] - b[2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    private static double cordaParaKm(double corda) {
+        return 2 * GeoMath.RAIO_TERRA_KM * Math.asin(Math.min(1.0, corda / 2));
+    }
+
+    private record Candidato(int indice, double distancia2) {}
+}
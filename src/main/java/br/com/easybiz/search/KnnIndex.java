@@ -0,0 +1,161 @@
+package br.com.easybiz.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Uma {@link KdTree} por categoria para consultas "os k mais proximos".
+ *
+ * A arvore e imutavel, entao as alteracoes nao a reconstroem na hora: o negocio novo (ou a versao nova
+ * de um alterado) vai para uma lista de recentes, percorrida por completo em cada consulta, e a
+ * entrada antiga na arvore vira lapide, descartada do resultado (a arvore e consultada com
+ * {@code k + lapides}). Quando recentes e lapides passam de 1/8 da arvore (minimo de
+ * {@value #ALTERACOES_MINIMAS}), a categoria e reconstruida na proxima consulta, sem tocar nas demais.
+ */
+@Component
+public class KnnIndex implements IndiceNegocios {
+
+    static final int ALTERACOES_MINIMAS = 32;
+
+    private final Map<String, Categoria> categorias = new ConcurrentHashMap<>();
+    private final Map<Long, String> categoriaPorNegocio = new ConcurrentHashMap<>();
+
+    private volatile boolean pronto = false;
+
+    public boolean isPronto() {
+        return pronto;
+    }
+
+    @Override
+    public synchronized void reconstruir(Collection<NegocioIndexado> negocios) {
+        categorias.clear();
+        categoriaPorNegocio.clear();
+        negocios.forEach(this::inserir);
+        pronto = true;
+    }
+
+    @Override
+    public synchronized void atualizar(NegocioIndexado negocio) {
+        removerInterno(negocio.id());
+        inserir(negocio);
+    }
+
+    @Override
+    public synchronized void remover(Long negocioId) {
+        removerInterno(negocioId);
+    }
+
+    /**
+     * Os {@code k} negocios mais proximos da categoria (ou de todas, se {@code categoria} for nula),
+     * do mais perto para o mais longe.
+     */
+    public List<NegocioProximo> buscarMaisProximos(double lat, double lon, int k, String categoria) {
+        if (categoria != null) {
+            Categoria arvoreCategoria = categorias.get(chaveCategoria(categoria));
+            return arvoreCategoria == null ? List.of() : arvoreCategoria.maisProximos(lat, lon, k);
+        }
+
+        List<NegocioProximo> candidatos = new ArrayList<>();
+        categorias.values().forEach(c -> candidatos.addAll(c.maisProximos(lat, lon, k)));
+        return maisPertoPrimeiro(candidatos, k);
+    }
+
+    private static List<NegocioProximo> maisPertoPrimeiro(List<NegocioProximo> candidatos, int k) {
+        return candidatos.stream()
+                .sorted(Comparator.comparingDouble(NegocioProximo::distanciaKm))
+                .limit(k)
+                .toList();
+    }
+
+    private void inserir(NegocioIndexado negocio) {
+        String chave = chaveCategoria(negocio.categoriaChave());
+        categorias.computeIfAbsent(chave, c -> new Categoria()).colocar(negocio);
+        categoriaPorNegocio.put(negocio.id(), chave);
+    }
+
+    private void removerInterno(Long negocioId) {
+        String chave = categoriaPorNegocio.remove(negocioId);
+        if (chave == null) {
+            return;
+        }
+        Categoria categoria = categorias.get(chave);
+        if (categoria != null && categoria.retirar(negocioId)) {
+            categorias.remove(chave);
+        }
+    }
+
+    private static String chaveCategoria(String categoria) {
+        return categoria == null ? "" : categoria.toUpperCase();
+    }
+
+    private static final class Categoria {
+
+        private final Map<Long, NegocioIndexado> negocios = new HashMap<>();
+        private KdTree arvore;
+        private Set<Long> naArvore = Set.of();
+        // Fora da arvore (novos ou versao nova de um que esta nela) e entradas da arvore ja invalidas
+        private final Map<Long, NegocioIndexado> recentes = new HashMap<>();
+        private final Set<Long> lapides = new HashSet<>();
+
+        synchronized void colocar(NegocioIndexado negocio) {
+            negocios.put(negocio.id(), negocio);
+            if (arvore != null) {
+                recentes.put(negocio.id(), negocio);
+                invalidarNaArvore(negocio.id());
+            }
+        }
+
+        /** Retorna true quando a categoria ficou vazia. */
+        synchronized boolean retirar(Long negocioId) {
+            negocios.remove(negocioId);
+            if (arvore != null) {
+                recentes.remove(negocioId);
+                invalidarNaArvore(negocioId);
+            }
+            return negocios.isEmpty();
+        }
+
+        synchronized List<NegocioProximo> maisProximos(double lat, double lon, int k) {
+            if (arvore == null) {
+                arvore = KdTree.construir(negocios.values());
+                naArvore = new HashSet<>(negocios.keySet());
+                recentes.clear();
+                lapides.clear();
+            }
+            if (recentes.isEmpty() && lapides.isEmpty()) {
+                return arvore.maisProximos(lat, lon, k);
+            }
+
+            // Com no maximo lapides.size() descartadas, sobram ao menos k validas (se houver)
+            List<NegocioProximo> candidatos = new ArrayList<>(k + recentes.size());
+            for (NegocioProximo proximo : arvore.maisProximos(lat, lon, k + lapides.size())) {
+                if (!lapides.contains(proximo.negocio().id())) {
+                    candidatos.add(proximo);
+                }
+            }
+            for (NegocioIndexado negocio : recentes.values()) {
+                candidatos.add(new NegocioProximo(negocio, KdTree.distanciaKm(lat, lon, negocio)));
+            }
+            return maisPertoPrimeiro(candidatos, k);
+        }
+
+        private void invalidarNaArvore(Long negocioId) {
+            if (naArvore.contains(negocioId)) {
+                lapides.add(negocioId);
+            }
+            if (recentes.size() + lapides.size() > Math.max(ALTERACOES_MINIMAS, naArvore.size() / 8)) {
+                // Reconstroi na proxima consulta
+                arvore = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package br.com.easybiz.search;
+
+import java.time.LocalDateTime;
+
+import br.com.easybiz.model.Negocio;
+
+/**
+ * Copia imutavel dos campos de um {@link Negocio} que os indices em memoria precisam.
+ */
+public record NegocioIndexado(
+        Long id,
+        String nome,
+        String categoria,
+        String categoriaChave,
+        Double latitude,
+        Double longitude,
+        Double notaMedia,
+        String enderecoCompleto,
+        Integer totalAvaliacoes,
+        LocalDateTime criadoEm
+) {
+    public static NegocioIndexado fromEntity(Negocio negocio) {
+        return new NegocioIndexado(
+                negocio.getId(),
+                negocio.getNome(),
+                negocio.getCategoria(),
+                negocio.getCategoriaChave(),
+                negocio.getLatitude(),
+                negocio.getLongitude(),
+                negocio.getNotaMedia(),
+                negocio.getEnderecoCompleto(),
+                negocio.getTotalAvaliacoes(),
+                negocio.getCriadoEm()
+        );
+    }
+
+    /**
+     * Apenas negocios ativos e com coordenadas entram na busca.
+     */
+    public static boolean indexavel(Negocio negocio) {
+        return Boolean.TRUE.equals(negocio.getAtivo())
+                && negocio.getLatitude() != null
+                && negocio.getLongitude() != null;
+    }
+}
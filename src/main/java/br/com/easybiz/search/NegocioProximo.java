@@ -0,0 +1,9 @@
+package br.com.easybiz.search;
+
+/**
+ * Negocio encontrado por uma busca geografica, com a distancia ate o ponto de origem.
+ */
+public record NegocioProximo(
+        NegocioIndexado negocio,
+        double distanciaKm
+) {}
@@ -0,0 +1,10 @@
+package br.com.easybiz.search;
+
+/**
+ * Candidato da busca ja pontuado pelo {@link RankingBusca}.
+ */
+public record NegocioRanqueado(
+        NegocioIndexado negocio,
+        double distanciaKm,
+        double score
+) {}
@@ -0,0 +1,116 @@
+package br.com.easybiz.search;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pontua os candidatos da busca combinando distancia, nota media, quantidade de avaliacoes e recencia.
+ *
+ * Cada componente fica em [0, 1] e o score e a soma ponderada pelos pesos de {@code app.busca.ranking.*}.
+ * Apenas os N melhores depois do cursor sao mantidos, num heap de tamanho fixo; os candidatos
+ * nunca sao ordenados por inteiro.
+ */
+@Component
+public class RankingBusca {
+
+    private static final double NOTA_MAXIMA = 5.0;
+
+    // Ordem do heap: o pior (menor score, depois menor id) fica no topo para ser descartado
+    private static final Comparator<NegocioRanqueado> PIOR_PRIMEIRO = Comparator
+            .comparingDouble(NegocioRanqueado::score)
+            .thenComparingLong(r -> r.negocio().id());
+
+    private final double pesoDistancia;
+    private final double pesoNota;
+    private final double pesoAvaliacoes;
+    private final double pesoRecencia;
+    private final double logAvaliacoesReferencia;
+    private final double meiaVidaDias;
+
+    public RankingBusca(
+            @Value("${app.busca.ranking.peso-distancia:0.4}") double pesoDistancia,
+            @Value("${app.busca.ranking.peso-nota:0.35}") double pesoNota,
+            @Value("${app.busca.ranking.peso-avaliacoes:0.15}") double pesoAvaliacoes,
+            @Value("${app.busca.ranking.peso-recencia:0.1}") double pesoRecencia,
+            @Value("${app.busca.ranking.avaliacoes-referencia:50}") int avaliacoesReferencia,
+            @Value("${app.busca.ranking.meia-vida-recencia-dias:90}") double meiaVidaDias
+    ) {
+        if (pesoDistancia < 0 || pesoNota < 0 || pesoAvaliacoes < 0 || pesoRecencia < 0) {
+            throw new IllegalStateException("app.busca.ranking.peso-* nao pode ser negativo");
+        }
+        if (avaliacoesReferencia <= 0 || meiaVidaDias <= 0) {
+            throw new IllegalStateException("app.busca.ranking: referencia de avaliacoes e meia-vida devem ser positivas");
+        }
+        this.pesoDistancia = pesoDistancia;
+        this.pesoNota = pesoNota;
+        this.pesoAvaliacoes = pesoAvaliacoes;
+        this.pesoRecencia = pesoRecencia;
+        this.logAvaliacoesReferencia = Math.log1p(avaliacoesReferencia);
+        this.meiaVidaDias = meiaVidaDias;
+    }
+
+    /**
+     * Os {@code n} candidatos de maior score que vem depois de {@code cursor}, em ordem (score DESC, id DESC).
+     * Candidatos fora do raio sao ignorados.
+     */
+    public List<NegocioRanqueado> melhores(Iterable<NegocioIndexado> candidatos, double lat, double lon,
+                                           double raioKm, CursorBusca cursor, int n) {
+        // A idade e contada em dias inteiros: o score nao muda entre paginas do mesmo dia
+        LocalDate hoje = LocalDate.now();
+        PriorityQueue<NegocioRanqueado> heap = new PriorityQueue<>(n + 1, PIOR_PRIMEIRO);
+
+        for (NegocioIndexado negocio : candidatos) {
+            double distancia = GeoMath.distanciaKm(lat, lon, negocio.latitude(), negocio.longitude());
+            if (distancia >= raioKm) {
+                continue;
+            }
+            double score = score(negocio, distancia, raioKm, hoje);
+            if (!cursor.antecede(score, negocio.id())) {
+                continue;
+            }
+            NegocioRanqueado ranqueado = new NegocioRanqueado(negocio, distancia, score);
+            if (heap.size() < n) {
+                heap.add(ranqueado);
+            } else if (PIOR_PRIMEIRO.compare(ranqueado, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(ranqueado);
+            }
+        }
+
+        NegocioRanqueado[] resultado = new NegocioRanqueado[heap.size()];
+        for (int i = resultado.length - 1; i >= 0; i--) {
+            resultado[i] = heap.poll();
+        }
+        return Arrays.asList(resultado);
+    }
+
+    double score(NegocioIndexado negocio, double distanciaKm, double raioKm, LocalDate hoje) {
+        double proximidade = Math.max(0.0, 1.0 - distanciaKm / raioKm);
+
+        double nota = negocio.notaMedia() != null ? negocio.notaMedia() : 0.0;
+        double qualidade = Math.min(1.0, nota / NOTA_MAXIMA);
+
+        int total = negocio.totalAvaliacoes() != null ? negocio.totalAvaliacoes() : 0;
+        double volume = Math.min(1.0, Math.log1p(total) / logAvaliacoesReferencia);
+
+        double recencia = 0.0;
+        LocalDateTime criadoEm = negocio.criadoEm();
+        if (criadoEm != null) {
+            long idadeDias = Math.max(0, ChronoUnit.DAYS.between(criadoEm.toLocalDate(), hoje));
+            recencia = Math.pow(0.5, idadeDias / meiaVidaDias);
+        }
+
+        return pesoDistancia * proximidade
+                + pesoNota * qualidade
+                + pesoAvaliacoes * volume
+                + pesoRecencia * recencia;
+    }
+}
@@ -2,7 +2,6 @@ package br.com.easybiz.security;
 
 import java.io.IOException;
 import java.util.Collections;
-import java.util.List;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
@@ -34,18 +33,16 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         if (header != null && header.startsWith("Bearer ")) {
             String token = header.substring(7);
 
-            if (jwtService.tokenValido(token)) {
-                String emailUsuario = jwtService.extractUsername(token);
-
+            jwtService.autenticar(token).ifPresent(usuario -> {
                 UsernamePasswordAuthenticationToken auth =
                         new UsernamePasswordAuthenticationToken(
-                                emailUsuario,
+                                usuario,
                                 null,
                                 Collections.emptyList()
                         );
 
                 SecurityContextHolder.getContext().setAuthentication(auth);
-            }
+            });
         }
 
         filterChain.doFilter(request, response);
@@ -2,25 +2,38 @@ package br.com.easybiz.security;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
+import java.util.Optional;
 
 import javax.crypto.SecretKey;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
 
 @Service
 public class JwtService {
 
+    static final String CLAIM_USUARIO_ID = "uid";
+
     private final SecretKey key;
     private final long expiration;
 
+    // Imutavel e thread-safe: montado uma vez, reaproveitado em todas as requisicoes
+    private final JwtParser parser;
+    private final TokensVerificadosCache cache;
+
     public JwtService(
         @Value("${api.security.token.secret}") String secret,
-        @Value("${api.security.token.expiration}") long expiration
+        @Value("${api.security.token.expiration}") long expiration,
+        @Value("${api.security.token.cache.max-entradas:10000}") int maxTokensEmCache,
+        MeterRegistry meterRegistry
     ) {
         if (secret == null || secret.length() < 32) {
             throw new IllegalStateException(
@@ -29,36 +42,54 @@ public class JwtService {
         }
         this.key = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
         this.expiration = expiration;
+        this.parser = Jwts.parser().verifyWith(key).build();
+        this.cache = new TokensVerificadosCache(maxTokensEmCache, meterRegistry);
     }
 
-    public String gerarToken(String email) {
+    public String gerarToken(Long usuarioId, String email) {
         return Jwts.builder()
                 .subject(email)
+                .claim(CLAIM_USUARIO_ID, usuarioId)
                 .issuedAt(new Date())
                 .expiration(new Date(System.currentTimeMillis() + expiration))
                 .signWith(key)
                 .compact();
     }
 
-    public String extractUsername(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(key)
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-
-        return claims.getSubject();
+    /**
+     * Verifica assinatura e expiracao e devolve as claims.
+     *
+     * Um token ja verificado e servido do cache ate o seu {@code exp}, sem refazer o HMAC.
+     *
+     * @throws JwtException se o token for invalido ou estiver expirado
+     */
+    public Claims validateAndParse(String token) {
+        Claims emCache = cache.buscar(token);
+        if (emCache != null) {
+            return emCache;
+        }
+        Claims claims = parser.parseSignedClaims(token).getPayload();
+        if (claims.getExpiration() != null) {
+            cache.guardar(token, claims, claims.getExpiration().getTime());
+        }
+        return claims;
     }
 
-    public boolean tokenValido(String token) {
+    /**
+     * Valida o token e devolve o usuario (id + email) em uma unica leitura, ou vazio se for invalido.
+     */
+    public Optional<UsuarioAutenticado> autenticar(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(key)
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (Exception e) {
-            return false;
+            Claims claims = validateAndParse(token);
+            Number uid = claims.get(CLAIM_USUARIO_ID, Number.class);
+            return Optional.of(new UsuarioAutenticado(uid != null ? uid.longValue() : null, claims.getSubject()));
+        } catch (JwtException | IllegalArgumentException e) {
+            return Optional.empty();
         }
     }
-}
\ No newline at end of file
+
+    @Scheduled(fixedRate = 60_000)
+    public void removerTokensExpirados() {
+        cache.removerExpirados();
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.easybiz.security;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.jsonwebtoken.Claims;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Tokens cuja assinatura ja foi verificada, ate o {@code exp} de cada um.
+ *
+ * A chave e o SHA-256 do token, entao o token em si nao fica guardado. Sem lock na leitura;
+ * quando o limite e atingido os expirados sao removidos e, se ainda estiver cheio,
+ * o token novo simplesmente nao entra (sera verificado de novo na proxima requisicao).
+ */
+class TokensVerificadosCache {
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxEntradas;
+    private final Map<Digest, Entrada> entradas = new ConcurrentHashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    TokensVerificadosCache(int maxEntradas, MeterRegistry meterRegistry) {
+        this.maxEntradas = maxEntradas;
+        this.hits = meterRegistry.counter("easybiz.jwt.cache", "resultado", "hit");
+        this.misses = meterRegistry.counter("easybiz.jwt.cache", "resultado", "miss");
+        meterRegistry.gauge("easybiz.jwt.cache.tamanho", entradas, Map::size);
+    }
+
+    Claims buscar(String token) {
+        if (maxEntradas <= 0) {
+            return null;
+        }
+        Digest digest = Digest.de(token);
+        Entrada entrada = entradas.get(digest);
+        if (entrada == null) {
+            misses.increment();
+            return null;
+        }
+        if (entrada.expiraEm <= System.currentTimeMillis()) {
+            // Expirado: o parser recusa e gera o erro adequado
+            entradas.remove(digest, entrada);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entrada.claims;
+    }
+
+    void guardar(String token, Claims claims, long expiraEm) {
+        if (maxEntradas <= 0) {
+            return;
+        }
+        if (entradas.size() >= maxEntradas) {
+            removerExpirados();
+            if (entradas.size() >= maxEntradas) {
+                return;
+            }
+        }
+        entradas.put(Digest.de(token), new Entrada(claims, expiraEm));
+    }
+
+    void removerExpirados() {
+        long agora = System.currentTimeMillis();
+        entradas.values().removeIf(e -> e.expiraEm <= agora);
+    }
+
+    private record Entrada(Claims claims, long expiraEm) {}
+
+    private record Digest(long a, long b, long c, long d) {
+
+        static Digest de(String token) {
+            byte[] hash = SHA256.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+            ByteBuffer buffer = ByteBuffer.wrap(hash);
+            return new Digest(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong());
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package br.com.easybiz.security;
+
+import java.security.Principal;
+
+/**
+ * Principal colocado no contexto de seguranca (HTTP e STOMP) a partir do JWT.
+ * {@link #getName()} continua sendo o email, como antes; o id vem da claim {@code uid}.
+ * Tokens emitidos antes da claim existir trazem {@code id} nulo.
+ */
+public record UsuarioAutenticado(Long id, String email) implements Principal {
+
+    @Override
+    public String getName() {
+        return email;
+    }
+}
@@ -13,15 +13,19 @@ import org.springframework.messaging.support.MessageHeaderAccessor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.stereotype.Component;
 
+import br.com.easybiz.chat.AssinaturasAutorizadas;
+
 @Component
 public class WebSocketJwtInterceptor implements ChannelInterceptor {
 
     private static final Logger log = LoggerFactory.getLogger(WebSocketJwtInterceptor.class);
 
     private final JwtService jwtService;
+    private final AssinaturasAutorizadas assinaturas;
 
-    public WebSocketJwtInterceptor(JwtService jwtService) {
+    public WebSocketJwtInterceptor(JwtService jwtService, AssinaturasAutorizadas assinaturas) {
         this.jwtService = jwtService;
+        this.assinaturas = assinaturas;
     }
 
     @Override
@@ -36,14 +40,14 @@ public class WebSocketJwtInterceptor implements ChannelInterceptor {
             if (authHeader != null && authHeader.startsWith("Bearer ")) {
                 String token = authHeader.substring(7);
 
-                if (jwtService.tokenValido(token)) {
-                    String email = jwtService.extractUsername(token);
+                UsuarioAutenticado usuario = jwtService.autenticar(token).orElse(null);
 
+                if (usuario != null) {
                     UsernamePasswordAuthenticationToken authentication =
-                            new UsernamePasswordAuthenticationToken(email, null, Collections.emptyList());
+                            new UsernamePasswordAuthenticationToken(usuario, null, Collections.emptyList());
 
                     accessor.setUser(authentication);
-                    log.info("[WS] Conexao autenticada para: {}", email);
+                    log.info("[WS] Conexao autenticada para: {}", usuario.email());
 
                 } else {
                     log.warn("[WS] Token invalido ou expirado. Conexao recusada.");
@@ -53,6 +57,9 @@ public class WebSocketJwtInterceptor implements ChannelInterceptor {
                 log.warn("[WS] Cabecalho Authorization ausente. Conexao recusada.");
                 return null;
             }
+        } else if (StompCommand.SUBSCRIBE.equals(accessor.getCommand())) {
+            // Recusa com ForbiddenException: o cliente recebe um frame ERROR
+            assinaturas.verificar(accessor.getSessionId(), accessor.getUser(), accessor.getDestination());
         }
         return message;
     }
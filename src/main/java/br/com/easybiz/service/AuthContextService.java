@@ -1,10 +1,14 @@
 package br.com.easybiz.service;
 
+import java.security.Principal;
+
+import org.springframework.security.core.Authentication;
 import org.springframework.stereotype.Service;
 
 import br.com.easybiz.exception.ResourceNotFoundException;
 import br.com.easybiz.model.Usuario;
 import br.com.easybiz.repository.UsuarioRepository;
+import br.com.easybiz.security.UsuarioAutenticado;
 
 @Service
 public class AuthContextService {
@@ -15,6 +19,18 @@ public class AuthContextService {
         this.usuarioRepository = usuarioRepository;
     }
 
+    /**
+     * Id do usuario autenticado, lido do principal montado a partir do JWT (sem consulta ao banco).
+     * Tokens antigos, sem a claim {@code uid}, caem na busca por email.
+     */
+    public Long getUsuarioId(Principal principal) {
+        Object usuario = principal instanceof Authentication auth ? auth.getPrincipal() : principal;
+        if (usuario instanceof UsuarioAutenticado autenticado && autenticado.id() != null) {
+            return autenticado.id();
+        }
+        return getUsuarioIdByEmail(principal.getName());
+    }
+
     public Long getUsuarioIdByEmail(String email) {
         return usuarioRepository.findByEmail(email)
                 .map(Usuario::getId)
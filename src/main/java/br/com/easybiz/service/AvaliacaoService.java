@@ -1,9 +1,11 @@
 package br.com.easybiz.service;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import br.com.easybiz.dto.AvaliacaoDTO;
 import br.com.easybiz.dto.AvaliacaoResponseDTO;
+import br.com.easybiz.event.NegocioAlteradoEvent;
 import br.com.easybiz.exception.BusinessException;
 import br.com.easybiz.exception.ForbiddenException;
 import br.com.easybiz.exception.ResourceNotFoundException;
@@ -23,14 +25,17 @@ public class AvaliacaoService {
     private final AvaliacaoRepository avaliacaoRepository;
     private final PedidoServicoRepository pedidoRepository;
     private final NegocioRepository negocioRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     public AvaliacaoService(
             AvaliacaoRepository avaliacaoRepository,
             PedidoServicoRepository pedidoRepository,
-            NegocioRepository negocioRepository) {
+            NegocioRepository negocioRepository,
+            ApplicationEventPublisher eventPublisher) {
         this.avaliacaoRepository = avaliacaoRepository;
         this.pedidoRepository = pedidoRepository;
         this.negocioRepository = negocioRepository;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
@@ -73,6 +78,9 @@ public class AvaliacaoService {
     private void atualizarNotaMediaNegocio(Negocio negocio) {
         Double novaMedia = avaliacaoRepository.calcularMediaDoNegocio(negocio.getId());
         negocio.setNotaMedia(novaMedia != null ? novaMedia : 0.0);
+        negocio.setTotalAvaliacoes((int) avaliacaoRepository.contarDoNegocio(negocio.getId()));
         negocioRepository.save(negocio);
+        // nota_media e total_avaliacoes fazem parte do ranking da busca em memoria
+        eventPublisher.publishEvent(NegocioAlteradoEvent.de(negocio));
     }
 }
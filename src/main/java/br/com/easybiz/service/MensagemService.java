@@ -1,19 +1,36 @@
 package br.com.easybiz.service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import br.com.easybiz.chat.ContadoresNaoLidas;
+import br.com.easybiz.chat.HistoricoRecenteCache;
+import br.com.easybiz.chat.MensagemBroadcaster;
+import br.com.easybiz.chat.MensagemWriteBehind;
+import br.com.easybiz.chat.ParticipantesPedidoCache;
+import br.com.easybiz.chat.RemetentesCache;
+import br.com.easybiz.chat.RemetentesCache.Remetente;
+import br.com.easybiz.chat.ParticipantesPedidoCache.Participantes;
+import br.com.easybiz.dto.ConversaDTO;
+import br.com.easybiz.dto.HistoricoMensagensDTO;
+import br.com.easybiz.dto.LeituraDTO;
 import br.com.easybiz.dto.MensagemResponseDTO;
-import br.com.easybiz.dto.UltimoVistoDTO;
+import br.com.easybiz.event.MensagemEnviadaEvent;
+import br.com.easybiz.event.MensagensLidasEvent;
 import br.com.easybiz.exception.BusinessException;
 import br.com.easybiz.exception.ForbiddenException;
 import br.com.easybiz.exception.ResourceNotFoundException;
 import br.com.easybiz.model.Mensagem;
-import br.com.easybiz.model.PedidoServico;
 import br.com.easybiz.model.Usuario;
+import br.com.easybiz.repository.ContadorNaoLidasRepository;
 import br.com.easybiz.repository.MensagemRepository;
 import br.com.easybiz.repository.PedidoServicoRepository;
 import br.com.easybiz.repository.UsuarioRepository;
@@ -24,116 +41,230 @@ public class MensagemService {
     private final MensagemRepository mensagemRepository;
     private final PedidoServicoRepository pedidoServicoRepository;
     private final UsuarioRepository usuarioRepository;
+    private final ParticipantesPedidoCache participantesPedido;
+    private final RemetentesCache remetentes;
+    private final MensagemWriteBehind writeBehind;
+    private final ContadoresNaoLidas contadores;
+    private final ContadorNaoLidasRepository contadorRepository;
+    private final HistoricoRecenteCache historicoRecente;
+    private final ApplicationEventPublisher eventPublisher;
 
     public MensagemService(
             MensagemRepository mensagemRepository,
             PedidoServicoRepository pedidoServicoRepository,
-            UsuarioRepository usuarioRepository
+            UsuarioRepository usuarioRepository,
+            ParticipantesPedidoCache participantesPedido,
+            RemetentesCache remetentes,
+            MensagemWriteBehind writeBehind,
+            ContadoresNaoLidas contadores,
+            ContadorNaoLidasRepository contadorRepository,
+            HistoricoRecenteCache historicoRecente,
+            ApplicationEventPublisher eventPublisher
     ) {
         this.mensagemRepository = mensagemRepository;
         this.pedidoServicoRepository = pedidoServicoRepository;
         this.usuarioRepository = usuarioRepository;
+        this.participantesPedido = participantesPedido;
+        this.remetentes = remetentes;
+        this.writeBehind = writeBehind;
+        this.contadores = contadores;
+        this.contadorRepository = contadorRepository;
+        this.historicoRecente = historicoRecente;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
-    public MensagemResponseDTO enviarMensagem(Long pedidoId, String emailRemetente, String conteudo) {
-        PedidoServico pedido = buscarPedido(pedidoId);
-        Usuario remetente = buscarUsuarioPorEmail(emailRemetente);
+    public MensagemResponseDTO enviarMensagem(Long pedidoId, Long remetenteId, String conteudo) {
+        return gravarMensagem(pedidoId, remetenteId, conteudo, MensagemEnviadaEvent.CANAL_REST, System.nanoTime());
+    }
+
+    /**
+     * Envio pelo WebSocket. Com o write-behind ligado, a mensagem ganha id na hora e e devolvida para
+     * publicacao antes de ser gravada (ver {@link MensagemWriteBehind}); sem ele, igual a {@link #enviarMensagem}.
+     * No write-behind o unico acesso ao banco no envio e o {@code nextval} do id: participantes e remetente vem
+     * de cache ({@link ParticipantesPedidoCache}, {@link RemetentesCache}).
+     *
+     * Nos dois casos o broadcast em {@code /topic/mensagens/{pedidoId}} sai depois do commit,
+     * pelo {@link MensagemBroadcaster}.
+     */
+    @Transactional
+    public MensagemResponseDTO enviarMensagemTempoReal(Long pedidoId, Long remetenteId, String conteudo) {
+        long recebidaEm = System.nanoTime();
+        if (!writeBehind.isAtivo()) {
+            return gravarMensagem(pedidoId, remetenteId, conteudo, MensagemEnviadaEvent.CANAL_WEBSOCKET, recebidaEm);
+        }
+
+        Participantes participantes = validarParticipantePedido(pedidoId, remetenteId);
+        Remetente remetente = remetentes.buscar(remetenteId);
+
+        MensagemResponseDTO mensagem = new MensagemResponseDTO(
+                writeBehind.proximoId(),
+                pedidoId,
+                remetenteId,
+                remetente.nome(),
+                conteudo,
+                LocalDateTime.now(),
+                false,
+                null,
+                remetente.fotoUrl()
+        );
+        boolean gravada = writeBehind.gravar(mensagem, participantes.outro(remetenteId));
+        eventPublisher.publishEvent(new MensagemEnviadaEvent(mensagem, MensagemEnviadaEvent.CANAL_WEBSOCKET, recebidaEm, gravada));
+
+        return mensagem;
+    }
 
-        validarParticipantePedido(pedido, remetente.getId());
+    private MensagemResponseDTO gravarMensagem(Long pedidoId, Long remetenteId, String conteudo,
+                                               String canal, long recebidaEm) {
+        Participantes participantes = validarParticipantePedido(pedidoId, remetenteId);
+        Usuario remetente = buscarUsuario(remetenteId);
 
         Mensagem mensagem = new Mensagem();
-        mensagem.setPedidoServico(pedido);
+        // Referencia sem SELECT: a existencia do pedido ja foi confirmada acima
+        mensagem.setPedidoServico(pedidoServicoRepository.getReferenceById(pedidoId));
         mensagem.setRemetente(remetente);
         mensagem.setConteudo(conteudo);
         mensagem.setEnviadoEm(LocalDateTime.now());
         mensagem.setLida(false);
 
         Mensagem salva = mensagemRepository.save(mensagem);
+        contadores.registrarEnvio(pedidoId, participantes.outro(remetenteId), 1, salva.getId(), salva.getEnviadoEm());
 
-        return toResponseDTO(salva);
+        MensagemResponseDTO resposta = toResponseDTO(salva);
+        eventPublisher.publishEvent(new MensagemEnviadaEvent(resposta, canal, recebidaEm, true));
+        return resposta;
     }
 
-    public List<MensagemResponseDTO> listarMensagens(Long pedidoId, String emailSolicitante) {
-        PedidoServico pedido = buscarPedido(pedidoId);
-        Long usuarioId = buscarUsuarioPorEmail(emailSolicitante).getId();
+    /**
+     * Historico paginado por keyset. Sem cursor traz as {@code limite} mensagens mais recentes;
+     * com {@code beforeId}, as anteriores a ela; com {@code afterId}, as posteriores (delta apos reconectar).
+     * A pagina sai sempre em ordem cronologica. Conversas ativas sao servidas do {@link HistoricoRecenteCache}.
+     */
+    public HistoricoMensagensDTO listarMensagens(Long pedidoId, Long usuarioId,
+                                                 Long beforeId, Long afterId, int limite) {
+        if (beforeId != null && afterId != null) {
+            throw new BusinessException("Informe apenas beforeId ou afterId.");
+        }
 
-        validarParticipantePedido(pedido, usuarioId);
+        validarParticipantePedido(pedidoId, usuarioId);
 
-        return mensagemRepository
-                .findByPedidoServico_IdOrderByEnviadoEmAsc(pedidoId)
-                .stream()
+        Optional<HistoricoMensagensDTO> emMemoria = historicoRecente.buscar(pedidoId, beforeId, afterId, limite);
+        if (emMemoria.isPresent()) {
+            return emMemoria.get();
+        }
+        long versaoCache = historicoRecente.versao(pedidoId);
+
+        List<Mensagem> pagina;
+        boolean temAnteriores;
+        boolean temPosteriores;
+
+        if (afterId != null) {
+            // Uma linha a mais so para saber se a pagina tem continuacao
+            pagina = mensagemRepository.buscarPosteriores(pedidoId, afterId, Limit.of(limite + 1));
+            temPosteriores = pagina.size() > limite;
+            pagina = pagina.subList(0, Math.min(limite, pagina.size()));
+            temAnteriores = true;
+        } else if (beforeId != null) {
+            pagina = mensagemRepository.buscarAnteriores(pedidoId, beforeId, Limit.of(limite + 1));
+            temAnteriores = pagina.size() > limite;
+            pagina = new ArrayList<>(pagina.subList(0, Math.min(limite, pagina.size())));
+            Collections.reverse(pagina);
+            temPosteriores = true;
+        } else {
+            // Abertura do chat: traz o suficiente para encher o buffer do HistoricoRecenteCache
+            int carregar = Math.max(limite, historicoRecente.getCapacidade());
+            List<Mensagem> recentes = mensagemRepository.buscarUltimas(pedidoId, Limit.of(carregar + 1));
+            boolean inicioDaConversa = recentes.size() <= carregar;
+            recentes = new ArrayList<>(recentes.subList(0, Math.min(carregar, recentes.size())));
+            Collections.reverse(recentes);
+            historicoRecente.carregar(pedidoId, recentes.stream().map(this::toResponseDTO).toList(),
+                    inicioDaConversa, versaoCache);
+
+            pagina = recentes.subList(Math.max(0, recentes.size() - limite), recentes.size());
+            temAnteriores = recentes.size() > limite || !inicioDaConversa;
+            temPosteriores = false;
+        }
+
+        List<MensagemResponseDTO> itens = pagina.stream()
                 .map(this::toResponseDTO)
                 .toList();
-    }
-
-    @Transactional
-    public void marcarComoLidas(Long pedidoId, String emailSolicitante) {
-        PedidoServico pedido = buscarPedido(pedidoId);
-        Long usuarioId = buscarUsuarioPorEmail(emailSolicitante).getId();
-
-        validarParticipantePedido(pedido, usuarioId);
 
-        List<Mensagem> mensagens = mensagemRepository.findNaoLidasDoPedido(pedidoId, usuarioId);
+        Long primeiroId = itens.isEmpty() ? beforeId : itens.get(0).id();
+        Long ultimoId = itens.isEmpty() ? afterId : itens.get(itens.size() - 1).id();
 
-        for (Mensagem m : mensagens) {
-            m.setLida(true);
-            m.setLidaEm(LocalDateTime.now());
-        }
+        return new HistoricoMensagensDTO(itens, primeiroId, ultimoId, temAnteriores, temPosteriores);
     }
 
+    /**
+     * Marca como lidas as mensagens recebidas no pedido ate {@code ateId}, ou todas as nao lidas se for nulo.
+     * Sempre um UPDATE por chamada, independente de quantas mensagens forem afetadas.
+     */
     @Transactional
-    public void marcarMensagemEspecifica(Long pedidoId, Long mensagemId, String emailSolicitante) {
-        PedidoServico pedido = buscarPedido(pedidoId);
-        Long quemLeuId = buscarUsuarioPorEmail(emailSolicitante).getId();
-
-        validarParticipantePedido(pedido, quemLeuId);
-
-        Mensagem mensagem = mensagemRepository.findById(mensagemId)
-                .orElseThrow(() -> new ResourceNotFoundException("Mensagem nao encontrada"));
-
-        if (!mensagem.getPedidoServico().getId().equals(pedidoId)) {
-            throw new BusinessException("Mensagem nao pertence ao pedido");
+    public LeituraDTO marcarComoLidas(Long pedidoId, Long usuarioId, Long ateId) {
+        validarParticipantePedido(pedidoId, usuarioId);
+
+        // Fixar a marca d'agua antes do UPDATE: mensagem que chegar no meio continua nao lida
+        Long marca = ateId != null
+                ? limitarMarca(pedidoId, usuarioId, ateId)
+                : mensagemRepository.buscarUltimaNaoLida(pedidoId, usuarioId);
+        if (marca == null) {
+            return new LeituraDTO(pedidoId, 0, null);
         }
 
-        if (mensagem.getRemetente().getId().equals(quemLeuId) || Boolean.TRUE.equals(mensagem.getLida())) {
-            return;
+        LocalDateTime lidaEm = LocalDateTime.now();
+        // A marca d'agua vai para o contador antes (e trava a linha): mensagens ainda na fila do
+        // write-behind ate a marca serao gravadas lidas, e um lote concorrente termina antes do UPDATE
+        contadores.registrarMarcaLeitura(pedidoId, usuarioId, marca);
+        int quantidade = mensagemRepository.marcarLidasAte(pedidoId, usuarioId, marca, lidaEm);
+        if (quantidade > 0) {
+            contadores.registrarLeitura(pedidoId, usuarioId, quantidade);
         }
-
-        mensagem.setLida(true);
-        mensagem.setLidaEm(LocalDateTime.now());
+        // Com o write-behind, a marca pode cobrir mensagens ja publicadas que o UPDATE ainda nao alcancou
+        if (quantidade > 0 || writeBehind.isAtivo()) {
+            eventPublisher.publishEvent(new MensagensLidasEvent(pedidoId, usuarioId, marca, lidaEm));
+        }
+        return new LeituraDTO(pedidoId, quantidade, marca);
     }
 
-    public UltimoVistoDTO buscarUltimoVisto(Long pedidoId, String emailSolicitante) {
-        PedidoServico pedido = buscarPedido(pedidoId);
-        Long usuarioId = buscarUsuarioPorEmail(emailSolicitante).getId();
-
-        validarParticipantePedido(pedido, usuarioId);
-
-        LocalDateTime data = mensagemRepository.buscarUltimaLeitura(pedidoId, usuarioId);
-
-        return new UltimoVistoDTO(pedidoId, data);
+    // O ateId vem do cliente: a marca nao passa da ultima mensagem que o usuario recebeu no pedido,
+    // gravada ou ainda na fila do write-behind (a fila primeiro: a gravacao pode terminar entre as duas leituras)
+    private Long limitarMarca(Long pedidoId, Long usuarioId, Long ateId) {
+        long naFila = writeBehind.ultimaNaoGravada(pedidoId, usuarioId);
+        Long gravada = mensagemRepository.buscarUltimaRecebida(pedidoId, usuarioId);
+        long teto = Math.max(naFila, gravada != null ? gravada : 0L);
+        return teto > 0 ? Math.min(ateId, teto) : null;
     }
 
-    private PedidoServico buscarPedido(Long pedidoId) {
-        return pedidoServicoRepository.findById(pedidoId)
-                .orElseThrow(() -> new ResourceNotFoundException("Pedido nao encontrado"));
+    /**
+     * Caixa de entrada: todas as conversas do usuario com nao lidas e previa da ultima mensagem,
+     * numa unica consulta sobre {@code contador_nao_lidas}.
+     */
+    public List<ConversaDTO> listarConversas(Long usuarioId) {
+        return contadorRepository.listarConversas(usuarioId).stream()
+                .map(linha -> new ConversaDTO(
+                        linha.getPedidoId(),
+                        linha.getStatus(),
+                        linha.getNegocioNome(),
+                        linha.getNaoLidas(),
+                        linha.getUltimaMensagemId(),
+                        linha.getUltimaMensagemRemetenteId(),
+                        linha.getUltimaMensagemPrevia(),
+                        linha.getUltimaMensagemEm()
+                ))
+                .toList();
     }
 
-    private Usuario buscarUsuarioPorEmail(String email) {
-        return usuarioRepository.findByEmail(email)
+    private Usuario buscarUsuario(Long usuarioId) {
+        return usuarioRepository.findById(usuarioId)
                 .orElseThrow(() -> new ResourceNotFoundException("Usuario nao encontrado"));
     }
 
-    private void validarParticipantePedido(PedidoServico pedido, Long usuarioId) {
-        Long idCliente = pedido.getCliente().getId();
-        Long idProfissional = pedido.getNegocio().getUsuario().getId();
-
-        boolean participante = idCliente.equals(usuarioId) || idProfissional.equals(usuarioId);
-
-        if (!participante) {
+    private Participantes validarParticipantePedido(Long pedidoId, Long usuarioId) {
+        Participantes participantes = participantesPedido.buscar(pedidoId);
+        if (!participantes.inclui(usuarioId)) {
             throw new ForbiddenException("Acesso negado: usuario nao participa deste pedido.");
         }
+        return participantes;
     }
 
     private MensagemResponseDTO toResponseDTO(Mensagem mensagem) {
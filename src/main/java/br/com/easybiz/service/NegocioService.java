@@ -1,26 +1,73 @@
 package br.com.easybiz.service;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+
+import br.com.easybiz.dto.ClusterDTO;
+import br.com.easybiz.dto.NegocioResponseDTO;
+import br.com.easybiz.dto.PaginaCursorDTO;
+import br.com.easybiz.event.NegocioAlteradoEvent;
+import br.com.easybiz.exception.BusinessException;
 import br.com.easybiz.exception.ForbiddenException;
 import br.com.easybiz.exception.ResourceNotFoundException;
 import br.com.easybiz.model.Negocio;
 import br.com.easybiz.model.Usuario;
+import br.com.easybiz.repository.LinhaBuscaNegocio;
 import br.com.easybiz.repository.NegocioRepository;
 import br.com.easybiz.repository.UsuarioRepository;
+import br.com.easybiz.search.BuscaCache;
+import br.com.easybiz.search.CategoriaMatcher;
+import br.com.easybiz.search.ClusterIndex;
+import br.com.easybiz.search.CursorBusca;
+import br.com.easybiz.search.GeoGridIndex;
+import br.com.easybiz.search.GeoMath;
+import br.com.easybiz.search.IndiceTextual;
+import br.com.easybiz.search.KnnIndex;
+import br.com.easybiz.search.NegocioIndexado;
+import br.com.easybiz.search.NegocioRanqueado;
+import br.com.easybiz.search.RankingBusca;
 
 @Service
 public class NegocioService {
 
     private final NegocioRepository negocioRepository;
     private final UsuarioRepository usuarioRepository;
+    private final GeoGridIndex geoGridIndex;
+    private final KnnIndex knnIndex;
+    private final IndiceTextual indiceTextual;
+    private final BuscaCache buscaCache;
+    private final RankingBusca rankingBusca;
+    private final ClusterIndex clusterIndex;
+    private final ApplicationEventPublisher eventPublisher;
 
     public NegocioService(NegocioRepository negocioRepository,
-                          UsuarioRepository usuarioRepository) {
+                          UsuarioRepository usuarioRepository,
+                          GeoGridIndex geoGridIndex,
+                          KnnIndex knnIndex,
+                          IndiceTextual indiceTextual,
+                          BuscaCache buscaCache,
+                          RankingBusca rankingBusca,
+                          ClusterIndex clusterIndex,
+                          ApplicationEventPublisher eventPublisher) {
         this.negocioRepository = negocioRepository;
         this.usuarioRepository = usuarioRepository;
+        this.geoGridIndex = geoGridIndex;
+        this.knnIndex = knnIndex;
+        this.indiceTextual = indiceTextual;
+        this.buscaCache = buscaCache;
+        this.rankingBusca = rankingBusca;
+        this.clusterIndex = clusterIndex;
+        this.eventPublisher = eventPublisher;
     }
     @Transactional
     public Negocio criarNegocio(Long usuarioId, String nome, String categoria,
@@ -30,15 +77,17 @@ public class NegocioService {
 
         Negocio negocio = new Negocio();
         negocio.setNome(nome);
-        negocio.setCategoria(categoria.toUpperCase());
+        negocio.setCategoria(categoria.trim());
+        negocio.setCategoriaChave(chaveCategoria(categoria));
         negocio.setUsuario(usuario);
         negocio.setAtivo(true);
         negocio.setLatitude(latitude);
         negocio.setLongitude(longitude);
         negocio.setEnderecoCompleto(enderecoCompleto);
 
-
-        return negocioRepository.save(negocio);
+        Negocio salvo = negocioRepository.save(negocio);
+        publicarAlteracao(salvo);
+        return salvo;
     }
 
     private static final List<String> DICIONARIO_CATEGORIAS = List.of(
@@ -48,28 +97,188 @@ public class NegocioService {
             "MOTORISTA", "ENTREGADOR"
     );
 
-    public List<Negocio> buscarNegocios(Double lat, Double lon, String termoBusca) {
+    private static final Map<String, String> SINONIMOS_CATEGORIAS = Map.ofEntries(
+            Map.entry("OBRA", "PEDREIRO"),
+            Map.entry("CONSTRUCAO", "PEDREIRO"),
+            Map.entry("REFORMA", "PEDREIRO"),
+            Map.entry("ELETRICA", "ELETRICISTA"),
+            Map.entry("BOMBEIRO", "ENCANADOR"),
+            Map.entry("BOMBEIRO HIDRAULICO", "ENCANADOR"),
+            Map.entry("HIDRAULICA", "ENCANADOR"),
+            Map.entry("MECANICA", "MECANICO"),
+            Map.entry("OFICINA", "MECANICO"),
+            Map.entry("PINTURA", "PINTOR"),
+            Map.entry("MARCENARIA", "MARCENEIRO"),
+            Map.entry("MOVEIS PLANEJADOS", "MARCENEIRO"),
+            Map.entry("BARBEARIA", "BARBEIRO"),
+            Map.entry("CABELEIREIRO", "BARBEIRO"),
+            Map.entry("UNHA", "MANICURE"),
+            Map.entry("PEDICURE", "MANICURE"),
+            Map.entry("DIARISTA", "FAXINA"),
+            Map.entry("LIMPEZA", "FAXINA"),
+            Map.entry("JARDINEIRO", "JARDINAGEM"),
+            Map.entry("MUDANCA", "FRETE"),
+            Map.entry("CARRETO", "FRETE"),
+            Map.entry("ASSISTENCIA TECNICA", "TECNICO"),
+            Map.entry("MOTOBOY", "ENTREGADOR"),
+            Map.entry("MOTOTAXI", "MOTORISTA")
+    );
+
+    private static final CategoriaMatcher CATEGORIAS =
+            new CategoriaMatcher(DICIONARIO_CATEGORIAS, SINONIMOS_CATEGORIAS);
+
+    public PaginaCursorDTO<NegocioResponseDTO> buscarNegocios(Double lat, Double lon, String termoBusca,
+                                                             int limite, String cursor) {
         Double raioKm = 30.0;
+        CursorBusca inicio = CursorBusca.decodificar(cursor);
+
+        List<NegocioRanqueado> ranqueados;
+        Map<Long, LinhaBuscaNegocio> linhas;
+
+        // Termo que e uma categoria (ou sinonimo) filtra pela chave; o resto busca no texto (nome, categoria,
+        // chave e endereco), e cada palavra tambem casa com a categoria que indica, mesmo com erro de digitacao
+        String categoria = CATEGORIAS.resolverExato(termoBusca).orElse(null);
+        List<Set<String>> grupos = categoria == null ? gruposDeTermos(termoBusca) : List.of();
+
+        // Enquanto o indice aquece (startup), os candidatos vem do Haversine do banco, com as mesmas regras
+        if (!geoGridIndex.isPronto() || !indiceTextual.isPronto()) {
+            GeoMath.BoundingBox box = GeoMath.boundingBox(lat, lon, raioKm);
+            List<LinhaBuscaNegocio> noRaio = negocioRepository.buscarInteligente(lat, lon, raioKm,
+                    categoria, box.latMin(), box.latMax(), box.lonMin(), box.lonMax());
+            List<NegocioIndexado> candidatos = noRaio.stream()
+                    .map(LinhaBuscaNegocio::paraIndexado)
+                    .filter(n -> grupos.isEmpty() || IndiceTextual.casa(n, grupos))
+                    .toList();
+
+            linhas = porId(noRaio);
+            ranqueados = rankingBusca.melhores(candidatos, lat, lon, raioKm, inicio, limite + 1);
+        } else {
+            Set<Long> idsTexto = grupos.isEmpty() ? null : indiceTextual.buscar(grupos);
+
+            List<NegocioIndexado> candidatos = buscaCache.candidatos(lat, lon, raioKm, categoria);
+            if (idsTexto != null) {
+                candidatos = candidatos.stream().filter(n -> idsTexto.contains(n.id())).toList();
+            }
+            ranqueados = rankingBusca.melhores(candidatos, lat, lon, raioKm, inicio, limite + 1);
+
+            linhas = carregarParaBusca(ranqueados.stream().limit(limite).map(r -> r.negocio().id()).toList());
+        }
+
+        boolean temMais = ranqueados.size() > limite;
+        List<NegocioResponseDTO> itens = ranqueados.stream()
+                .limit(limite)
+                .filter(r -> linhas.containsKey(r.negocio().id()))
+                .map(r -> linhas.get(r.negocio().id()).paraResponse(r.distanciaKm(), r.score()))
+                .toList();
+
+        String proximoCursor = null;
+        if (temMais) {
+            NegocioRanqueado ultimo = ranqueados.get(limite - 1);
+            proximoCursor = new CursorBusca(ultimo.score(), ultimo.negocio().id()).codificar();
+        }
+
+        return new PaginaCursorDTO<>(itens, proximoCursor, temMais);
+    }
+
+    /**
+     * Modo "mais proximos": os {@code k} negocios mais perto do ponto, sem limite de raio,
+     * ordenados pela distancia.
+     */
+    public PaginaCursorDTO<NegocioResponseDTO> buscarMaisProximos(Double lat, Double lon, String termoBusca, int k) {
         String categoriaCorrigida = corrigirCategoria(termoBusca);
 
-        return negocioRepository.buscarInteligente(lat, lon, raioKm, categoriaCorrigida);
+        List<LinhaBuscaNegocio> resultado;
+        if (!knnIndex.isPronto()) {
+            resultado = negocioRepository.buscarMaisProximos(lat, lon, categoriaCorrigida, k);
+        } else {
+            List<Long> ids = knnIndex.buscarMaisProximos(lat, lon, k, categoriaCorrigida)
+                    .stream()
+                    .map(p -> p.negocio().id())
+                    .toList();
+            Map<Long, LinhaBuscaNegocio> linhas = carregarParaBusca(ids);
+            resultado = ids.stream().map(linhas::get).filter(Objects::nonNull).toList();
+        }
+
+        List<NegocioResponseDTO> itens = resultado.stream()
+                .map(n -> n.paraResponse(GeoMath.distanciaKm(lat, lon, n.getLatitude(), n.getLongitude()), null))
+                .toList();
+
+        return new PaginaCursorDTO<>(itens, null, false);
+    }
+
+    /**
+     * Clusters do mapa: quantidade e centroide por celula do zoom, dentro do retangulo visivel.
+     * Lido do {@link ClusterIndex}, mantido a cada alteracao; nenhuma linha e lida do banco.
+     */
+    public List<ClusterDTO> buscarClusters(Double latMin, Double latMax, Double lonMin, Double lonMax,
+                                           int zoom, String categoria) {
+        if (latMin > latMax || lonMin > lonMax) {
+            throw new BusinessException("Retangulo invalido: o minimo deve ser menor ou igual ao maximo.");
+        }
+        // Durante o aquecimento o mapa fica vazio por alguns segundos em vez de varrer a tabela
+        if (!clusterIndex.isPronto()) {
+            return List.of();
+        }
+        return clusterIndex.clusters(latMin, latMax, lonMin, lonMax, zoom, corrigirCategoria(categoria))
+                .stream()
+                .map(c -> new ClusterDTO(c.latitude(), c.longitude(), c.quantidade()))
+                .toList();
+    }
+
+    // Um unico SELECT (negocios JOIN usuarios) para a pagina inteira, sem carregar entidades
+    private Map<Long, LinhaBuscaNegocio> carregarParaBusca(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        return porId(negocioRepository.carregarParaBusca(ids));
+    }
+
+    private static Map<Long, LinhaBuscaNegocio> porId(List<LinhaBuscaNegocio> linhas) {
+        return linhas.stream().collect(Collectors.toMap(LinhaBuscaNegocio::getId, Function.identity()));
     }
 
+    /**
+     * Um grupo por palavra do termo; a palavra casa com ela mesma ou com a categoria que ela indica
+     * ("barbearia do joao" -> {BARBEARIA, BARBEIRO} e {JOAO}).
+     */
+    private static List<Set<String>> gruposDeTermos(String termo) {
+        List<Set<String>> grupos = new ArrayList<>();
+        for (String token : IndiceTextual.tokenizar(termo)) {
+            Set<String> grupo = new HashSet<>();
+            grupo.add(token);
+            CATEGORIAS.resolver(token).ifPresent(grupo::add);
+            grupos.add(grupo);
+        }
+        return grupos;
+    }
+
+    /**
+     * Resolve o termo livre para um valor de {@code categoria_chave}, usado em igualdade
+     * (indexavel) na busca. Usa a mesma regra da gravacao em {@link #criarNegocio}, para o termo
+     * casar com o que foi gravado.
+     */
     private String corrigirCategoria(String termo) {
         if (termo == null || termo.isBlank()) {
             return null;
         }
+        return chaveCategoria(termo);
+    }
 
-        String normalizado = termo.toUpperCase().trim();
-
-        for (String categoria : DICIONARIO_CATEGORIAS) {
-            if (categoria.contains(normalizado) || normalizado.contains(categoria)) {
-                return categoria;
-            }
+    /**
+     * Valor gravado em {@code negocios.categoria_chave}: a categoria canonica quando o termo inteiro e uma
+     * categoria ou sinonimo ("Barbearia" -> BARBEIRO), senao o proprio termo normalizado ("Eletronica",
+     * "Pintora" e "barbearia do joao" ficam como sao). Prefixo e aproximacao ficam so na consulta
+     * ({@link #gruposDeTermos}): gravados, trocariam a categoria do negocio. A V13 aplica a mesma regra
+     * as linhas antigas; mudar o dicionario pede uma nova migration.
+     */
+    static String chaveCategoria(String categoria) {
+        String normalizada = CategoriaMatcher.normalizar(categoria);
+        if (normalizada.isEmpty()) {
+            return categoria.trim().toUpperCase();
         }
-
-        return termo;
+        return CATEGORIAS.resolverExato(normalizada).orElse(normalizada);
     }
+
     @Transactional
     public void atualizarLocalizacao(Long negocioId, Long usuarioLogadoId,
                                       Double latitude, Double longitude, String enderecoCompleto) {
@@ -84,6 +293,7 @@ public class NegocioService {
         negocio.setLongitude(longitude);
         negocio.setEnderecoCompleto(enderecoCompleto);
         negocioRepository.save(negocio);
+        publicarAlteracao(negocio);
     }
 
     @Transactional
@@ -97,5 +307,11 @@ public class NegocioService {
 
         negocio.setLogoUrl(novaUrl);
         negocioRepository.save(negocio);
+        publicarAlteracao(negocio);
+    }
+
+    // Os indices de busca sao atualizados apenas apos o commit (ver IndexacaoNegocios)
+    private void publicarAlteracao(Negocio negocio) {
+        eventPublisher.publishEvent(NegocioAlteradoEvent.de(negocio));
     }
 }
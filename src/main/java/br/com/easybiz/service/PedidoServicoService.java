@@ -8,6 +8,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import br.com.easybiz.chat.ContadoresNaoLidas;
 import br.com.easybiz.dto.CriarPedidoServicoDTO;
 import br.com.easybiz.dto.PedidoServicoResponseDTO;
 import br.com.easybiz.exception.BusinessException;
@@ -27,18 +28,21 @@ public class PedidoServicoService {
     private final PedidoServicoRepository pedidoRepository;
     private final UsuarioRepository usuarioRepository;
     private final NegocioRepository negocioRepository;
+    private final ContadoresNaoLidas contadoresNaoLidas;
 
     public PedidoServicoService(PedidoServicoRepository pedidoRepository,
                                  UsuarioRepository usuarioRepository,
-                                 NegocioRepository negocioRepository) {
+                                 NegocioRepository negocioRepository,
+                                 ContadoresNaoLidas contadoresNaoLidas) {
         this.pedidoRepository = pedidoRepository;
         this.usuarioRepository = usuarioRepository;
         this.negocioRepository = negocioRepository;
+        this.contadoresNaoLidas = contadoresNaoLidas;
     }
 
     @Transactional
-    public PedidoServicoResponseDTO criar(String emailCliente, CriarPedidoServicoDTO dto) {
-        Usuario cliente = usuarioRepository.findByEmail(emailCliente)
+    public PedidoServicoResponseDTO criar(Long clienteId, CriarPedidoServicoDTO dto) {
+        Usuario cliente = usuarioRepository.findById(clienteId)
                 .orElseThrow(() -> new ResourceNotFoundException("Cliente nao encontrado"));
 
         Negocio negocio = negocioRepository.findById(dto.negocioId())
@@ -56,7 +60,11 @@ public class PedidoServicoService {
         pedido.setStatus(StatusPedido.ABERTO);
         pedido.setCriadoEm(LocalDateTime.now());
 
-        return toDTO(pedidoRepository.save(pedido));
+        // Flush antes: as linhas do contador referenciam o pedido
+        PedidoServico salvo = pedidoRepository.saveAndFlush(pedido);
+        contadoresNaoLidas.criar(salvo.getId(), cliente.getId(), negocio.getUsuario().getId());
+
+        return toDTO(salvo);
     }
 
     @Transactional
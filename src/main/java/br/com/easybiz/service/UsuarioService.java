@@ -2,6 +2,7 @@ package br.com.easybiz.service;
 
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import br.com.easybiz.chat.RemetentesCache;
 import br.com.easybiz.dto.CriarUsuarioDTO;
 import br.com.easybiz.exception.BusinessException;
 import br.com.easybiz.exception.ResourceNotFoundException;
@@ -14,10 +15,13 @@ public class UsuarioService {
 
     private final UsuarioRepository repository;
     private final PasswordEncoder passwordEncoder;
+    private final RemetentesCache remetentes;
 
-    public UsuarioService(UsuarioRepository repository, PasswordEncoder passwordEncoder) {
+    public UsuarioService(UsuarioRepository repository, PasswordEncoder passwordEncoder,
+                          RemetentesCache remetentes) {
         this.repository = repository;
         this.passwordEncoder = passwordEncoder;
+        this.remetentes = remetentes;
     }
     @Transactional
     public Usuario criarUsuario(CriarUsuarioDTO dto) {
@@ -39,5 +43,6 @@ public class UsuarioService {
 
         usuario.setFotoUrl(novaUrl);
         repository.save(usuario);
+        remetentes.invalidar(usuarioId);
     }
 }
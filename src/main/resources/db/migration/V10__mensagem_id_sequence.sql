@@ -0,0 +1,6 @@
+-- V10: Ids de mensagem saem um a um da mensagem_id_seq, compartilhada pelo Hibernate (REST) e pelo write-behind do chat
+-- O id e a ordem de envio do chat e a marca d'agua de leitura ("lidas ate o id X"); blocos reservados por instancia
+-- fariam uma mensagem enviada depois ganhar id menor. Por isso a mensagem fica fora dos blocos pooled-lo da V11.
+-- O default do BIGSERIAL sai: todo INSERT informa o id tirado da sequence.
+ALTER TABLE mensagem ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE mensagem_id_seq INCREMENT BY 1;
@@ -0,0 +1,23 @@
+-- V11: As entidades passam a usar sequences em blocos (pooled-lo), exceto a mensagem (um a um, V10)
+-- O tamanho do bloco vem de app.ids.tamanho-bloco (placeholder do Flyway); o Hibernate adota o INCREMENT BY
+-- do banco (increment_size_mismatch_strategy=fix). Sem o default do BIGSERIAL, todo INSERT informa o id.
+-- Aplicar com todas as instancias paradas: blocos reservados por uma instancia antiga seriam reutilizados.
+ALTER TABLE usuarios ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE usuarios_id_seq INCREMENT BY ${tamanho_bloco_ids};
+SELECT setval('usuarios_id_seq', COALESCE((SELECT MAX(id) FROM usuarios), 0) + 1, false);
+
+ALTER TABLE negocios ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE negocios_id_seq INCREMENT BY ${tamanho_bloco_ids};
+SELECT setval('negocios_id_seq', COALESCE((SELECT MAX(id) FROM negocios), 0) + 1, false);
+
+ALTER TABLE pedido_servico ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE pedido_servico_id_seq INCREMENT BY ${tamanho_bloco_ids};
+SELECT setval('pedido_servico_id_seq', COALESCE((SELECT MAX(id) FROM pedido_servico), 0) + 1, false);
+
+ALTER TABLE avaliacao ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE avaliacao_id_seq INCREMENT BY ${tamanho_bloco_ids};
+SELECT setval('avaliacao_id_seq', COALESCE((SELECT MAX(id) FROM avaliacao), 0) + 1, false);
+
+ALTER TABLE password_reset_tokens ALTER COLUMN id DROP DEFAULT;
+ALTER SEQUENCE password_reset_tokens_id_seq INCREMENT BY ${tamanho_bloco_ids};
+SELECT setval('password_reset_tokens_id_seq', COALESCE((SELECT MAX(id) FROM password_reset_tokens), 0) + 1, false);
@@ -0,0 +1,44 @@
+-- V12: Nao lidas por (pedido, participante) e ultima mensagem da conversa, para a caixa de entrada
+-- Mantida pelo MensagemService no envio e na leitura; o backfill parte das mensagens ja existentes.
+-- ultima_mensagem_em acompanha o ponteiro: o envio so move a ultima mensagem para uma mais nova por (enviado_em, id).
+-- lida_ate_mensagem_id e a marca d'agua de leitura do participante; o write-behind grava como lidas as mensagens
+-- ate ela (o destinatario pode confirmar uma mensagem publicada que ainda esta na fila).
+CREATE TABLE contador_nao_lidas (
+    pedido_servico_id    BIGINT    NOT NULL REFERENCES pedido_servico(id),
+    usuario_id           BIGINT    NOT NULL REFERENCES usuarios(id),
+    quantidade           INTEGER   NOT NULL DEFAULT 0,
+    ultima_mensagem_id   BIGINT,
+    ultima_mensagem_em   TIMESTAMP,
+    lida_ate_mensagem_id BIGINT    NOT NULL DEFAULT 0,
+    PRIMARY KEY (pedido_servico_id, usuario_id)
+);
+
+-- caixa de entrada: "todas as conversas do usuario"
+CREATE INDEX idx_contador_nao_lidas_usuario_id ON contador_nao_lidas(usuario_id);
+
+INSERT INTO contador_nao_lidas
+    (pedido_servico_id, usuario_id, quantidade, ultima_mensagem_id, ultima_mensagem_em, lida_ate_mensagem_id)
+SELECT p.id,
+       participante.usuario_id,
+       (SELECT COUNT(*)
+        FROM mensagem m
+        WHERE m.pedido_servico_id = p.id
+          AND m.lida = false
+          AND m.remetente_id <> participante.usuario_id),
+       ultima.id,
+       ultima.enviado_em,
+       COALESCE((SELECT MAX(m.id)
+                 FROM mensagem m
+                 WHERE m.pedido_servico_id = p.id
+                   AND m.remetente_id <> participante.usuario_id
+                   AND m.lida = true), 0)
+FROM pedido_servico p
+JOIN negocios n ON n.id = p.negocio_id
+CROSS JOIN LATERAL (VALUES (p.cliente_id), (n.usuario_id)) AS participante(usuario_id)
+LEFT JOIN LATERAL (
+    SELECT m.id, m.enviado_em
+    FROM mensagem m
+    WHERE m.pedido_servico_id = p.id
+    ORDER BY m.enviado_em DESC, m.id DESC
+    LIMIT 1
+) AS ultima ON true;
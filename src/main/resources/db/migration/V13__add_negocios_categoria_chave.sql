@@ -0,0 +1,50 @@
+-- V13: Chave da categoria, usada nos filtros da busca; negocios.categoria fica como o dono digitou
+-- Mesma regra do NegocioService.chaveCategoria: o termo inteiro igual a uma categoria ou sinonimo vira a
+-- canonica, qualquer outro fica normalizado (maiusculas, sem acentos nem pontuacao). Sem prefixo nem
+-- aproximacao, que trocariam a categoria ("Eletronica" nao vira ELETRICISTA).
+-- O dicionario abaixo e uma copia do NegocioService; uma mudanca nele pede uma nova migration.
+ALTER TABLE negocios ADD COLUMN categoria_chave VARCHAR(255);
+
+WITH normalizada AS (
+    SELECT
+        id,
+        btrim(regexp_replace(
+            upper(translate(categoria,
+                'áàâãäéèêëíìîïóòôõöúùûüçñÁÀÂÃÄÉÈÊËÍÌÎÏÓÒÔÕÖÚÙÛÜÇÑ',
+                'aaaaaeeeeiiiiooooouuuucnAAAAAEEEEIIIIOOOOOUUUUCN')),
+            '[^A-Z0-9]+', ' ', 'g')) AS termo,
+        upper(btrim(categoria)) AS original
+    FROM negocios
+),
+dicionario (termo, categoria) AS (
+    VALUES
+        ('PEDREIRO', 'PEDREIRO'), ('ELETRICISTA', 'ELETRICISTA'), ('ENCANADOR', 'ENCANADOR'),
+        ('MECANICO', 'MECANICO'), ('PINTOR', 'PINTOR'), ('MARCENEIRO', 'MARCENEIRO'),
+        ('BARBEIRO', 'BARBEIRO'), ('MANICURE', 'MANICURE'), ('FAXINA', 'FAXINA'),
+        ('JARDINAGEM', 'JARDINAGEM'), ('FRETE', 'FRETE'), ('TECNICO', 'TECNICO'),
+        ('MOTORISTA', 'MOTORISTA'), ('ENTREGADOR', 'ENTREGADOR'),
+        ('OBRA', 'PEDREIRO'), ('CONSTRUCAO', 'PEDREIRO'), ('REFORMA', 'PEDREIRO'),
+        ('ELETRICA', 'ELETRICISTA'),
+        ('BOMBEIRO', 'ENCANADOR'), ('BOMBEIRO HIDRAULICO', 'ENCANADOR'), ('HIDRAULICA', 'ENCANADOR'),
+        ('MECANICA', 'MECANICO'), ('OFICINA', 'MECANICO'),
+        ('PINTURA', 'PINTOR'),
+        ('MARCENARIA', 'MARCENEIRO'), ('MOVEIS PLANEJADOS', 'MARCENEIRO'),
+        ('BARBEARIA', 'BARBEIRO'), ('CABELEIREIRO', 'BARBEIRO'),
+        ('UNHA', 'MANICURE'), ('PEDICURE', 'MANICURE'),
+        ('DIARISTA', 'FAXINA'), ('LIMPEZA', 'FAXINA'),
+        ('JARDINEIRO', 'JARDINAGEM'),
+        ('MUDANCA', 'FRETE'), ('CARRETO', 'FRETE'),
+        ('ASSISTENCIA TECNICA', 'TECNICO'),
+        ('MOTOBOY', 'ENTREGADOR'), ('MOTOTAXI', 'MOTORISTA')
+)
+UPDATE negocios n
+SET categoria_chave = COALESCE(d.categoria, NULLIF(x.termo, ''), x.original)
+FROM normalizada x
+LEFT JOIN dicionario d ON d.termo = x.termo
+WHERE n.id = x.id;
+
+ALTER TABLE negocios ALTER COLUMN categoria_chave SET NOT NULL;
+
+-- A busca filtra pela chave; o indice da V4 sobre o texto livre deixa de ser usado
+DROP INDEX IF EXISTS idx_negocios_categoria;
+CREATE INDEX idx_negocios_categoria_chave ON negocios(categoria_chave);
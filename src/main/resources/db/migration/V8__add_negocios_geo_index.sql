@@ -0,0 +1,6 @@
+-- V8: Indice composto (latitude, longitude) para a busca geografica
+-- A query de busca aplica primeiro um bounding box (BETWEEN em latitude/longitude)
+-- calculado a partir do raio, e so entao o Haversine exato nas linhas restantes.
+-- Parcial: apenas negocios ativos com coordenadas entram na busca.
+CREATE INDEX idx_negocios_geo ON negocios(latitude, longitude)
+    WHERE ativo = true AND latitude IS NOT NULL AND longitude IS NOT NULL;
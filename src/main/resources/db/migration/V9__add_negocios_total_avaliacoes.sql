@@ -0,0 +1,11 @@
+-- V9: Quantidade de avaliacoes por negocio, usada no ranking da busca
+-- Mantida pelo AvaliacaoService junto com nota_media; o backfill conta as avaliacoes ja existentes.
+ALTER TABLE negocios ADD COLUMN total_avaliacoes INTEGER NOT NULL DEFAULT 0;
+
+UPDATE negocios n
+SET total_avaliacoes = (
+    SELECT COUNT(*)
+    FROM avaliacao a
+    JOIN pedido_servico p ON p.id = a.pedido_id
+    WHERE p.negocio_id = n.id
+);
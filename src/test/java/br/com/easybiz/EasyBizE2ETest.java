@@ -1,20 +1,100 @@
 package br.com.easybiz;
 
+import br.com.easybiz.chat.AssinaturasAutorizadas;
+import br.com.easybiz.chat.ClusterBrokerRelay;
+import br.com.easybiz.chat.ClusterMessageBus;
+import br.com.easybiz.chat.ContadoresNaoLidas;
+import br.com.easybiz.chat.DigitandoDebouncer;
+import br.com.easybiz.chat.EnvelopeCluster;
+import br.com.easybiz.chat.FilaPublicacaoCluster;
+import br.com.easybiz.chat.HistoricoRecenteCache;
+import br.com.easybiz.chat.LeiturasAgregador;
+import br.com.easybiz.chat.MensagemBroadcaster;
+import br.com.easybiz.dto.MensagemResponseDTO;
+import br.com.easybiz.event.MensagemEnviadaEvent;
+import br.com.easybiz.exception.ForbiddenException;
+import br.com.easybiz.model.PedidoServico;
 import br.com.easybiz.model.Usuario;
+import br.com.easybiz.repository.LinhaBuscaNegocio;
+import br.com.easybiz.repository.NegocioRepository;
 import br.com.easybiz.repository.UsuarioRepository;
+import br.com.easybiz.search.BuscaCache;
+import br.com.easybiz.search.CursorBusca;
+import br.com.easybiz.search.GeoGridIndex;
+import br.com.easybiz.search.GeoMath;
+import br.com.easybiz.search.IndiceTextual;
+import br.com.easybiz.search.KnnIndex;
+import br.com.easybiz.search.NegocioIndexado;
+import br.com.easybiz.search.NegocioRanqueado;
+import br.com.easybiz.search.RankingBusca;
+import br.com.easybiz.security.UsuarioAutenticado;
+import br.com.easybiz.service.MensagemService;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
+import java.util.function.LongConsumer;
+import java.util.function.LongFunction;
+import org.hamcrest.Matchers;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.jupiter.api.*;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.SubscribableChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.crypto.password.PasswordEncoder; // IMPORT NOVO
 // ActiveProfiles removido - usa application.properties de src/test/resources automaticamente
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -37,6 +117,30 @@ public class EasyBizE2ETest {
     @Autowired
     private UsuarioRepository usuarioRepository;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private NegocioRepository negocioRepository;
+
+    @Autowired
+    private LeiturasAgregador leiturasAgregador;
+
+    @Autowired
+    private DigitandoDebouncer digitandoDebouncer;
+
+    @Autowired
+    private MensagemService mensagemService;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @SuppressWarnings("unused")
     @MockitoBean
     private JavaMailSender javaMailSender;
@@ -183,6 +287,87 @@ public class EasyBizE2ETest {
         System.out.println("✅ /usuarios/me funcionando");
     }
 
+    @Test
+    @Order(7)
+    @DisplayName("1.7 - JWT carrega o id: requisição autenticada não busca usuário por email")
+    void tokenDeveCarregarIdDoUsuario() throws Exception {
+        String payload = new String(Base64.getUrlDecoder().decode(tokenCliente.split("\\.")[1]));
+        Assertions.assertEquals(clienteId.longValue(), objectMapper.readTree(payload).get("uid").asLong());
+
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+
+        mockMvc.perform(get("/usuarios/me")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(clienteId.intValue()));
+
+        // Apenas o findById do proprio endpoint; nenhuma query por email
+        Assertions.assertEquals(0, estatisticas.getQueryExecutionCount());
+        Assertions.assertEquals(1, estatisticas.getPrepareStatementCount());
+
+        System.out.println("✅ Id do usuário lido do token");
+    }
+
+    @Test
+    @Order(8)
+    @DisplayName("1.8 - Token adulterado ou expirado é recusado mesmo com o original em cache")
+    void deveRecusarTokenAdulteradoOuExpirado() throws Exception {
+        // O token do cliente ja foi verificado (e cacheado) nos passos anteriores
+        String[] partes = tokenCliente.split("\\.");
+        String payload = new String(Base64.getUrlDecoder().decode(partes[1]));
+        String payloadAdulterado = Base64.getUrlEncoder().withoutPadding().encodeToString(
+                payload.replace("\"uid\":" + clienteId, "\"uid\":" + prestadorId).getBytes());
+        String adulterado = partes[0] + "." + payloadAdulterado + "." + partes[2];
+
+        mockMvc.perform(get("/usuarios/me")
+                        .header("Authorization", "Bearer " + adulterado))
+                .andExpect(status().is4xxClientError());
+
+        String expirado = Jwts.builder()
+                .subject(EMAIL_CLIENTE)
+                .claim("uid", clienteId)
+                .issuedAt(new Date(System.currentTimeMillis() - 120_000))
+                .expiration(new Date(System.currentTimeMillis() - 60_000))
+                .signWith(Keys.hmacShaKeyFor("ChaveDeTesteComMaisDe32CaracteresParaHS256".getBytes()))
+                .compact();
+
+        mockMvc.perform(get("/usuarios/me")
+                        .header("Authorization", "Bearer " + expirado))
+                .andExpect(status().is4xxClientError());
+
+        mockMvc.perform(get("/usuarios/me")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk());
+
+        System.out.println("✅ Tokens adulterado e expirado recusados");
+    }
+
+    @Test
+    @Order(9)
+    @DisplayName("1.9 - Ids de sequence em blocos: INSERTs em lote")
+    void insercoesDevemSerEmLote() {
+        List<Usuario> novos = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Usuario usuario = new Usuario();
+            usuario.setNomeCompleto("Usuario Lote " + i);
+            usuario.setEmail("lote." + i + "@teste.com");
+            usuario.setSenha(passwordEncoder.encode(SENHA));
+            novos.add(usuario);
+        }
+
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+        usuarioRepository.saveAll(novos);
+
+        // No maximo uma ida a sequence (bloco de 50) e um INSERT preparado para as 20 linhas
+        Assertions.assertEquals(20, estatisticas.getEntityInsertCount());
+        Assertions.assertTrue(estatisticas.getPrepareStatementCount() <= 2,
+                "statements: " + estatisticas.getPrepareStatementCount());
+
+        System.out.println("✅ INSERTs agrupados em batch");
+    }
+
     // ==========================================
     // 2. NEGÓCIOS
     // ==========================================
@@ -224,11 +409,151 @@ public class EasyBizE2ETest {
                         .param("lon", "-46.6333")
                         .param("busca", "barbeiro"))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$").isArray());
+                .andExpect(jsonPath("$.itens").isArray())
+                .andExpect(jsonPath("$.itens[*].id").value(Matchers.hasItem(negocioId.intValue())));
 
         System.out.println("✅ Busca por localização funcionando");
     }
 
+    @Test
+    @Order(15)
+    @DisplayName("2.6 - Busca paginada por cursor")
+    void deveBuscarNegociosPaginadosPorCursor() throws Exception {
+        String segundo = """
+            {
+                "nome": "Barbearia E2E Filial",
+                "categoria": "BARBEIRO",
+                "latitude": -23.5510,
+                "longitude": -46.6340,
+                "enderecoCompleto": "Rua Teste, 456 - Sao Paulo, SP"
+            }
+            """;
+
+        mockMvc.perform(post("/negocios")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .content(segundo))
+                .andExpect(status().isCreated());
+
+        MvcResult primeira = mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbeiro")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.temMais").value(true))
+                // Mesma nota e mesma idade: o mais proximo vem primeiro
+                .andExpect(jsonPath("$.itens[0].id").value(negocioId.intValue()))
+                .andExpect(jsonPath("$.itens[0].score").isNumber())
+                .andReturn();
+
+        JsonNode pagina = objectMapper.readTree(primeira.getResponse().getContentAsString());
+        long primeiroId = pagina.get("itens").get(0).get("id").asLong();
+
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbeiro")
+                        .param("limit", "1")
+                        .param("cursor", pagina.get("proximoCursor").asText()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].id").value(Matchers.not((int) primeiroId)));
+
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("limit", "500"))
+                .andExpect(status().isBadRequest());
+
+        System.out.println("✅ Busca paginada por cursor funcionando");
+    }
+
+    @Test
+    @Order(16)
+    @DisplayName("2.7 - Busca dos k mais próximos retorna a distância")
+    void deveBuscarMaisProximos() throws Exception {
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbeiro")
+                        .param("k", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].id").value(negocioId.intValue()))
+                .andExpect(jsonPath("$.itens[0].distanciaKm").value(Matchers.lessThan(0.01)));
+
+        System.out.println("✅ Busca kNN funcionando");
+    }
+
+    @Test
+    @Order(17)
+    @DisplayName("2.8 - Busca por texto livre usa nome e endereço")
+    void deveBuscarNegociosPorTexto() throws Exception {
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbearia da filial"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].nome").value("Barbearia E2E Filial"));
+
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "rua teste 123"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].id").value(negocioId.intValue()));
+
+        System.out.println("✅ Busca textual funcionando");
+    }
+
+    @Test
+    @Order(18)
+    @DisplayName("2.9 - Busca hidrata a página em um único SELECT, sem N+1 de usuários")
+    void buscaNaoDeveFazerNMaisUm() throws Exception {
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        estatisticas.clear();
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbeiro")
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].nomeUsuario").value("Prestador E2E Test"));
+        long comUm = estatisticas.getPrepareStatementCount();
+
+        estatisticas.clear();
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-23.5505")
+                        .param("lon", "-46.6333")
+                        .param("busca", "barbeiro"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(2))
+                .andExpect(jsonPath("$.itens[1].nomeUsuario").value("Prestador E2E Test"));
+        long comDois = estatisticas.getPrepareStatementCount();
+
+        Assertions.assertEquals(1, comUm, "Busca com 1 resultado");
+        Assertions.assertEquals(comUm, comDois, "Quantidade de statements nao pode crescer com o resultado");
+
+        // Caminho SQL do aquecimento: a projecao ja traz o dono
+        estatisticas.clear();
+        List<LinhaBuscaNegocio> linhas = negocioRepository.buscarInteligente(
+                -23.5505, -46.6333, 30.0, "BARBEIRO", -23.82, -23.28, -46.93, -46.34);
+        Assertions.assertEquals(2, linhas.size());
+        linhas.forEach(l -> {
+            Assertions.assertEquals("Prestador E2E Test", l.getNomeUsuario());
+            Assertions.assertNotNull(l.paraIndexado().criadoEm());
+        });
+        Assertions.assertEquals(1, estatisticas.getPrepareStatementCount(), "Fallback SQL com N+1");
+
+        System.out.println("✅ Busca sem N+1 (" + comDois + " statement)");
+    }
+
     @Test
     @Order(12)
     @DisplayName("2.3 - Atualizar Logo (como Dono)")
@@ -267,6 +592,70 @@ public class EasyBizE2ETest {
         System.out.println("✅ Bloqueou quem não é dono de atualizar logo");
     }
 
+    @Test
+    @Order(14)
+    @DisplayName("2.5 - Busca geo usa o indice (latitude, longitude), sem table scan")
+    void buscaGeoDeveUsarIndiceComposto() throws Exception {
+        // H2 nao suporta indice parcial: replica a V8 sem o WHERE
+        jdbcTemplate.getJdbcTemplate().execute(
+                "CREATE INDEX IF NOT EXISTS idx_negocios_geo ON negocios(latitude, longitude)");
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("userLat", -23.5505);
+        params.put("userLon", -46.6333);
+        params.put("raioKm", 30.0);
+        params.put("categoria", null);
+        params.put("latMin", -23.82);
+        params.put("latMax", -23.28);
+        params.put("lonMin", -46.93);
+        params.put("lonMax", -46.34);
+
+        String plano = String.join("\n", jdbcTemplate.queryForList(
+                "EXPLAIN " + NegocioRepository.BUSCA_GEO_SQL, params, String.class)).toUpperCase();
+
+        Assertions.assertTrue(plano.contains("IDX_NEGOCIOS_GEO"), "Plano sem o indice geo:\n" + plano);
+        Assertions.assertFalse(plano.contains("TABLESCAN"), "Plano com table scan:\n" + plano);
+
+        System.out.println("✅ Busca geo usa idx_negocios_geo");
+    }
+
+    @Test
+    @Order(19)
+    @DisplayName("2.10 - Clusters do mapa por célula e categoria")
+    void deveAgruparNegociosEmClusters() throws Exception {
+        mockMvc.perform(get("/negocios/clusters")
+                        .param("latMin", "-24.0")
+                        .param("latMax", "-23.0")
+                        .param("lonMin", "-47.0")
+                        .param("lonMax", "-46.0")
+                        .param("zoom", "10")
+                        .param("categoria", "barbearia"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(1))
+                .andExpect(jsonPath("$[0].quantidade").value(2))
+                .andExpect(jsonPath("$[0].latitude").value(Matchers.closeTo(-23.55075, 0.0001)));
+
+        mockMvc.perform(get("/negocios/clusters")
+                        .param("latMin", "-24.0")
+                        .param("latMax", "-23.0")
+                        .param("lonMin", "-47.0")
+                        .param("lonMax", "-46.0")
+                        .param("zoom", "10")
+                        .param("categoria", "PINTOR"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(get("/negocios/clusters")
+                        .param("latMin", "-23.0")
+                        .param("latMax", "-24.0")
+                        .param("lonMin", "-47.0")
+                        .param("lonMax", "-46.0")
+                        .param("zoom", "10"))
+                .andExpect(status().isBadRequest());
+
+        System.out.println("✅ Clusters do mapa funcionando");
+    }
+
     // ==========================================
     // 3. PEDIDOS
     // ==========================================
@@ -306,7 +695,7 @@ public class EasyBizE2ETest {
                         .header("Authorization", "Bearer " + tokenCliente))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.content").isArray())
-                .andExpect(jsonPath("$.content.length()").value(org.hamcrest.Matchers.greaterThan(0)))
+                .andExpect(jsonPath("$.content.length()").value(Matchers.greaterThan(0)))
                 .andExpect(jsonPath("$.totalElements").exists());
 
         System.out.println("✅ Cliente consegue listar seus pedidos (paginado)");
@@ -413,11 +802,1256 @@ public class EasyBizE2ETest {
         mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
                         .header("Authorization", "Bearer " + tokenCliente))
                 .andExpect(status().isOk())
-                .andExpect(jsonPath("$").isArray());
+                .andExpect(jsonPath("$.itens").isArray());
 
         System.out.println("✅ Histórico de mensagens acessível");
     }
 
+    @Test
+    @Order(41)
+    @DisplayName("5.2 - Histórico paginado por beforeId/afterId")
+    void deveListarHistoricoPorCursor() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .header("Authorization", "Bearer " + tokenCliente)
+                            .content("{\"conteudo\": \"Mensagem paginada " + i + "\"}"))
+                    .andExpect(status().isOk());
+        }
+
+        MvcResult ultimas = mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(2))
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Mensagem paginada 4"))
+                .andExpect(jsonPath("$.itens[1].conteudo").value("Mensagem paginada 5"))
+                .andExpect(jsonPath("$.temAnteriores").value(true))
+                .andExpect(jsonPath("$.temPosteriores").value(false))
+                .andReturn();
+        JsonNode pagina = objectMapper.readTree(ultimas.getResponse().getContentAsString());
+
+        MvcResult anteriores = mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("limit", "2")
+                        .param("beforeId", pagina.get("beforeId").asText()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Mensagem paginada 2"))
+                .andExpect(jsonPath("$.itens[1].conteudo").value("Mensagem paginada 3"))
+                .andReturn();
+        JsonNode paginaAnterior = objectMapper.readTree(anteriores.getResponse().getContentAsString());
+
+        // Ressincronizar a partir da mensagem 3: so chegam 4 e 5
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("afterId", paginaAnterior.get("afterId").asText()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(2))
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Mensagem paginada 4"))
+                .andExpect(jsonPath("$.temPosteriores").value(false));
+
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("beforeId", "1")
+                        .param("afterId", "1"))
+                .andExpect(status().isBadRequest());
+
+        System.out.println("✅ Histórico paginado por cursor funcionando");
+    }
+
+    @Test
+    @Order(42)
+    @DisplayName("5.3 - Marcar como lidas com marca d'água, em UPDATE único")
+    void deveMarcarMensagensComoLidasEmLote() throws Exception {
+        MvcResult historico = mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andReturn();
+        JsonNode itens = objectMapper.readTree(historico.getResponse().getContentAsString()).get("itens");
+        long terceiraId = itens.get(2).get("id").asLong();
+        long ultimaId = itens.get(4).get("id").asLong();
+
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        estatisticas.clear();
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("ateId", String.valueOf(terceiraId)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantidade").value(3))
+                .andExpect(jsonPath("$.ateMensagemId").value(terceiraId));
+        long statementsComTres = estatisticas.getPrepareStatementCount();
+
+        estatisticas.clear();
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenPrestador))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantidade").value(2))
+                .andExpect(jsonPath("$.ateMensagemId").value(ultimaId));
+        // Com ou sem ateId, uma consulta para a marca d'agua (o teto ou a ultima nao lida); nenhuma por mensagem
+        Assertions.assertEquals(statementsComTres, estatisticas.getPrepareStatementCount());
+
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenPrestador))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantidade").value(0));
+
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[*].lida").value(Matchers.everyItem(Matchers.is(true))));
+
+        System.out.println("✅ Leitura em lote funcionando");
+    }
+
+    @Test
+    @Order(43)
+    @DisplayName("5.4 - Autorização do chat usa o cache de participantes, sem carregar o pedido")
+    void chatDeveAutorizarSemCarregarPedido() throws Exception {
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"conteudo\": \"Autorizado pelo cache\"}"))
+                .andExpect(status().is2xxSuccessful());
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "1"))
+                .andExpect(status().isOk());
+
+        Assertions.assertEquals(0, estatisticas.getEntityStatistics(
+                PedidoServico.class.getName()).getLoadCount());
+
+        mockMvc.perform(get("/pedidos/999999/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isNotFound());
+
+        System.out.println("✅ Participantes do pedido servidos da memória");
+    }
+
+    @Test
+    @Order(44)
+    @DisplayName("5.5 - Confirmações de leitura do WebSocket viram um único UPDATE por janela")
+    void leiturasDevemSerAgregadas() throws Exception {
+        long[] ids = new long[3];
+        for (int i = 0; i < ids.length; i++) {
+            MvcResult enviada = mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                            .header("Authorization", "Bearer " + tokenCliente)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"conteudo\": \"Leitura agregada " + i + "\"}"))
+                    .andExpect(status().is2xxSuccessful())
+                    .andReturn();
+            ids[i] = objectMapper.readTree(enviada.getResponse().getContentAsString()).get("id").asLong();
+        }
+
+        // Fora de ordem, como chegam ao rolar a tela: vale a maior
+        leiturasAgregador.registrar(pedidoId, prestadorId, ids[1]);
+        leiturasAgregador.registrar(pedidoId, prestadorId, ids[2]);
+        leiturasAgregador.registrar(pedidoId, prestadorId, ids[0]);
+
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+        leiturasAgregador.descarregar();
+        // Teto da marca (ultima recebida), UPDATE da marca d'agua, UPDATE das mensagens, UPDATE do contador
+        // de nao lidas e, depois do commit, a leitura do contador para o push
+        Assertions.assertEquals(5, estatisticas.getPrepareStatementCount());
+
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("limit", "3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[*].lida").value(Matchers.everyItem(Matchers.is(true))));
+
+        // Nada pendente: a proxima janela nao toca no banco
+        estatisticas.clear();
+        leiturasAgregador.descarregar();
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+
+        System.out.println("✅ Confirmações de leitura agregadas");
+    }
+
+    @Test
+    @Order(45)
+    @DisplayName("5.6 - Digitando: só mudanças de estado são publicadas, sem acessar o banco")
+    void digitandoDeveSerFiltradoSemBanco() {
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+
+        Assertions.assertTrue(digitandoDebouncer.receber("sessao-e2e", pedidoId, clienteId, "Cliente", true));
+        // Repetir o mesmo estado nao publica de novo
+        Assertions.assertFalse(digitandoDebouncer.receber("sessao-e2e", pedidoId, clienteId, "Cliente", true));
+        Assertions.assertFalse(digitandoDebouncer.receber("sessao-e2e", pedidoId, clienteId, "Cliente", true));
+        // Mudanca dentro do intervalo fica pendente para a proxima verificacao
+        Assertions.assertFalse(digitandoDebouncer.receber("sessao-e2e", pedidoId, clienteId, "Cliente", false));
+        // Outra sessao tem o seu proprio estado
+        Assertions.assertTrue(digitandoDebouncer.receber("sessao-e2e-2", pedidoId, prestadorId, "Prestador", true));
+
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+
+        System.out.println("✅ Indicador de digitação filtrado em memória");
+    }
+
+    @Test
+    @Order(46)
+    @DisplayName("5.7 - Write-behind: mensagem do WebSocket tem id na hora e é gravada em lote")
+    void mensagensTempoRealDevemSerGravadasEmLote() throws Exception {
+        var usuariosCarregados = entityManagerFactory.unwrap(SessionFactory.class).getStatistics()
+                .getEntityStatistics(Usuario.class.getName());
+        long carregadosAntes = 0;
+        long[] ids = new long[5];
+        for (int i = 0; i < ids.length; i++) {
+            var mensagem = mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "Write-behind " + i);
+            ids[i] = mensagem.id();
+            Assertions.assertEquals("Cliente E2E Test", mensagem.remetenteNome());
+            if (i > 0) {
+                Assertions.assertTrue(ids[i] > ids[i - 1]);
+            } else {
+                carregadosAntes = usuariosCarregados.getLoadCount();
+            }
+        }
+        // Remetente em cache: depois do primeiro envio, nenhum SELECT em usuarios
+        Assertions.assertEquals(carregadosAntes, usuariosCarregados.getLoadCount());
+
+        var params = new MapSqlParameterSource()
+                .addValue("ids", Arrays.stream(ids).boxed().toList());
+        long limite = System.currentTimeMillis() + 5_000;
+        Integer gravadas = 0;
+        while (gravadas < ids.length && System.currentTimeMillis() < limite) {
+            Thread.sleep(50);
+            gravadas = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM mensagem WHERE id IN (:ids)", params, Integer.class);
+        }
+        Assertions.assertEquals(ids.length, gravadas);
+
+        // Ids do Hibernate (REST) e do write-behind saem da mesma sequence, sem colidir e em ordem de envio
+        MvcResult rest = mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"conteudo\": \"Depois do write-behind\"}"))
+                .andExpect(status().isOk())
+                .andReturn();
+        long idRest = objectMapper.readTree(rest.getResponse().getContentAsString()).get("id").asLong();
+        Assertions.assertTrue(idRest > ids[ids.length - 1]);
+        Assertions.assertTrue(mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "Depois do REST").id() > idRest);
+
+        // Foto nova vale a partir do envio seguinte
+        for (String foto : List.of("http://foto.com/cliente-nova.jpg", "http://foto.com/cliente.jpg")) {
+            mockMvc.perform(patch("/usuarios/me/foto")
+                            .header("Authorization", "Bearer " + tokenCliente)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"url\": \"" + foto + "\"}"))
+                    .andExpect(status().isNoContent());
+            Assertions.assertEquals(foto,
+                    mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "Foto " + foto).remetenteFotoUrl());
+        }
+
+        System.out.println("✅ Write-behind de mensagens funcionando");
+    }
+
+    @Test
+    @Order(47)
+    @DisplayName("5.8 - WebSocket: cliente lento com o buffer cheio perde as mensagens antigas, sem ser desconectado")
+    void clienteLentoDeveTerMensagensDescartadas() throws Exception {
+        var handler = applicationContext.getBean("subProtocolWebSocketHandler", SubProtocolWebSocketHandler.class);
+        Assertions.assertEquals(512 * 1024, handler.getSendBufferSizeLimit());
+
+        // Cliente que parou de ler: o primeiro envio fica preso no socket ate ser liberado
+        var liberar = new CountDownLatch(1);
+        var entregues = new CopyOnWriteArrayList<String>();
+        WebSocketSession sessao = Mockito.mock(WebSocketSession.class);
+        Mockito.when(sessao.getId()).thenReturn("sessao-lenta");
+        Mockito.when(sessao.isOpen()).thenReturn(true);
+        Mockito.when(sessao.getAttributes()).thenReturn(new HashMap<>());
+        Mockito.when(sessao.getTextMessageSizeLimit()).thenReturn(64 * 1024);
+        Mockito.doAnswer(invocacao -> {
+            if (entregues.isEmpty()) {
+                liberar.await(5, TimeUnit.SECONDS);
+            }
+            entregues.add(((TextMessage) invocacao.getArgument(0)).getPayload());
+            return null;
+        }).when(sessao).sendMessage(Mockito.any());
+        handler.afterConnectionEstablished(sessao);
+
+        // 12 mensagens de 100 KB com buffer de 512 KB: so as mais novas cabem
+        int total = 12;
+        IntFunction<Message<byte[]>> mensagem = i -> {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            accessor.setSessionId("sessao-lenta");
+            accessor.setSubscriptionId("sub-lenta");
+            accessor.setDestination("/topic/lenta");
+            byte[] payload = new byte[100 * 1024];
+            Arrays.fill(payload, (byte) 'x');
+            byte[] marca = ("mensagem-" + i + "-").getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(marca, 0, payload, 0, marca.length);
+            return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+        };
+        CompletableFuture<Void> primeira = CompletableFuture.runAsync(() -> handler.handleMessage(mensagem.apply(0)));
+        Mockito.verify(sessao, Mockito.timeout(2000)).sendMessage(Mockito.any());
+        for (int i = 1; i < total; i++) {
+            handler.handleMessage(mensagem.apply(i));
+        }
+        Mockito.verify(sessao, Mockito.never()).close(Mockito.any());
+
+        liberar.countDown();
+        primeira.get(5, TimeUnit.SECONDS);
+
+        Assertions.assertTrue(entregues.size() > 1 && entregues.size() < total,
+                "Entregues: " + entregues.size());
+        // Descarta as mais antigas do buffer: a ultima enviada sempre chega
+        Assertions.assertTrue(entregues.get(entregues.size() - 1).contains("mensagem-" + (total - 1) + "-"));
+        Mockito.verify(sessao, Mockito.never()).close(Mockito.any());
+
+        handler.afterConnectionClosed(sessao, CloseStatus.NORMAL);
+        System.out.println("✅ Cliente lento perde mensagens antigas e continua conectado");
+    }
+
+    @Test
+    @Order(48)
+    @DisplayName("5.9 - Cluster: envio local vai para o barramento; envio de outra instancia chega uma vez so")
+    void mensagensDevemCruzarInstanciasSemDuplicar() {
+        var bus = applicationContext.getBean(ClusterMessageBus.class);
+        var relay = applicationContext.getBean(ClusterBrokerRelay.class);
+        var messagingTemplate = applicationContext.getBean(
+                SimpMessagingTemplate.class);
+        var brokerChannel = applicationContext.getBean("brokerChannel",
+                SubscribableChannel.class);
+
+        var publicados = new CopyOnWriteArrayList<EnvelopeCluster>();
+        bus.assinar(publicados::add);
+        var entreguesLocalmente = new CopyOnWriteArrayList<Message<?>>();
+        MessageHandler captura = message -> {
+            if (message.getHeaders().containsKey(ClusterBrokerRelay.HEADER_ID)) {
+                entreguesLocalmente.add(message);
+            }
+        };
+        brokerChannel.subscribe(captura);
+        try {
+            messagingTemplate.convertAndSend("/topic/mensagens/" + pedidoId, Map.of("conteudo", "local"));
+            Assertions.assertEquals(1, publicados.size());
+            Assertions.assertEquals(relay.getInstanciaId(), publicados.get(0).origem());
+            Assertions.assertEquals("/topic/mensagens/" + pedidoId, publicados.get(0).destino());
+            Assertions.assertTrue(publicados.get(0).payload().contains("local"));
+            // O proprio envio volta pelo loopback e e ignorado
+            Assertions.assertTrue(entreguesLocalmente.isEmpty());
+
+            var remoto = new EnvelopeCluster("id-remoto-1", "outra-instancia",
+                    "/topic/mensagens/" + pedidoId, "application/json", "{\"conteudo\":\"remoto\"}");
+            bus.publicar(remoto);
+            bus.publicar(remoto);
+
+            Assertions.assertEquals(1, entreguesLocalmente.size());
+            Assertions.assertEquals("/topic/mensagens/" + pedidoId,
+                    SimpMessageHeaderAccessor.getDestination(entreguesLocalmente.get(0).getHeaders()));
+            // A copia recebida nao volta para o barramento
+            Assertions.assertEquals(3, publicados.size());
+        } finally {
+            brokerChannel.unsubscribe(captura);
+        }
+
+        System.out.println("✅ Fan-out entre instancias com deduplicacao");
+    }
+
+    @Test
+    @Order(49)
+    @DisplayName("5.10 - Caixa de entrada: nao lidas mantidas no envio e na leitura, numa consulta so")
+    void caixaDeEntradaDeveTrazerNaoLidasEPrevia() throws Exception {
+        var brokerChannel = applicationContext.getBean("brokerChannel",
+                SubscribableChannel.class);
+        var pushes = new CopyOnWriteArrayList<String>();
+        MessageHandler captura = message -> {
+            String destino = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (destino != null && destino.startsWith("/user/") && destino.endsWith("/queue/nao-lidas")
+                    && message.getPayload() instanceof byte[] payload) {
+                pushes.add(destino + " " + new String(payload, StandardCharsets.UTF_8));
+            }
+        };
+        brokerChannel.subscribe(captura);
+        try {
+            var params = new MapSqlParameterSource()
+                    .addValue("pedidoId", pedidoId)
+                    .addValue("usuarioId", prestadorId);
+            Integer naoLidasNoBanco = jdbcTemplate.queryForObject("""
+                    SELECT COUNT(*) FROM mensagem
+                    WHERE pedido_servico_id = :pedidoId AND lida = false AND remetente_id <> :usuarioId
+                    """, params, Integer.class);
+
+            mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                            .header("Authorization", "Bearer " + tokenCliente)
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"conteudo\": \"Previa da caixa de entrada\"}"))
+                    .andExpect(status().isOk());
+            Assertions.assertEquals(1, pushes.size());
+            Assertions.assertTrue(pushes.get(0).contains("\"naoLidas\":" + (naoLidasNoBanco + 1)));
+
+            Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+            estatisticas.clear();
+            mockMvc.perform(get("/pedidos/conversas")
+                            .header("Authorization", "Bearer " + tokenPrestador))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].naoLidas").value(naoLidasNoBanco + 1))
+                    .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].ultimaMensagemPrevia")
+                            .value("Previa da caixa de entrada"))
+                    .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].ultimaMensagemRemetenteId")
+                            .value(clienteId.intValue()));
+            Assertions.assertEquals(1, estatisticas.getPrepareStatementCount());
+
+            // Quem enviou ve a mesma previa, sem nao lidas novas
+            mockMvc.perform(get("/pedidos/conversas")
+                            .header("Authorization", "Bearer " + tokenCliente))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].ultimaMensagemPrevia")
+                            .value("Previa da caixa de entrada"));
+
+            mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                            .header("Authorization", "Bearer " + tokenPrestador))
+                    .andExpect(status().isOk());
+            Assertions.assertEquals(2, pushes.size());
+            Assertions.assertTrue(pushes.get(1).contains("\"naoLidas\":0"));
+
+            mockMvc.perform(get("/pedidos/conversas")
+                            .header("Authorization", "Bearer " + tokenPrestador))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].naoLidas").value(0));
+        } finally {
+            brokerChannel.unsubscribe(captura);
+        }
+
+        System.out.println("✅ Caixa de entrada com contadores de nao lidas");
+    }
+
+    @Test
+    @Order(53)
+    @DisplayName("5.11 - Historico recente: conversa ativa servida da memoria, atualizada no envio e na leitura")
+    void historicoRecenteDeveVirDaMemoria() throws Exception {
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        String primeira = mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        estatisticas.clear();
+        String repetida = mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "5"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+        Assertions.assertEquals(objectMapper.readTree(primeira), objectMapper.readTree(repetida));
+
+        JsonNode pagina = objectMapper.readTree(primeira);
+        long primeiroId = pagina.get("beforeId").asLong();
+        long ultimoId = pagina.get("afterId").asLong();
+
+        // Rolar para cima dentro do buffer
+        estatisticas.clear();
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("beforeId", String.valueOf(primeiroId))
+                        .param("limit", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(2))
+                .andExpect(jsonPath("$.afterId").value(Matchers.lessThan(primeiroId), Long.class))
+                .andExpect(jsonPath("$.temPosteriores").value(true));
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+
+        // Envio entra no buffer: a ressincronizacao depois de reconectar nao vai ao banco
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"conteudo\": \"Nova no buffer\"}"))
+                .andExpect(status().isOk());
+        estatisticas.clear();
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .param("afterId", String.valueOf(ultimoId)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(1))
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Nova no buffer"))
+                .andExpect(jsonPath("$.itens[0].lida").value(false))
+                .andExpect(jsonPath("$.temPosteriores").value(false));
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+
+        // Leitura tambem: a mensagem aparece lida sem recarregar
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk());
+        estatisticas.clear();
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Nova no buffer"))
+                .andExpect(jsonPath("$.itens[0].lida").value(true));
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+
+        // Alteracao em outra instancia: o buffer e descartado e a proxima leitura volta ao banco
+        applicationContext.getBean(ClusterMessageBus.class).publicar(
+                new EnvelopeCluster("invalida-1", "outra-instancia",
+                        HistoricoRecenteCache.DESTINO_INVALIDACAO + pedidoId, null, ""));
+        estatisticas.clear();
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Nova no buffer"));
+        Assertions.assertEquals(1, estatisticas.getPrepareStatementCount());
+
+        System.out.println("✅ Historico recente servido da memoria");
+    }
+
+    @Test
+    @Order(54)
+    @DisplayName("5.12 - Envio pelo WebSocket: ack so para a sessao, broadcast depois do commit fora da thread de entrada")
+    void envioDeveConfirmarESoPublicarDepoisDoCommit() throws Exception {
+        var brokerChannel = applicationContext.getBean("brokerChannel",
+                SubscribableChannel.class);
+        var inboundChannel = applicationContext.getBean("clientInboundChannel",
+                MessageChannel.class);
+        var bus = applicationContext.getBean(ClusterMessageBus.class);
+        var transactionTemplate = new TransactionTemplate(
+                applicationContext.getBean(PlatformTransactionManager.class));
+
+        var publicados = new CopyOnWriteArrayList<EnvelopeCluster>();
+        bus.assinar(publicados::add);
+        var acks = new CopyOnWriteArrayList<Message<?>>();
+        var broadcasts = new CopyOnWriteArrayList<String>();
+        var threadsBroadcast = new CopyOnWriteArrayList<String>();
+        MessageHandler captura = message -> {
+            String destino = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (destino == null || !(message.getPayload() instanceof byte[] payload)) {
+                return;
+            }
+            if (destino.equals("/user/" + EMAIL_CLIENTE + "/queue/ack")) {
+                acks.add(message);
+            } else if (destino.equals("/topic/mensagens/" + pedidoId)) {
+                broadcasts.add(new String(payload, StandardCharsets.UTF_8));
+                threadsBroadcast.add(Thread.currentThread().getName());
+            }
+        };
+        brokerChannel.subscribe(captura);
+        try {
+            var timer = meterRegistry.find("easybiz.chat.envio.latencia").tag("canal", "websocket").timer();
+            Assertions.assertNotNull(timer);
+            long medidasAntes = timer.count();
+
+            var stomp = StompHeaderAccessor.create(StompCommand.SEND);
+            stomp.setDestination("/app/chat/" + pedidoId);
+            stomp.setSessionId("sessao-ack-e2e");
+            stomp.setSessionAttributes(new HashMap<>());
+            stomp.setUser(new UsernamePasswordAuthenticationToken(
+                    new UsuarioAutenticado(clienteId, EMAIL_CLIENTE), null, List.of()));
+            stomp.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            stomp.setLeaveMutable(true);
+            inboundChannel.send(MessageBuilder.createMessage(
+                    "{\"conteudo\": \"Envio com ack\", \"idCliente\": \"tmp-1\"}"
+                            .getBytes(StandardCharsets.UTF_8),
+                    stomp.getMessageHeaders()));
+
+            long limite = System.currentTimeMillis() + 5_000;
+            while ((acks.isEmpty() || broadcasts.isEmpty()) && System.currentTimeMillis() < limite) {
+                Thread.sleep(20);
+            }
+            Assertions.assertEquals(1, acks.size());
+            Assertions.assertEquals("sessao-ack-e2e",
+                    SimpMessageHeaderAccessor.getSessionId(acks.get(0).getHeaders()));
+            JsonNode ack = objectMapper.readTree((byte[]) acks.get(0).getPayload());
+            Assertions.assertEquals("tmp-1", ack.get("idCliente").asText());
+            Assertions.assertFalse(ack.has("conteudo"));
+
+            Assertions.assertEquals(1, broadcasts.size());
+            JsonNode mensagem = objectMapper.readTree(broadcasts.get(0));
+            Assertions.assertEquals(ack.get("mensagemId").asLong(), mensagem.get("id").asLong());
+            Assertions.assertEquals("Envio com ack", mensagem.get("conteudo").asText());
+            Assertions.assertTrue(threadsBroadcast.get(0).startsWith("chat-broadcast-"));
+            Assertions.assertEquals(medidasAntes + 1, timer.count());
+
+            // O ack e da sessao: nao vai para as outras instancias; o broadcast vai
+            Assertions.assertTrue(publicados.stream().noneMatch(e -> e.destino().endsWith("/queue/ack")));
+            Assertions.assertTrue(publicados.stream().anyMatch(e -> e.destino().equals("/topic/mensagens/" + pedidoId)));
+
+            // Transacao desfeita: nada e publicado
+            transactionTemplate.executeWithoutResult(status -> {
+                mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "Desfeita");
+                status.setRollbackOnly();
+            });
+            Thread.sleep(200);
+            Assertions.assertEquals(1, broadcasts.size());
+        } finally {
+            brokerChannel.unsubscribe(captura);
+        }
+
+        System.out.println("✅ Ack para quem enviou e broadcast depois do commit");
+    }
+
+    @Test
+    @Order(55)
+    @DisplayName("5.13 - SUBSCRIBE: topicos do pedido so para participantes, com ACL por sessao")
+    void assinaturaDeveExigirParticipacao() {
+        var inboundChannel = applicationContext.getBean("clientInboundChannel",
+                MessageChannel.class);
+        var assinaturas = applicationContext.getBean(AssinaturasAutorizadas.class);
+        var participante = new UsuarioAutenticado(prestadorId, EMAIL_PRESTADOR);
+        var intruso = new UsuarioAutenticado(999_999L, "intruso@teste.com");
+
+        BiConsumer<UsuarioAutenticado, String> assinar = (usuario, destino) -> {
+            var stomp = StompHeaderAccessor.create(StompCommand.SUBSCRIBE);
+            stomp.setDestination(destino);
+            stomp.setSubscriptionId("sub-" + destino.hashCode());
+            stomp.setSessionId("sessao-acl-" + usuario.id());
+            stomp.setSessionAttributes(new HashMap<>());
+            stomp.setUser(new UsernamePasswordAuthenticationToken(usuario, null, List.of()));
+            stomp.setLeaveMutable(true);
+            inboundChannel.send(MessageBuilder.createMessage(new byte[0], stomp.getMessageHeaders()));
+        };
+
+        var consultas = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "consulta");
+        var daAcl = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "acl");
+        var negadas = meterRegistry.counter("easybiz.websocket.assinaturas", "resultado", "negada");
+        double consultasAntes = consultas.count();
+        double daAclAntes = daAcl.count();
+        double negadasAntes = negadas.count();
+
+        assinar.accept(participante, "/topic/mensagens/" + pedidoId);
+        assinar.accept(participante, "/topic/mensagens/" + pedidoId + "/digitando");
+        assinar.accept(participante, "/user/queue/nao-lidas");
+        Assertions.assertEquals(consultasAntes + 1, consultas.count());
+
+        // Reassinar (ex.: voltou para a tela do chat) vem da ACL da sessao, sem banco
+        Statistics estatisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        estatisticas.clear();
+        assinar.accept(participante, "/topic/mensagens/" + pedidoId);
+        Assertions.assertEquals(0, estatisticas.getPrepareStatementCount());
+        Assertions.assertEquals(daAclAntes + 2, daAcl.count());
+
+        for (String destino : List.of("/topic/mensagens/" + pedidoId,
+                "/topic/mensagens/999999",
+                "/topic/outro",
+                "/queue/nao-lidas-usersessao-acl-" + prestadorId)) {
+            var erro = Assertions.assertThrows(MessageDeliveryException.class,
+                    () -> assinar.accept(intruso, destino));
+            Assertions.assertInstanceOf(ForbiddenException.class, erro.getCause());
+        }
+        Assertions.assertEquals(negadasAntes + 4, negadas.count());
+
+        // Negacao tambem fica na ACL: repetir nao consulta de novo
+        double consultasDepois = consultas.count();
+        Assertions.assertThrows(MessageDeliveryException.class,
+                () -> assinar.accept(intruso, "/topic/mensagens/" + pedidoId));
+        Assertions.assertEquals(consultasDepois, consultas.count());
+
+        int sessoes = assinaturas.sessoes();
+        for (Long usuarioId : List.of(prestadorId, 999_999L)) {
+            assinaturas.onDesconexao(new SessionDisconnectEvent(this, MessageBuilder.withPayload(new byte[0]).build(),
+                    "sessao-acl-" + usuarioId, CloseStatus.NORMAL));
+        }
+        Assertions.assertEquals(sessoes - 2, assinaturas.sessoes());
+
+        System.out.println("✅ Assinaturas do chat restritas aos participantes");
+    }
+
+    @Test
+    @Order(56)
+    @DisplayName("5.14 - Write-behind: leitura confirmada antes da gravacao entra lida e nao soma nao lidas")
+    void leituraAntesDaGravacaoDeveValer() throws Exception {
+        var brokerChannel = applicationContext.getBean("brokerChannel",
+                SubscribableChannel.class);
+        var inboundChannel = applicationContext.getBean("clientInboundChannel",
+                MessageChannel.class);
+        var acks = new CopyOnWriteArrayList<Message<?>>();
+        MessageHandler captura = message -> {
+            String destino = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+            if (("/user/" + EMAIL_CLIENTE + "/queue/ack").equals(destino)) {
+                acks.add(message);
+            }
+        };
+        brokerChannel.subscribe(captura);
+        long mensagemId;
+        try {
+            var stomp = StompHeaderAccessor.create(StompCommand.SEND);
+            stomp.setDestination("/app/chat/" + pedidoId);
+            stomp.setSessionId("sessao-leitura-e2e");
+            stomp.setSessionAttributes(new HashMap<>());
+            stomp.setUser(new UsernamePasswordAuthenticationToken(
+                    new UsuarioAutenticado(clienteId, EMAIL_CLIENTE), null, List.of()));
+            stomp.setContentType(MimeTypeUtils.APPLICATION_JSON);
+            stomp.setLeaveMutable(true);
+            inboundChannel.send(MessageBuilder.createMessage(
+                    "{\"conteudo\": \"Lida antes de gravar\", \"idCliente\": \"tmp-lida\"}"
+                            .getBytes(StandardCharsets.UTF_8),
+                    stomp.getMessageHeaders()));
+
+            long limite = System.currentTimeMillis() + 5_000;
+            while (acks.isEmpty() && System.currentTimeMillis() < limite) {
+                Thread.sleep(5);
+            }
+            Assertions.assertEquals(1, acks.size());
+            mensagemId = objectMapper.readTree((byte[]) acks.get(0).getPayload()).get("mensagemId").asLong();
+        } finally {
+            brokerChannel.unsubscribe(captura);
+        }
+
+        var params = new MapSqlParameterSource()
+                .addValue("id", mensagemId)
+                .addValue("pedidoId", pedidoId)
+                .addValue("usuarioId", prestadorId);
+        // O prestador confirma assim que recebe: a mensagem ainda esta na fila do write-behind
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mensagem WHERE id = :id", params, Integer.class));
+        leiturasAgregador.registrar(pedidoId, prestadorId, mensagemId);
+        leiturasAgregador.descarregar();
+
+        long limite = System.currentTimeMillis() + 5_000;
+        Integer gravadas = 0;
+        while (gravadas == 0 && System.currentTimeMillis() < limite) {
+            Thread.sleep(50);
+            gravadas = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM mensagem WHERE id = :id", params, Integer.class);
+        }
+        Assertions.assertEquals(1, gravadas);
+        Assertions.assertEquals(Boolean.TRUE, jdbcTemplate.queryForObject(
+                "SELECT lida FROM mensagem WHERE id = :id", params, Boolean.class));
+        Assertions.assertEquals(0, jdbcTemplate.queryForObject("""
+                SELECT quantidade FROM contador_nao_lidas
+                WHERE pedido_servico_id = :pedidoId AND usuario_id = :usuarioId
+                """, params, Integer.class));
+
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[0].id").value(mensagemId))
+                .andExpect(jsonPath("$.itens[0].lida").value(true));
+
+        System.out.println("✅ Leitura confirmada antes do write-behind preservada");
+    }
+
+    @Test
+    @Order(57)
+    @DisplayName("5.15 - Caixa de entrada: envio que commita por ultimo nao volta a previa para uma mensagem mais antiga")
+    void previaDeveSerDaMensagemMaisNova() throws Exception {
+        var contadores = applicationContext.getBean(ContadoresNaoLidas.class);
+        var transactionTemplate = new TransactionTemplate(
+                applicationContext.getBean(PlatformTransactionManager.class));
+
+        MvcResult antes = mockMvc.perform(get("/pedidos/conversas")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk())
+                .andReturn();
+        long ultimaId = -1;
+        for (JsonNode conversa : objectMapper.readTree(antes.getResponse().getContentAsString())) {
+            if (conversa.get("pedidoId").asLong() == pedidoId) {
+                ultimaId = conversa.get("ultimaMensagemId").asLong();
+            }
+        }
+        Assertions.assertTrue(ultimaId > 0);
+
+        // Uma mensagem enviada antes da atual, cuja transacao commitou depois
+        long anterior = ultimaId - 1;
+        transactionTemplate.executeWithoutResult(status -> contadores.registrarEnvio(
+                pedidoId, prestadorId, 0, anterior, LocalDateTime.now().minusMinutes(5)));
+
+        mockMvc.perform(get("/pedidos/conversas")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].ultimaMensagemId")
+                        .value(Matchers.contains(Matchers.equalTo((int) ultimaId))));
+
+        System.out.println("✅ Previa da caixa de entrada so avanca");
+    }
+
+    @Test
+    @Order(58)
+    @DisplayName("2.12 - Categoria gravada como digitada; so o termo inteiro vira a chave canonica")
+    void categoriaGravadaDeveSerDoTermoInteiro() throws Exception {
+        Assertions.assertEquals("Barbearia", criarNegocioDeCategoria("Barbearia"));
+        Assertions.assertEquals("barbearia do joão", criarNegocioDeCategoria("barbearia do joão"));
+
+        Assertions.assertEquals("BARBEIRO", chaveDaCategoria("Barbearia"));
+        // Contem um sinonimo, mas como um todo nao e uma categoria: a chave e a forma normalizada
+        Assertions.assertEquals("BARBEARIA DO JOAO", chaveDaCategoria("barbearia do joão"));
+
+        System.out.println("✅ Categoria gravada sem casamento por palavra");
+    }
+
+    @Test
+    @Order(59)
+    @DisplayName("2.13 - Chave da categoria sem prefixo nem aproximacao: parecida com outra nao troca de categoria")
+    void chaveDaCategoriaNaoDeveSerAproximada() throws Exception {
+        for (String categoria : List.of("Eletrônica", "Técnica", "Pintora")) {
+            Assertions.assertEquals(categoria, criarNegocioDeCategoria(categoria));
+        }
+        Assertions.assertEquals("ELETRONICA", chaveDaCategoria("Eletrônica"));
+        Assertions.assertEquals("TECNICA", chaveDaCategoria("Técnica"));
+        Assertions.assertEquals("PINTORA", chaveDaCategoria("Pintora"));
+
+        // Cada uma acha o proprio negocio, e os filtros das vizinhas nao o incluem
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-3.1190")
+                        .param("lon", "-60.0217")
+                        .param("busca", "eletrônica"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[*].nome").value(Matchers.contains("Categoria E2E Eletrônica")));
+
+        mockMvc.perform(get("/negocios/clusters")
+                        .param("latMin", "-4.0")
+                        .param("latMax", "-3.0")
+                        .param("lonMin", "-61.0")
+                        .param("lonMax", "-60.0")
+                        .param("zoom", "10")
+                        .param("categoria", "eletricista"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.length()").value(0));
+
+        mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-3.1190")
+                        .param("lon", "-60.0217")
+                        .param("busca", "pintor"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens.length()").value(0));
+
+        System.out.println("✅ Chave da categoria sem aproximacao");
+    }
+
+    private String criarNegocioDeCategoria(String categoria) throws Exception {
+        MvcResult result = mockMvc.perform(post("/negocios")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .content("""
+                            {
+                                "nome": "Categoria E2E %s",
+                                "categoria": "%s",
+                                "latitude": -3.1190,
+                                "longitude": -60.0217,
+                                "enderecoCompleto": "Manaus, AM"
+                            }
+                            """.formatted(categoria, categoria)))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("categoria").asText();
+    }
+
+    private String chaveDaCategoria(String categoria) {
+        return jdbcTemplate.queryForObject("SELECT categoria_chave FROM negocios WHERE nome = :nome",
+                Map.of("nome", "Categoria E2E " + categoria), String.class);
+    }
+
+    @Test
+    @Order(60)
+    @DisplayName("2.14 - k mais proximos corretos com alteracoes aplicadas sem reconstruir a arvore")
+    void knnDeveRefletirAlteracoesIncrementais() {
+        var knn = applicationContext.getBean(KnnIndex.class);
+        var aleatorio = new Random(42);
+        var atuais = new HashMap<Long, NegocioIndexado>();
+        LongFunction<NegocioIndexado> novo = id ->
+                new NegocioIndexado(id, "Knn " + id, "KNN E2E", "KNN E2E",
+                        -10 + aleatorio.nextDouble(), -50 + aleatorio.nextDouble(), 0.0, null, 0, null);
+        LongConsumer colocar = id -> {
+            var negocio = novo.apply(id);
+            atuais.put(id, negocio);
+            knn.atualizar(negocio);
+        };
+        LongConsumer remover = id -> {
+            atuais.remove(id);
+            knn.remover(id);
+        };
+        Runnable conferir = () -> {
+            for (int consulta = 0; consulta < 20; consulta++) {
+                double lat = -10 + aleatorio.nextDouble();
+                double lon = -50 + aleatorio.nextDouble();
+                var esperados = atuais.values().stream()
+                        .sorted(Comparator.comparingDouble(
+                                n -> GeoMath.distanciaKm(lat, lon, n.latitude(), n.longitude())))
+                        .limit(10)
+                        .map(NegocioIndexado::id)
+                        .toList();
+                var obtidos = knn.buscarMaisProximos(lat, lon, 10, "KNN E2E").stream()
+                        .map(p -> p.negocio().id())
+                        .toList();
+                Assertions.assertEquals(esperados, obtidos);
+            }
+        };
+
+        long base = 9_000_000L;
+        for (long i = 0; i < 400; i++) {
+            colocar.accept(base + i);
+        }
+        conferir.run();
+
+        // Poucas alteracoes (abaixo do limite): recentes + lapides sobre a arvore existente
+        for (long i = 0; i < 8; i++) {
+            colocar.accept(base + i);
+            remover.accept(base + 100 + i);
+            colocar.accept(base + 1_000 + i);
+        }
+        conferir.run();
+
+        // Muitas alteracoes: a categoria e reconstruida
+        for (long i = 200; i < 300; i++) {
+            colocar.accept(base + i);
+        }
+        conferir.run();
+
+        atuais.keySet().forEach(knn::remover);
+        Assertions.assertTrue(knn.buscarMaisProximos(-9.5, -49.5, 10, "KNN E2E").isEmpty());
+
+        System.out.println("✅ KD-tree com alteracoes incrementais");
+    }
+
+    @Test
+    @Order(61)
+    @DisplayName("5.16 - Marca d'agua de leitura nao passa da ultima mensagem recebida")
+    void marcaDeLeituraDeveSerLimitadaAoRecebido() throws Exception {
+        MvcResult enviada = mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"conteudo\": \"Antes da marca\"}"))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn();
+        long recebida = objectMapper.readTree(enviada.getResponse().getContentAsString()).get("id").asLong();
+
+        // Id muito alem do que existe: a marca fica na ultima mensagem recebida
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("ateId", String.valueOf(recebida + 1_000_000)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.ateMensagemId").value(recebida));
+
+        // Mensagem enviada depois continua nao lida, no historico e na caixa de entrada
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"conteudo\": \"Depois da marca\"}"))
+                .andExpect(status().is2xxSuccessful());
+
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.itens[0].conteudo").value("Depois da marca"))
+                .andExpect(jsonPath("$.itens[0].lida").value(false));
+
+        mockMvc.perform(get("/pedidos/conversas")
+                        .header("Authorization", "Bearer " + tokenPrestador))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[?(@.pedidoId == " + pedidoId + ")].naoLidas").value(1));
+
+        mockMvc.perform(post("/pedidos/" + pedidoId + "/mensagens/lidas")
+                        .header("Authorization", "Bearer " + tokenPrestador))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.quantidade").value(1));
+
+        System.out.println("✅ Marca d'agua limitada ao recebido");
+    }
+
+    @Test
+    @Order(62)
+    @DisplayName("2.15 - Busca durante o aquecimento do indice segue as mesmas regras de termo")
+    void buscaSemIndiceDeveSeguirAsMesmasRegras() throws Exception {
+        var indiceTextual = applicationContext.getBean(IndiceTextual.class);
+        List<String> termos = List.of("barbearia", "joão", "barbearia do joão", "eletrônica", "Manaus", "pintor");
+
+        Map<String, List<String>> comIndice = new HashMap<>();
+        for (String termo : termos) {
+            comIndice.put(termo, nomesNaBusca(termo));
+        }
+        Assertions.assertEquals(List.of("Categoria E2E barbearia do joão"), comIndice.get("joão"));
+        Assertions.assertEquals(5, comIndice.get("Manaus").size());
+
+        ReflectionTestUtils.setField(indiceTextual, "pronto", false);
+        try {
+            for (String termo : termos) {
+                Assertions.assertEquals(comIndice.get(termo), nomesNaBusca(termo), termo);
+            }
+        } finally {
+            ReflectionTestUtils.setField(indiceTextual, "pronto", true);
+        }
+
+        System.out.println("✅ Busca de aquecimento com as regras do indice");
+    }
+
+    private List<String> nomesNaBusca(String termo) throws Exception {
+        MvcResult result = mockMvc.perform(get("/negocios/busca")
+                        .param("lat", "-3.1190")
+                        .param("lon", "-60.0217")
+                        .param("busca", termo))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<String> nomes = new ArrayList<>();
+        objectMapper.readTree(result.getResponse().getContentAsString()).get("itens")
+                .forEach(item -> nomes.add(item.get("nome").asText()));
+        return nomes;
+    }
+
+    @Test
+    @Order(66)
+    @DisplayName("2.16 - Cache de candidatos: criar e mover negocio na celula cacheada aparece na proxima busca")
+    void cacheDeCandidatosDeveVerAlteracoesNaCelula() throws Exception {
+        // Porto Alegre: nenhum outro negocio do teste num raio de 30 km
+        double lat = -30.0346;
+        double lon = -51.2177;
+        long longe = criarNegocioEm("Faxina E2E Longe", -8.0476, -34.8770);
+
+        double hits = contador("easybiz.busca.cache", "resultado", "hit");
+        double misses = contador("easybiz.busca.cache", "resultado", "miss");
+        double invalidacoes = contador("easybiz.busca.cache.evictions", "motivo", "invalidacao");
+
+        Assertions.assertEquals(List.of(), idsNaBusca(lat, lon, "faxina"));
+        Assertions.assertEquals(List.of(), idsNaBusca(lat + 0.001, lon + 0.001, "faxina"));
+        Assertions.assertEquals(misses + 1, contador("easybiz.busca.cache", "resultado", "miss"));
+        Assertions.assertEquals(hits + 1, contador("easybiz.busca.cache", "resultado", "hit"));
+
+        // Criado dentro da celula: invalida a entrada e aparece na proxima busca
+        long perto = criarNegocioEm("Faxina E2E Perto", lat + 0.002, lon + 0.002);
+        Assertions.assertEquals(invalidacoes + 1, contador("easybiz.busca.cache.evictions", "motivo", "invalidacao"));
+        Assertions.assertEquals(List.of(perto), idsNaBusca(lat, lon, "faxina"));
+        Assertions.assertEquals(misses + 2, contador("easybiz.busca.cache", "resultado", "miss"));
+
+        // Movido para dentro da cobertura: entra; movido para fora: sai
+        moverNegocio(longe, lat - 0.003, lon - 0.003);
+        Assertions.assertEquals(invalidacoes + 2, contador("easybiz.busca.cache.evictions", "motivo", "invalidacao"));
+        Assertions.assertEquals(Set.of(perto, longe), Set.copyOf(idsNaBusca(lat, lon, "faxina")));
+        moverNegocio(perto, -8.0476, -34.8770);
+        Assertions.assertEquals(invalidacoes + 3, contador("easybiz.busca.cache.evictions", "motivo", "invalidacao"));
+        Assertions.assertEquals(List.of(longe), idsNaBusca(lat, lon, "faxina"));
+        Assertions.assertEquals(List.of(longe), idsNaBusca(lat, lon, "faxina"));
+        Assertions.assertEquals(hits + 2, contador("easybiz.busca.cache", "resultado", "hit"));
+        Assertions.assertEquals(misses + 4, contador("easybiz.busca.cache", "resultado", "miss"));
+
+        // Tamanho e TTL numa instancia propria: uma entrada so, expirada assim que gravada
+        var registro = new SimpleMeterRegistry();
+        var cache = new BuscaCache(applicationContext.getBean(GeoGridIndex.class), registro, 0.01, 1, 0);
+        cache.candidatos(lat, lon, 30.0, "FAXINA");
+        cache.candidatos(lat + 0.5, lon + 0.5, 30.0, "FAXINA");
+        Assertions.assertEquals(1, registro.counter("easybiz.busca.cache.evictions", "motivo", "tamanho").count());
+        Assertions.assertEquals(1, cache.tamanho());
+        cache.candidatos(lat + 0.5, lon + 0.5, 30.0, "FAXINA");
+        Assertions.assertEquals(3, registro.counter("easybiz.busca.cache", "resultado", "miss").count());
+        cache.removerExpiradas();
+        Assertions.assertEquals(1, registro.counter("easybiz.busca.cache.evictions", "motivo", "ttl").count());
+        Assertions.assertEquals(0, cache.tamanho());
+
+        System.out.println("✅ Cache de candidatos invalidado na celula, com metricas");
+    }
+
+    @Test
+    @Order(67)
+    @DisplayName("2.17 - Ranking combinado: distancia, nota e recencia em conflito; cursor atravessa empates")
+    void rankingDeveCombinarFatoresEPaginarEmpates() {
+        var ranking = new RankingBusca(0.4, 0.35, 0.15, 0.1, 50, 90);
+        LocalDateTime agora = LocalDateTime.now();
+        List<NegocioIndexado> candidatos = new ArrayList<>(List.of(
+                // O mais perto, mas nota baixa e antigo
+                negocioParaRanking(1L, 0.0, 2.0, 0, agora.minusYears(2)),
+                // O melhor avaliado, mas longe e de um ano atras
+                negocioParaRanking(2L, 15.0, 5.0, 50, agora.minusYears(1)),
+                // Nem o mais perto nem o melhor avaliado, mas novo e bom em tudo
+                negocioParaRanking(3L, 6.0, 4.0, 10, agora)
+        ));
+        // Quatro empatados: mesmo lugar, mesma nota, mesma idade
+        for (long id = 4; id <= 7; id++) {
+            candidatos.add(negocioParaRanking(id, 3.0, 3.0, 0, agora));
+        }
+
+        List<NegocioRanqueado> todos = ranking.melhores(candidatos, 0.0, 0.0, 30.0, CursorBusca.INICIO, 100);
+        Assertions.assertEquals(List.of(3L, 2L, 7L, 6L, 5L, 4L, 1L),
+                todos.stream().map(r -> r.negocio().id()).toList());
+        // Nenhum fator sozinho da essa ordem
+        Assertions.assertTrue(todos.get(0).distanciaKm() > todos.get(2).distanciaKm());
+        Assertions.assertEquals(todos.get(2).score(), todos.get(5).score());
+
+        // Paginas de 2 pelo token: os empatados passam de uma pagina para a outra sem repetir nem pular
+        List<Long> paginados = new ArrayList<>();
+        String token = null;
+        do {
+            List<NegocioRanqueado> pagina = ranking.melhores(
+                    candidatos, 0.0, 0.0, 30.0, CursorBusca.decodificar(token), 3);
+            pagina.stream().limit(2).forEach(r -> paginados.add(r.negocio().id()));
+            NegocioRanqueado ultimo = pagina.get(Math.min(2, pagina.size()) - 1);
+            token = pagina.size() > 2 ? new CursorBusca(ultimo.score(), ultimo.negocio().id()).codificar() : null;
+        } while (token != null);
+        Assertions.assertEquals(todos.stream().map(r -> r.negocio().id()).toList(), paginados);
+
+        System.out.println("✅ Ranking combinado com paginacao estavel nos empates");
+    }
+
+    private NegocioIndexado negocioParaRanking(long id, double km, double nota, int avaliacoes, LocalDateTime criadoEm) {
+        // Ao longo do meridiano 0: um grau de latitude tem ~111,2 km
+        return new NegocioIndexado(id, "Ranking E2E " + id, "RANKING", "RANKING", km / 111.195, 0.0,
+                nota, null, avaliacoes, criadoEm);
+    }
+
+    private long criarNegocioEm(String nome, double lat, double lon) throws Exception {
+        MvcResult result = mockMvc.perform(post("/negocios")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .content("""
+                            {
+                                "nome": "%s",
+                                "categoria": "FAXINA",
+                                "latitude": %s,
+                                "longitude": %s,
+                                "enderecoCompleto": "Endereco E2E"
+                            }
+                            """.formatted(nome, lat, lon)))
+                .andExpect(status().isCreated())
+                .andReturn();
+        return objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asLong();
+    }
+
+    private void moverNegocio(long id, double lat, double lon) throws Exception {
+        mockMvc.perform(patch("/negocios/" + id + "/localizacao")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header("Authorization", "Bearer " + tokenPrestador)
+                        .content("{\"latitude\": %s, \"longitude\": %s}".formatted(lat, lon)))
+                .andExpect(status().isNoContent());
+    }
+
+    private List<Long> idsNaBusca(double lat, double lon, String termo) throws Exception {
+        MvcResult result = mockMvc.perform(get("/negocios/busca")
+                        .param("lat", String.valueOf(lat))
+                        .param("lon", String.valueOf(lon))
+                        .param("busca", termo))
+                .andExpect(status().isOk())
+                .andReturn();
+        List<Long> ids = new ArrayList<>();
+        objectMapper.readTree(result.getResponse().getContentAsString()).get("itens")
+                .forEach(item -> ids.add(item.get("id").asLong()));
+        return ids;
+    }
+
+    private double contador(String nome, String tag, String valor) {
+        return meterRegistry.counter(nome, tag, valor).count();
+    }
+
+    @Test
+    @Order(63)
+    @DisplayName("5.17 - Broadcast: com a faixa cheia quem commitou espera a vaga, sem publicar fora de ordem")
+    void broadcastComFaixaCheiaDeveEsperarVaga() throws Exception {
+        var liberar = new CountDownLatch(1);
+        var publicadas = new CopyOnWriteArrayList<Long>();
+        var threads = new CopyOnWriteArrayList<String>();
+        // Broker lento: a primeira publicacao trava a unica faixa
+        MessageChannel broker = (mensagem, timeout) -> {
+            try {
+                if (publicadas.isEmpty()) {
+                    liberar.await(5, TimeUnit.SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            publicadas.add(((MensagemResponseDTO) mensagem.getPayload()).id());
+            threads.add(Thread.currentThread().getName());
+            return true;
+        };
+        var broadcaster = new MensagemBroadcaster(new SimpMessagingTemplate(broker), new SimpleMeterRegistry(),
+                1, 1, 5_000);
+        LongFunction<MensagemEnviadaEvent> evento = id -> new MensagemEnviadaEvent(
+                new MensagemResponseDTO(id, pedidoId, clienteId, "Cliente", "Faixa " + id,
+                        LocalDateTime.now(), false, null, null),
+                MensagemEnviadaEvent.CANAL_REST, System.nanoTime(), true);
+
+        try {
+            broadcaster.onMensagemEnviada(evento.apply(1));
+            broadcaster.onMensagemEnviada(evento.apply(2));
+            // Faixa ocupada e fila (1) cheia: a terceira espera, em vez de sair antes das outras duas
+            CompletableFuture<Void> terceira = CompletableFuture.runAsync(
+                    () -> broadcaster.onMensagemEnviada(evento.apply(3)));
+            Thread.sleep(300);
+            Assertions.assertFalse(terceira.isDone());
+            Assertions.assertTrue(publicadas.isEmpty());
+
+            liberar.countDown();
+            terceira.get(5, TimeUnit.SECONDS);
+            long limite = System.currentTimeMillis() + 5_000;
+            while (publicadas.size() < 3 && System.currentTimeMillis() < limite) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(List.of(1L, 2L, 3L), publicadas);
+            Assertions.assertTrue(threads.stream().allMatch(nome -> nome.startsWith("chat-broadcast-0-")));
+        } finally {
+            ReflectionTestUtils.invokeMethod(broadcaster, "encerrar");
+        }
+
+        System.out.println("✅ Broadcast com faixa cheia mantem a ordem do pedido");
+    }
+
+    @Test
+    @Order(64)
+    @DisplayName("5.18 - Cluster: estados vao consolidados por chave; mensagens vao todas, em ordem")
+    void clusterDeveConsolidarEstados() {
+        ClusterMessageBus bus = Mockito.mock(ClusterMessageBus.class);
+        var relay = new ClusterBrokerRelay(bus, Mockito.mock(MessageChannel.class), new SimpleMeterRegistry(), 100);
+        var entregues = new CopyOnWriteArrayList<Message<?>>();
+        var template = new SimpMessagingTemplate((mensagem, timeout) ->
+                entregues.add(relay.preSend(mensagem, Mockito.mock(MessageChannel.class))));
+
+        String digitando = "/topic/mensagens/" + pedidoId + "/digitando";
+        template.convertAndSend(digitando, "{\"digitando\":true}".getBytes(StandardCharsets.UTF_8),
+                ClusterBrokerRelay.estado(digitando + ":7"));
+        template.convertAndSend("/topic/mensagens/" + pedidoId, "{\"conteudo\":\"oi\"}".getBytes(StandardCharsets.UTF_8));
+
+        Mockito.verify(bus).publicarEstado(Mockito.eq(digitando + ":7"), Mockito.any(EnvelopeCluster.class));
+        Mockito.verify(bus).publicar(Mockito.any(EnvelopeCluster.class));
+        // A chave nao vira header STOMP para o cliente
+        Assertions.assertNull(SimpMessageHeaderAccessor.wrap(entregues.get(0))
+                .getFirstNativeHeader(ClusterBrokerRelay.HEADER_ESTADO));
+
+        var fila = new FilaPublicacaoCluster(4);
+        Assertions.assertTrue(fila.adicionar("m1"));
+        Assertions.assertTrue(fila.adicionarEstado("digitando:7", "d1"));
+        Assertions.assertTrue(fila.adicionar("m2"));
+        Assertions.assertTrue(fila.adicionarEstado("digitando:7", "d2"));
+        Assertions.assertTrue(fila.adicionarEstado("lida:7", "l1"));
+        // Cheia: mensagem nova e estado de chave nova ficam de fora; chave pendente ainda troca de valor
+        Assertions.assertFalse(fila.adicionar("m3"));
+        Assertions.assertFalse(fila.adicionarEstado("lida:8", "l2"));
+        Assertions.assertTrue(fila.adicionarEstado("lida:7", "l3"));
+
+        Assertions.assertEquals(List.of("m1", "m2", "d2"), fila.drenar(3));
+        Assertions.assertEquals(List.of("l3"), fila.drenar(3));
+        Assertions.assertEquals(0, fila.tamanho());
+
+        System.out.println("✅ Estados consolidados antes do barramento");
+    }
+
+    @Test
+    @Order(65)
+    @DisplayName("5.19 - Historico recente: mensagem do write-behind so entra no buffer depois de gravada")
+    void historicoRecenteSoDeveReceberMensagemGravada() throws Exception {
+        var historico = applicationContext.getBean(HistoricoRecenteCache.class);
+        mockMvc.perform(get("/pedidos/" + pedidoId + "/mensagens")
+                        .header("Authorization", "Bearer " + tokenCliente))
+                .andExpect(status().isOk());
+        long ultimaGravada = historico.buscar(pedidoId, null, null, 1).orElseThrow().itens().get(0).id();
+
+        // Ainda na fila (e talvez descartada depois): o envio nao entra no buffer
+        var naFila = new MensagemResponseDTO(Long.MAX_VALUE, pedidoId, clienteId, "Cliente", "Na fila",
+                LocalDateTime.now(), false, null, null);
+        historico.onMensagemEnviada(new MensagemEnviadaEvent(naFila, MensagemEnviadaEvent.CANAL_WEBSOCKET,
+                System.nanoTime(), false));
+        Assertions.assertEquals(ultimaGravada, historico.buscar(pedidoId, null, null, 1).orElseThrow().itens().get(0).id());
+
+        // Pelo write-behind de verdade: aparece quando o lote grava
+        long id = mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "Gravada no lote").id();
+        long limite = System.currentTimeMillis() + 5_000;
+        long ultima = ultimaGravada;
+        while (ultima != id && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+            ultima = historico.buscar(pedidoId, null, null, 1).map(p -> p.itens().get(0).id()).orElse(ultimaGravada);
+        }
+        Assertions.assertEquals(id, ultima);
+        Assertions.assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM mensagem WHERE id = :id", new MapSqlParameterSource("id", id), Integer.class));
+
+        System.out.println("✅ Buffer do historico so com mensagens gravadas");
+    }
+
     // ==========================================
     // 6. FLUXO CANCELAR
     // ==========================================
@@ -0,0 +1,80 @@
+package br.com.easybiz.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import br.com.easybiz.search.CategoriaMatcher;
+
+/**
+ * Compara o CategoriaMatcher com a varredura linear antiga de NegocioService.corrigirCategoria.
+ *
+ * Execucao: mvn test-compile e depois rodar o main desta classe com o classpath de teste.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CategoriaMatcherBenchmark {
+
+    private static final List<String> DICIONARIO = List.of(
+            "PEDREIRO", "ELETRICISTA", "ENCANADOR", "MECANICO",
+            "PINTOR", "MARCENEIRO", "BARBEIRO", "MANICURE",
+            "FAXINA", "JARDINAGEM", "FRETE", "TECNICO",
+            "MOTORISTA", "ENTREGADOR"
+    );
+
+    @Param({ "eletricista", "Eletrecista", "bombeiro hidráulico", "barbearia do joão", "astronauta" })
+    public String termo;
+
+    private CategoriaMatcher matcher;
+
+    @Setup
+    public void setup() {
+        matcher = new CategoriaMatcher(DICIONARIO, Map.of(
+                "BOMBEIRO", "ENCANADOR",
+                "BOMBEIRO HIDRAULICO", "ENCANADOR",
+                "BARBEARIA", "BARBEIRO",
+                "DIARISTA", "FAXINA"
+        ));
+    }
+
+    @Benchmark
+    public String linearAntigo() {
+        String normalizado = termo.toUpperCase().trim();
+        for (String categoria : DICIONARIO) {
+            if (categoria.contains(normalizado) || normalizado.contains(categoria)) {
+                return categoria;
+            }
+        }
+        return termo;
+    }
+
+    @Benchmark
+    public String matcher() {
+        return matcher.resolver(termo).orElse(null);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CategoriaMatcherBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
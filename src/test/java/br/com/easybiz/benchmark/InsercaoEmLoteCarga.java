@@ -0,0 +1,121 @@
+package br.com.easybiz.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import br.com.easybiz.EasybizApplication;
+import br.com.easybiz.model.Negocio;
+import br.com.easybiz.model.PedidoServico;
+import br.com.easybiz.model.StatusPedido;
+import br.com.easybiz.model.Usuario;
+import br.com.easybiz.repository.NegocioRepository;
+import br.com.easybiz.repository.PedidoServicoRepository;
+import br.com.easybiz.repository.UsuarioRepository;
+
+/**
+ * Criacao em massa de usuarios, negocios e pedidos com e sem batch de INSERT do Hibernate.
+ *
+ * Sobe a aplicacao duas vezes com o application.properties de teste (H2): {@code hibernate.jdbc.batch_size=0}
+ * (uma ida ao banco por linha, como era com IDENTITY) e o batch configurado. Os ids vem das sequences em
+ * blocos nos dois casos. Nao roda no {@code mvn test}.
+ *
+ * Execucao: mvn test-compile e depois rodar o main desta classe com o classpath de teste.
+ * Argumentos opcionais: lotes, linhas por lote e uma URL JDBC (ex.: um Postgres local).
+ */
+public class InsercaoEmLoteCarga {
+
+    public static void main(String[] args) {
+        int lotes = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int porLote = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        String url = args.length > 2 ? args[2] : null;
+
+        for (int batchSize : new int[] { 0, 50 }) {
+            executar(batchSize, lotes, porLote, url);
+        }
+    }
+
+    private static void executar(int batchSize, int lotes, int porLote, String url) {
+        List<String> propriedades = new ArrayList<>(List.of(
+                "spring.jpa.properties.hibernate.jdbc.batch_size=" + batchSize,
+                "spring.jpa.properties.hibernate.generate_statistics=false",
+                "spring.jpa.show-sql=false",
+                "app.chat.write-behind.enabled=false",
+                "server.port=0",
+                "spring.mail.host=localhost",
+                "logging.level.root=WARN"
+        ));
+        if (url != null) {
+            propriedades.add("spring.datasource.url=" + url);
+        }
+
+        try (ConfigurableApplicationContext contexto = new SpringApplicationBuilder(EasybizApplication.class)
+                .properties(propriedades.toArray(new String[0]))
+                .run()) {
+
+            TransactionTemplate transacao = contexto.getBean(TransactionTemplate.class);
+            UsuarioRepository usuarios = contexto.getBean(UsuarioRepository.class);
+            NegocioRepository negocios = contexto.getBean(NegocioRepository.class);
+            PedidoServicoRepository pedidos = contexto.getBean(PedidoServicoRepository.class);
+
+            // Aquecimento
+            for (int i = 0; i < 5; i++) {
+                criarLote(transacao, usuarios, negocios, pedidos, "aquecimento" + batchSize + "." + i, porLote);
+            }
+
+            long inicio = System.nanoTime();
+            for (int i = 0; i < lotes; i++) {
+                criarLote(transacao, usuarios, negocios, pedidos, "carga" + batchSize + "." + i, porLote);
+            }
+            long duracao = System.nanoTime() - inicio;
+
+            long linhas = (long) lotes * porLote * 3;
+            System.out.printf("batch_size=%-3d %,d linhas (usuarios + negocios + pedidos): %,.0f linhas/s (%d ms)%n",
+                    batchSize, linhas, linhas / (duracao / 1e9), duracao / 1_000_000);
+        }
+    }
+
+    private static void criarLote(TransactionTemplate transacao, UsuarioRepository usuarios,
+                                  NegocioRepository negocios, PedidoServicoRepository pedidos,
+                                  String prefixo, int quantidade) {
+        transacao.executeWithoutResult(status -> {
+            List<Usuario> novosUsuarios = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                Usuario usuario = new Usuario();
+                usuario.setNomeCompleto("Usuario " + i);
+                usuario.setEmail(prefixo + "." + i + "@carga.com");
+                usuario.setSenha("x");
+                novosUsuarios.add(usuario);
+            }
+            usuarios.saveAll(novosUsuarios);
+
+            List<Negocio> novosNegocios = new ArrayList<>(quantidade);
+            for (Usuario dono : novosUsuarios) {
+                novosNegocios.add(Negocio.builder()
+                        .nome("Negocio " + dono.getId())
+                        .categoria("PEDREIRO")
+                        .usuario(dono)
+                        .latitude(-23.55)
+                        .longitude(-46.63)
+                        .build());
+            }
+            negocios.saveAll(novosNegocios);
+
+            List<PedidoServico> novosPedidos = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                novosPedidos.add(PedidoServico.builder()
+                        .cliente(novosUsuarios.get((i + 1) % quantidade))
+                        .negocio(novosNegocios.get(i))
+                        .status(StatusPedido.ABERTO)
+                        .descricao("Carga")
+                        .criadoEm(LocalDateTime.now())
+                        .build());
+            }
+            pedidos.saveAll(novosPedidos);
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package br.com.easybiz.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import br.com.easybiz.security.JwtAuthenticationFilter;
+import br.com.easybiz.security.JwtService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.FilterChain;
+
+/**
+ * Custo do JwtAuthenticationFilter por requisicao, com e sem o cache de tokens verificados.
+ *
+ * Execucao: mvn test-compile e depois rodar o main desta classe com o classpath de teste.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtAuthenticationFilterBenchmark {
+
+    private static final String SECRET = "ChaveDeBenchmarkComMaisDe32CaracteresParaHS256";
+    private static final long UM_DIA_MS = 86_400_000L;
+
+    private final FilterChain chain = (req, res) -> { };
+
+    private JwtAuthenticationFilter filtroSemCache;
+    private JwtAuthenticationFilter filtroComCache;
+    private MockHttpServletRequest request;
+
+    @Setup
+    public void setup() {
+        JwtService semCache = new JwtService(SECRET, UM_DIA_MS, 0, new SimpleMeterRegistry());
+        JwtService comCache = new JwtService(SECRET, UM_DIA_MS, 10_000, new SimpleMeterRegistry());
+        filtroSemCache = new JwtAuthenticationFilter(semCache);
+        filtroComCache = new JwtAuthenticationFilter(comCache);
+
+        request = new MockHttpServletRequest("GET", "/usuarios/me");
+        request.addHeader("Authorization", "Bearer " + comCache.gerarToken(42L, "benchmark@teste.com"));
+    }
+
+    @Benchmark
+    public Authentication semCache() throws Exception {
+        return filtrar(filtroSemCache);
+    }
+
+    @Benchmark
+    public Authentication comCache() throws Exception {
+        return filtrar(filtroComCache);
+    }
+
+    private Authentication filtrar(JwtAuthenticationFilter filtro) throws Exception {
+        // OncePerRequestFilter marca o request; limpa para que cada iteracao passe pelo filtro de novo
+        request.clearAttributes();
+        filtro.doFilter(request, new MockHttpServletResponse(), chain);
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        SecurityContextHolder.clearContext();
+        return auth;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(JwtAuthenticationFilterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
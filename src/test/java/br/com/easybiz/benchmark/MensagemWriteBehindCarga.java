@@ -0,0 +1,137 @@
+package br.com.easybiz.benchmark;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import br.com.easybiz.EasybizApplication;
+import br.com.easybiz.model.Negocio;
+import br.com.easybiz.model.PedidoServico;
+import br.com.easybiz.model.StatusPedido;
+import br.com.easybiz.model.Usuario;
+import br.com.easybiz.repository.NegocioRepository;
+import br.com.easybiz.repository.PedidoServicoRepository;
+import br.com.easybiz.repository.UsuarioRepository;
+import br.com.easybiz.service.MensagemService;
+
+/**
+ * Teste de carga do envio de mensagens pelo WebSocket: gravacao sincrona x write-behind.
+ *
+ * Sobe a aplicacao duas vezes (uma em cada modo) com o application.properties de teste (H2)
+ * e mede mensagens/s aceitas e o tempo ate todas estarem no banco. Nao roda no {@code mvn test}.
+ *
+ * Execucao: mvn test-compile e depois rodar o main desta classe com o classpath de teste.
+ * Argumentos opcionais: threads, mensagens por thread e uma URL JDBC (ex.: um Postgres local).
+ */
+public class MensagemWriteBehindCarga {
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int porThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        String url = args.length > 2 ? args[2] : null;
+
+        for (boolean writeBehind : new boolean[] { false, true }) {
+            executar(writeBehind, threads, porThread, url);
+        }
+    }
+
+    private static void executar(boolean writeBehind, int threads, int porThread, String url) throws Exception {
+        List<String> propriedades = new ArrayList<>(List.of(
+                "app.chat.write-behind.enabled=" + writeBehind,
+                "server.port=0",
+                "spring.jpa.show-sql=false",
+                "spring.mail.host=localhost",
+                "logging.level.root=WARN"
+        ));
+        if (url != null) {
+            propriedades.add("spring.datasource.url=" + url);
+        }
+
+        try (ConfigurableApplicationContext contexto = new SpringApplicationBuilder(EasybizApplication.class)
+                .properties(propriedades.toArray(new String[0]))
+                .run()) {
+
+            Long[] participantes = prepararPedido(contexto);
+            Long pedidoId = participantes[0];
+            Long clienteId = participantes[1];
+            MensagemService mensagemService = contexto.getBean(MensagemService.class);
+            JdbcTemplate jdbc = contexto.getBean(JdbcTemplate.class);
+
+            // Aquecimento (JIT, pool de conexoes, caches)
+            for (int i = 0; i < 500; i++) {
+                mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "aquecimento " + i);
+            }
+            aguardarGravacao(jdbc, pedidoId, 500);
+
+            int total = threads * porThread;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            long inicio = System.nanoTime();
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tarefas.add(executor.submit(() -> {
+                    for (int i = 0; i < porThread; i++) {
+                        mensagemService.enviarMensagemTempoReal(pedidoId, clienteId, "carga " + i);
+                    }
+                }));
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get();
+            }
+            long aceitas = System.nanoTime() - inicio;
+            aguardarGravacao(jdbc, pedidoId, 500 + total);
+            long gravadas = System.nanoTime() - inicio;
+            executor.shutdown();
+
+            System.out.printf("%-13s %,d mensagens, %d threads: %,.0f msg/s aceitas, %,.0f msg/s ate gravar (%d ms)%n",
+                    writeBehind ? "write-behind" : "sincrono", total, threads,
+                    total / (aceitas / 1e9), total / (gravadas / 1e9), gravadas / 1_000_000);
+        }
+    }
+
+    private static Long[] prepararPedido(ConfigurableApplicationContext contexto) {
+        UsuarioRepository usuarios = contexto.getBean(UsuarioRepository.class);
+        Usuario cliente = new Usuario();
+        cliente.setNomeCompleto("Cliente Carga");
+        cliente.setEmail("cliente.carga." + System.nanoTime() + "@teste.com");
+        cliente.setSenha("x");
+        cliente = usuarios.save(cliente);
+
+        Usuario prestador = new Usuario();
+        prestador.setNomeCompleto("Prestador Carga");
+        prestador.setEmail("prestador.carga." + System.nanoTime() + "@teste.com");
+        prestador.setSenha("x");
+        prestador = usuarios.save(prestador);
+
+        Negocio negocio = contexto.getBean(NegocioRepository.class).save(Negocio.builder()
+                .nome("Negocio Carga")
+                .categoria("PEDREIRO")
+                .usuario(prestador)
+                .latitude(-23.55)
+                .longitude(-46.63)
+                .build());
+
+        PedidoServico pedido = contexto.getBean(PedidoServicoRepository.class).save(PedidoServico.builder()
+                .cliente(cliente)
+                .negocio(negocio)
+                .status(StatusPedido.ABERTO)
+                .descricao("Carga")
+                .criadoEm(LocalDateTime.now())
+                .build());
+
+        return new Long[] { pedido.getId(), cliente.getId() };
+    }
+
+    private static void aguardarGravacao(JdbcTemplate jdbc, Long pedidoId, int esperadas) throws InterruptedException {
+        while (jdbc.queryForObject("SELECT COUNT(*) FROM mensagem WHERE pedido_servico_id = ?",
+                Integer.class, pedidoId) < esperadas) {
+            Thread.sleep(20);
+        }
+    }
+}